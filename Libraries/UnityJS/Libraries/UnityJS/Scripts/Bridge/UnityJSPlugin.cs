@@ -35,6 +35,7 @@ using System.Text.RegularExpressions;
 
 using StringCallback = System.Action<string>;
 using TextureCallback = System.Action<UnityEngine.Texture2D>;
+using RequestCallback = System.Action<string, int>;
 
 
 namespace UnityJS {
@@ -49,6 +50,42 @@ public class UnityJSPlugin : MonoBehaviour {
     static UnitySendMessageDelegate unitySendMessageDelegate;
 #endif
 
+    // How the Android plugin delivers messages from JS, see SetMessageDelivery.
+    public const int MESSAGE_DELIVERY_IMMEDIATE = 0;
+    public const int MESSAGE_DELIVERY_BATCHED = 1;
+    public const int MESSAGE_DELIVERY_RENDER_TICK = 2;
+    public const int MESSAGE_DELIVERY_POLLED = 3;
+
+    // How the Android plugin passes batched messages across JNI, see SetMessageTransport.
+    public const int MESSAGE_TRANSPORT_STRING = 0;
+    public const int MESSAGE_TRANSPORT_RING = 1;
+
+    // When the Android plugin draws the web view into its texture, see SetRenderMode.
+    public const int RENDER_MODE_ON_DEMAND = 0;
+    public const int RENDER_MODE_CONTINUOUS = 1;
+    public const int RENDER_MODE_PAUSED = 2;
+
+    // How the Android plugin syncs its blit into the texture with Unity, see SetRenderSync.
+    public const int RENDER_SYNC_FINISH = 0;
+    public const int RENDER_SYNC_FENCE = 1;
+    public const int RENDER_SYNC_FLUSH = 2;
+
+    // How often the Android plugin checks for GL errors, see SetGLErrorCheck.
+    public const int GL_ERROR_CHECK_OFF = 0;
+    public const int GL_ERROR_CHECK_SAMPLED = 1;
+    public const int GL_ERROR_CHECK_FULL = 2;
+
+    // How an EvaluateJSRequest finished, passed to its callback with the result.
+    public const int REQUEST_STATUS_RESULT = 0;
+    public const int REQUEST_STATUS_TIMEOUT = 1;
+    public const int REQUEST_STATUS_CANCELLED = 2;
+
+    // Console message levels for SetConsoleFilter.
+    public const int CONSOLE_LEVEL_DEBUG = 0;
+    public const int CONSOLE_LEVEL_LOG = 1;
+    public const int CONSOLE_LEVEL_WARNING = 2;
+    public const int CONSOLE_LEVEL_ERROR = 3;
+
     static IntPtr renderEventFunc;
     static Dictionary<string, UnityJSPlugin> plugins = new Dictionary<string, UnityJSPlugin>();
 
@@ -57,6 +94,7 @@ public class UnityJSPlugin : MonoBehaviour {
     public event StringCallback onError;
     public event StringCallback onLoaded;
     public event StringCallback onConsoleMessage;
+    public event StringCallback onStats;
     public event TextureCallback onTexture;
 
     public string pluginID;
@@ -64,10 +102,20 @@ public class UnityJSPlugin : MonoBehaviour {
     public long textureHandle = -1;
     public int textureWidth = 0;
     public int textureHeight = 0;
+    public int textureAllocatedWidth = 0;
+    public int textureAllocatedHeight = 0;
+    public Vector2 textureScale = Vector2.one; // Scale UVs by this to show just the web view, see SetRenderTexturePooling.
+    public Rect textureUVRect = new Rect(0, 0, 1, 1); // Where the web view is in the texture, see SetRenderTextureAtlas.
+    public bool texturePooling;
+    public bool textureAtlas;
     public Texture2D texture;
     public bool issuePluginRenderEvents = true;
     public bool pluginRenderEventIssued;
+    public bool waitRenderFences; // Only needed if the texture is sampled from another GL context, with SetRenderSync(RENDER_SYNC_FENCE).
     public List<string> messageQueue = new List<string>();
+    public bool pollMessages;
+    public Dictionary<int, RequestCallback> requestCallbacks = new Dictionary<int, RequestCallback>();
+    int nextRequestID;
 
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
     IntPtr plugin;
@@ -325,11 +373,59 @@ public class UnityJSPlugin : MonoBehaviour {
         //Debug.Log("UnityJSPlugin: HandleUnitySendMessage: BEGIN: pluginID: " + pluginID + " method: " + method + " message: " + message);
 
         lock (messageQueue) {
+            if (method == "Batch") {
+                UnpackMessageBatch(message);
+            } else {
+                messageQueue.Add(method);
+                messageQueue.Add(message);
+            }
+        }
+
+        //Debug.Log("UnityJSPlugin: HandleUnitySendMessage: DONE: pluginID: " + pluginID + " method: " + method + " message: " + message);
+    }
+
+
+    // Unpacks a batch of messages framed by the Android plugin's MessageQueue
+    // as <length>:<method><length>:<message>... into messageQueue.
+    // The caller must hold the messageQueue lock.
+    public void UnpackMessageBatch(string payload)
+    {
+        int position = 0;
+
+        while (position < payload.Length) {
+
+            string method = UnpackMessageBatchField(payload, ref position);
+            string message = (method == null) ? null : UnpackMessageBatchField(payload, ref position);
+
+            if (message == null) {
+                Debug.LogError("UnityJSPlugin: UnpackMessageBatch: pluginID: " + pluginID + " malformed batch at position: " + position + " payload.Length: " + payload.Length);
+                return;
+            }
+
             messageQueue.Add(method);
             messageQueue.Add(message);
         }
+    }
+
+
+    private static string UnpackMessageBatchField(string payload, ref int position)
+    {
+        int colon = payload.IndexOf(':', position);
+        if (colon < 0) {
+            return null;
+        }
 
-        //Debug.Log("UnityJSPlugin: HandleUnitySendMessage: DONE: pluginID: " + pluginID + " method: " + method + " message: " + message);
+        int length;
+        if (!int.TryParse(payload.Substring(position, colon - position), out length) ||
+            (length < 0) ||
+            ((colon + 1 + length) > payload.Length)) {
+            return null;
+        }
+
+        string field = payload.Substring(colon + 1, length);
+        position = colon + 1 + length;
+
+        return field;
     }
 
 
@@ -386,6 +482,14 @@ public class UnityJSPlugin : MonoBehaviour {
                         SetKeyboardVisible(message);
                         break;
 
+                    case "Stats":
+                        CallOnStats(message);
+                        break;
+
+                    case "ReturnResults":
+                        ReturnResults(message);
+                        break;
+
                     default:
                         Debug.LogError("UnityJSPlugin: PumpMessageQueue: pluginID: " + pluginID + " undefined method: " + method + " message: " + message);
                         break;
@@ -403,16 +507,21 @@ public class UnityJSPlugin : MonoBehaviour {
     }
 
 
-    public void SetRect(int width, int height)
+    public void SetMessageBatching(bool enabled, int maxPayloadLength=65536, int maxDelayMS=16)
     {
+        SetMessageDelivery(
+            enabled ? MESSAGE_DELIVERY_BATCHED : MESSAGE_DELIVERY_IMMEDIATE,
+            maxPayloadLength,
+            maxDelayMS);
+    }
 
-#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
 
-        if (plugin == IntPtr.Zero) {
-            return;
-        }
+    public void SetMessageDelivery(int mode, int maxPayloadLength=65536, int maxDelayMS=16)
+    {
 
-        _CUnityJSPlugin_SetRect(plugin, width, height);
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
 
 #elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
@@ -424,23 +533,21 @@ public class UnityJSPlugin : MonoBehaviour {
             return;
         }
 
-        plugin.Call("SetRect", width, height);
+        plugin.Call("SetMessageDelivery", mode, maxPayloadLength, maxDelayMS);
+
+        pollMessages = (mode == MESSAGE_DELIVERY_POLLED);
 
 #endif
 
     }
 
 
-    public void SetVisibility(bool v)
+    public void SetMessageTransport(int transport, int ringCapacity=0)
     {
 
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
 
-        if (plugin == IntPtr.Zero) {
-            return;
-        }
-
-        _CUnityJSPlugin_SetVisibility(plugin, v);
+        // TODO
 
 #elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
@@ -452,67 +559,57 @@ public class UnityJSPlugin : MonoBehaviour {
             return;
         }
 
-        plugin.Call("SetVisibility", v);
+        plugin.Call("SetMessageTransport", transport, ringCapacity);
 
 #endif
 
-        visibility = v;
-    }
-
-
-    public bool GetVisibility()
-    {
-        return visibility;
     }
 
 
-    public void LoadURL(string url)
+    // Send messages from JS through an asynchronous WebMessagePort instead
+    // of the blocking JavascriptInterface, so page scripts don't stall on
+    // the bridge. Returns false where that isn't supported.
+    public bool SetWebMessageChannel(bool enabled)
     {
-        //Debug.Log("UnityJSPlugin: LoadURL: url: " + url);
-
-        if (string.IsNullOrEmpty(url)) {
-            return;
-        }
 
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
 
-        if (plugin == IntPtr.Zero) {
-            return;
-        }
-
-        _CUnityJSPlugin_LoadURL(plugin, url);
+        // TODO
+        return false;
 
 #elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
         // TODO
+        return false;
 
 #elif UNITY_ANDROID
 
         if (plugin == null) {
-            return;
+            return false;
         }
 
-        plugin.Call("LoadURL", url);
+        return plugin.Call<bool>("SetWebMessageChannel", enabled);
+
+#else
+
+        return false;
 
 #endif
 
     }
 
 
-    public void EvaluateJS(string js)
+    // Queue LoadURL, EvaluateJS, EvaluateJSReturnResult, GoBack, GoForward,
+    // SetRect and SetVisibility, and run them together once per frame.
+    // Only the last SetRect and SetVisibility apply, and consecutive
+    // EvaluateJS scripts are joined into one. See EvaluateJS for how
+    // each script is run.
+    public void SetCommandBatching(bool enabled)
     {
-        //Debug.Log("UnityJSPlugin: EvaluateJS: js: " + js, this);
 
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
 
-        if (plugin == IntPtr.Zero) {
-            //Debug.Log("UnityJSPlugin: EvaluateJS: no plugin", this);
-            return;
-        }
-
-        //Debug.Log("UnityJSPlugin: EvaluateJS: CUnityJSPlugin EvaluateJS: js: " + js, this); 
-
-        _CUnityJSPlugin_EvaluateJS(plugin, js);
+        // TODO
 
 #elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
@@ -521,116 +618,142 @@ public class UnityJSPlugin : MonoBehaviour {
 #elif UNITY_ANDROID
 
         if (plugin == null) {
-            //Debug.Log("UnityJSPlugin: EvaluateJS: no plugin", this);
             return;
         }
 
-        plugin.Call("EvaluateJS", js);
+        plugin.Call("SetCommandBatching", enabled);
 
 #endif
 
     }
 
 
-    public void EvaluateJSReturnResult(string js)
+    public void PollMessages()
     {
-        //Debug.Log("UnityJSPlugin: EvaluateJSReturnResult: js: " + js, this);
 
-#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+#if UNITY_ANDROID && !UNITY_EDITOR
 
-        if (plugin == IntPtr.Zero) {
-            //Debug.Log("UnityJSPlugin: EvaluateJSReturnResult: no plugin", this);
+        if (plugin == null) {
             return;
         }
 
-        _CUnityJSPlugin_EvaluateJSReturnResult(plugin, js);
+        string payload = plugin.Call<string>("PollMessages");
+        if (string.IsNullOrEmpty(payload)) {
+            return;
+        }
+
+        lock (messageQueue) {
+            UnpackMessageBatch(payload);
+        }
+
+#endif
+
+    }
+
+
+    // Returns the plugin's performance counters as JSON: frames rendered
+    // and skipped, time spent rendering, messages and chars sent each way,
+    // and how many messages are queued. Null where that isn't supported.
+    public string GetStats()
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+        return null;
 
 #elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
         // TODO
+        return null;
 
 #elif UNITY_ANDROID
 
         if (plugin == null) {
-            //Debug.Log("UnityJSPlugin: EvaluateJSReturnResult: no plugin", this);
-            return;
+            return null;
         }
 
-        plugin.Call("EvaluateJSReturnResult", js);
+        return plugin.Call<string>("GetStats");
+
+#else
+
+        return null;
 
 #endif
 
     }
 
 
-    public bool CanGoBack()
+    // Also push GetStats to onStats every intervalMS. 0 turns that off.
+    public void SetStatsInterval(int intervalMS)
     {
 
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
 
-        if (plugin == IntPtr.Zero) {
-            return false;
-        }
-
-        return _CUnityJSPlugin_CanGoBack(plugin);
+        // TODO
 
 #elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
         // TODO
-        return false;
 
 #elif UNITY_ANDROID
 
         if (plugin == null) {
-            return false;
+            return;
         }
 
-        return plugin.Get<bool>("canGoBack");
+        plugin.Call("SetStatsInterval", intervalMS);
 
 #endif
 
     }
 
 
-    public bool CanGoForward()
+    // Latency percentiles of the bridge in microseconds, as JSON, by hop
+    // (fromJS, toUnity, toWebView, roundTrip) and name. Pages name their
+    // messages with Unity.call(message, Date.now(), name), which also
+    // times the fromJS hop, otherwise they're recorded under the method.
+    public string GetLatencyStats()
     {
 
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
 
-        if (plugin == IntPtr.Zero) {
-            return false;
-        }
-
-        return _CUnityJSPlugin_CanGoForward(plugin);
+        // TODO
+        return null;
 
 #elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
         // TODO
-        return false;
+        return null;
 
 #elif UNITY_ANDROID
 
         if (plugin == null) {
-            return false;
+            return null;
         }
 
-        return plugin.Get<bool>("canGoForward");
+        return plugin.Call<string>("GetLatencyStats");
+
+#else
+
+        return null;
 
 #endif
 
     }
 
 
-    public void GoBack()
+    // Only captures or forwards console messages of minLevel (a
+    // CONSOLE_LEVEL) and up, from sources containing sourceFilter, if it
+    // isn't empty. If forward is true, sends them to onConsoleMessage, at
+    // most maxPerSecond a second (0 for no limit), with a line saying how
+    // many were suppressed.
+    public void SetConsoleFilter(int minLevel, string sourceFilter, int maxPerSecond, bool forward)
     {
 
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
 
-        if (plugin == IntPtr.Zero) {
-            return;
-        }
-
-        _CUnityJSPlugin_GoBack(plugin);
+        // TODO
 
 #elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
@@ -642,22 +765,21 @@ public class UnityJSPlugin : MonoBehaviour {
             return;
         }
 
-        plugin.Call("GoBack");
+        plugin.Call("SetConsoleFilter", minLevel, sourceFilter, maxPerSecond, forward);
 
 #endif
 
     }
 
 
-    public void GoForward()
+    // Keeps the last capacity console messages that pass the filter, for
+    // GetConsoleMessages. 0 turns that off.
+    public void SetConsoleCapture(int capacity)
     {
 
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
-        if (plugin == IntPtr.Zero) {
-            return;
-        }
 
-        _CUnityJSPlugin_GoForward(plugin);
+        // TODO
 
 #elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
@@ -669,118 +791,727 @@ public class UnityJSPlugin : MonoBehaviour {
             return;
         }
 
-        plugin.Call("GoForward");
+        plugin.Call("SetConsoleCapture", capacity);
 
 #endif
+
     }
 
 
-    public void CallOnError(string errorMessage)
+    // Returns the captured console messages as JSON, oldest first, and
+    // removes them if clear is true.
+    public string GetConsoleMessages(bool clear=true)
     {
 
-        //Debug.Log("UnityJSPlugin: CallOnError: errorMessage: " + errorMessage, this);
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
 
-        if (onError != null) {
-            onError(errorMessage);
-        }
+        // TODO
+        return null;
 
-    }
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
+        // TODO
+        return null;
 
-    public void CallOnLoaded(string loadedUrl)
-    {
-        //Debug.Log("UnityJSPlugin: CallOnLoaded: loadedUrl: " + loadedUrl, this);
+#elif UNITY_ANDROID
 
-        if (onLoaded != null) {
-            onLoaded(loadedUrl);
+        if (plugin == null) {
+            return null;
         }
-    }
 
+        return plugin.Call<string>("GetConsoleMessages", clear);
 
-    public void CallFromJS(string data)
-    {
-        //Debug.Log("UnityJSPlugin: CallFromJS: data: " + data);
+#else
+
+        return null;
+
+#endif
 
-        if (onJS != null) {
-            onJS(data);
-        }
     }
 
 
-    public void ReturnResultFromJS(string data)
+    public void ResetLatencyStats()
     {
-        //Debug.Log("UnityJSPlugin: ReturnResultFromJS: data: " + data);
 
-        if (onResult != null) {
-            onResult(data);
-        }
-    }
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
 
+        // TODO
 
-    public void CallOnConsoleMessage(string consoleMessage)
-    {
-        //Debug.Log("UnityJSPlugin: CallOnConsoleMessage: consoleMessage: " + consoleMessage, this);
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
 
-        if (onConsoleMessage != null) {
-            onConsoleMessage(consoleMessage);
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
         }
+
+        plugin.Call("ResetLatencyStats");
+
+#endif
+
     }
 
 
-    public void CallOnTexture()
+    public void SetRect(int width, int height)
     {
 
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
-        long newTextureHandle = _CUnityJSPlugin_GetRenderTextureHandle(plugin);
-#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
-        // TODO
-        long newTextureHandle = 0;
-#elif UNITY_ANDROID
-        long newTextureHandle = plugin.Call<long>("GetRenderTextureHandle");
-#endif
 
-        //Debug.Log("UnityJSPlugin: CallOnTexture: newTextureHandle: " + newTextureHandle + " textureHandle: " + textureHandle);
-        if (newTextureHandle != textureHandle) {
-            //Debug.Log("UnityJSPlugin: CallOnTexture: textureHandle changed from: " + textureHandle + " to: " + newTextureHandle);
-            textureHandle = newTextureHandle;
-            texture = null;
+        if (plugin == IntPtr.Zero) {
+            return;
         }
 
-        if ((texture == null) && (textureHandle != 0)) {
+        _CUnityJSPlugin_SetRect(plugin, width, height);
 
-#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
-            textureWidth = _CUnityJSPlugin_GetRenderTextureWidth(plugin);
-            textureHeight = _CUnityJSPlugin_GetRenderTextureHeight(plugin);
 #elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
-            // TODO
-            textureWidth = 0;
-            textureHeight = 0;
-#elif UNITY_ANDROID
-            textureWidth = plugin.Call<int>("GetRenderTextureWidth");
-            textureHeight = plugin.Call<int>("GetRenderTextureHeight");
-#endif
 
-            texture = Texture2D.CreateExternalTexture(textureWidth, textureHeight, TextureFormat.RGBA32, false, true, (IntPtr)textureHandle);
+        // TODO
 
-            //Debug.Log("UnityJSPlugin: CallOnTexture: CreateExternalTexture width: " + textureWidth + " height: " + textureHeight + " textureHandle: " + textureHandle + " texture: " + texture);
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
         }
 
-        //Debug.Log("UnityJSPlugin: CallOnTexture texture: " + texture + " onTexture: " + onTexture, this);
+        plugin.Call("SetRect", width, height);
 
-        if (onTexture != null) {
-            onTexture(texture);
-        }
+#endif
 
     }
 
 
-    private IntPtr GetRenderEventFunc()
+    public void SetVisibility(bool v)
     {
-        if (renderEventFunc == (IntPtr)0) {
-            renderEventFunc =
+
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
-                (IntPtr)_CUnityJSPlugin_GetRenderEventFunc();
-#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        if (plugin == IntPtr.Zero) {
+            return;
+        }
+
+        _CUnityJSPlugin_SetVisibility(plugin, v);
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("SetVisibility", v);
+
+#endif
+
+        visibility = v;
+    }
+
+
+    public bool GetVisibility()
+    {
+        return visibility;
+    }
+
+
+    public void LoadURL(string url)
+    {
+        //Debug.Log("UnityJSPlugin: LoadURL: url: " + url);
+
+        if (string.IsNullOrEmpty(url)) {
+            return;
+        }
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        if (plugin == IntPtr.Zero) {
+            return;
+        }
+
+        _CUnityJSPlugin_LoadURL(plugin, url);
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("LoadURL", url);
+
+#endif
+
+    }
+
+
+    // On Android each script runs in its own try block, whether or not
+    // command batching joins it with others, so an exception is logged
+    // to the page's console instead of stopping the scripts after it.
+    // That makes top level let, const and class declarations local to
+    // the script, so scripts that share globals have to use var or
+    // window.
+    public void EvaluateJS(string js)
+    {
+        //Debug.Log("UnityJSPlugin: EvaluateJS: js: " + js, this);
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        if (plugin == IntPtr.Zero) {
+            //Debug.Log("UnityJSPlugin: EvaluateJS: no plugin", this);
+            return;
+        }
+
+        //Debug.Log("UnityJSPlugin: EvaluateJS: CUnityJSPlugin EvaluateJS: js: " + js, this); 
+
+        _CUnityJSPlugin_EvaluateJS(plugin, js);
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            //Debug.Log("UnityJSPlugin: EvaluateJS: no plugin", this);
+            return;
+        }
+
+        plugin.Call("EvaluateJS", js);
+
+#endif
+
+    }
+
+
+    public void EvaluateJSReturnResult(string js)
+    {
+        //Debug.Log("UnityJSPlugin: EvaluateJSReturnResult: js: " + js, this);
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        if (plugin == IntPtr.Zero) {
+            //Debug.Log("UnityJSPlugin: EvaluateJSReturnResult: no plugin", this);
+            return;
+        }
+
+        _CUnityJSPlugin_EvaluateJSReturnResult(plugin, js);
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            //Debug.Log("UnityJSPlugin: EvaluateJSReturnResult: no plugin", this);
+            return;
+        }
+
+        plugin.Call("EvaluateJSReturnResult", js);
+
+#endif
+
+    }
+
+
+    // Evaluates js, and calls callback with its result as JSON, and one of
+    // the REQUEST_STATUS codes. Unlike EvaluateJSReturnResult, any number
+    // of requests can be in flight at once, each with its own callback.
+    // If timeoutMS is more than 0, the callback gets REQUEST_STATUS_TIMEOUT
+    // if the result isn't back by then. Returns the request's ID, for
+    // CancelEvaluateJSRequest, or 0 where that isn't supported.
+    public int EvaluateJSRequest(string js, RequestCallback callback, int timeoutMS=0)
+    {
+        //Debug.Log("UnityJSPlugin: EvaluateJSRequest: js: " + js + " timeoutMS: " + timeoutMS, this);
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+        return 0;
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+        return 0;
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            //Debug.Log("UnityJSPlugin: EvaluateJSRequest: no plugin", this);
+            return 0;
+        }
+
+        int requestID = ++nextRequestID;
+        requestCallbacks[requestID] = callback;
+
+        plugin.Call("EvaluateJSRequest", requestID, js, timeoutMS);
+
+        return requestID;
+
+#else
+
+        return 0;
+
+#endif
+
+    }
+
+
+    // Makes the request's callback get REQUEST_STATUS_CANCELLED instead of
+    // its result, if it hasn't finished yet.
+    public void CancelEvaluateJSRequest(int requestID)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("CancelEvaluateJSRequest", requestID);
+
+#endif
+
+    }
+
+
+    // Registers source, a JS function expression, as functionID. It's
+    // installed in the page once, and again after every page load, so
+    // CallJSFunction only has to send the ID and arguments.
+    public void RegisterJSFunction(int functionID, string source)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("RegisterJSFunction", functionID, source);
+
+#endif
+
+    }
+
+
+    public void UnregisterJSFunction(int functionID)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("UnregisterJSFunction", functionID);
+
+#endif
+
+    }
+
+
+    // Calls the function registered as functionID. args is inserted into
+    // the call as JS source, usually JSON, and can be empty.
+    public void CallJSFunction(int functionID, string args="")
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("CallJSFunction", functionID, args);
+
+#endif
+
+    }
+
+
+    // Like CallJSFunction, but calls callback with the function's result,
+    // like EvaluateJSRequest.
+    public int CallJSFunctionRequest(int functionID, string args, RequestCallback callback, int timeoutMS=0)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+        return 0;
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+        return 0;
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return 0;
+        }
+
+        int requestID = ++nextRequestID;
+        requestCallbacks[requestID] = callback;
+
+        plugin.Call("CallJSFunctionRequest", requestID, functionID, args, timeoutMS);
+
+        return requestID;
+
+#else
+
+        return 0;
+
+#endif
+
+    }
+
+
+    // Unpacks a batch of results framed by the Android plugin's ResultQueue
+    // as <length>:<status><requestID><length>:<result>..., and calls their
+    // callbacks.
+    public void ReturnResults(string payload)
+    {
+        int position = 0;
+
+        while (position < payload.Length) {
+
+            string id = UnpackMessageBatchField(payload, ref position);
+            string result = (id == null) ? null : UnpackMessageBatchField(payload, ref position);
+
+            int requestID;
+            if ((result == null) ||
+                (id.Length < 2) ||
+                !int.TryParse(id.Substring(1), out requestID)) {
+                Debug.LogError("UnityJSPlugin: ReturnResults: pluginID: " + pluginID + " malformed batch at position: " + position + " payload.Length: " + payload.Length);
+                return;
+            }
+
+            int status;
+            switch (id[0]) {
+                case 't':
+                    status = REQUEST_STATUS_TIMEOUT;
+                    break;
+                case 'c':
+                    status = REQUEST_STATUS_CANCELLED;
+                    break;
+                default:
+                    status = REQUEST_STATUS_RESULT;
+                    break;
+            }
+
+            RequestCallback callback;
+            if (!requestCallbacks.TryGetValue(requestID, out callback)) {
+                continue;
+            }
+            requestCallbacks.Remove(requestID);
+
+            if (callback != null) {
+                callback(result, status);
+            }
+        }
+    }
+
+
+    public bool CanGoBack()
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        if (plugin == IntPtr.Zero) {
+            return false;
+        }
+
+        return _CUnityJSPlugin_CanGoBack(plugin);
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+        return false;
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return false;
+        }
+
+        return plugin.Get<bool>("canGoBack");
+
+#endif
+
+    }
+
+
+    public bool CanGoForward()
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        if (plugin == IntPtr.Zero) {
+            return false;
+        }
+
+        return _CUnityJSPlugin_CanGoForward(plugin);
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+        return false;
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return false;
+        }
+
+        return plugin.Get<bool>("canGoForward");
+
+#endif
+
+    }
+
+
+    public void GoBack()
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        if (plugin == IntPtr.Zero) {
+            return;
+        }
+
+        _CUnityJSPlugin_GoBack(plugin);
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("GoBack");
+
+#endif
+
+    }
+
+
+    public void GoForward()
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+        if (plugin == IntPtr.Zero) {
+            return;
+        }
+
+        _CUnityJSPlugin_GoForward(plugin);
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("GoForward");
+
+#endif
+    }
+
+
+    public void CallOnError(string errorMessage)
+    {
+
+        //Debug.Log("UnityJSPlugin: CallOnError: errorMessage: " + errorMessage, this);
+
+        if (onError != null) {
+            onError(errorMessage);
+        }
+
+    }
+
+
+    public void CallOnLoaded(string loadedUrl)
+    {
+        //Debug.Log("UnityJSPlugin: CallOnLoaded: loadedUrl: " + loadedUrl, this);
+
+        if (onLoaded != null) {
+            onLoaded(loadedUrl);
+        }
+    }
+
+
+    public void CallFromJS(string data)
+    {
+        //Debug.Log("UnityJSPlugin: CallFromJS: data: " + data);
+
+        if (onJS != null) {
+            onJS(data);
+        }
+    }
+
+
+    public void ReturnResultFromJS(string data)
+    {
+        //Debug.Log("UnityJSPlugin: ReturnResultFromJS: data: " + data);
+
+        if (onResult != null) {
+            onResult(data);
+        }
+    }
+
+
+    public void CallOnStats(string stats)
+    {
+        //Debug.Log("UnityJSPlugin: CallOnStats: stats: " + stats, this);
+
+        if (onStats != null) {
+            onStats(stats);
+        }
+    }
+
+
+    public void CallOnConsoleMessage(string consoleMessage)
+    {
+        //Debug.Log("UnityJSPlugin: CallOnConsoleMessage: consoleMessage: " + consoleMessage, this);
+
+        if (onConsoleMessage != null) {
+            onConsoleMessage(consoleMessage);
+        }
+    }
+
+
+    public void CallOnTexture()
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+        long newTextureHandle = _CUnityJSPlugin_GetRenderTextureHandle(plugin);
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+        // TODO
+        long newTextureHandle = 0;
+#elif UNITY_ANDROID
+        long newTextureHandle = plugin.Call<long>("GetRenderTextureHandle");
+#endif
+
+        //Debug.Log("UnityJSPlugin: CallOnTexture: newTextureHandle: " + newTextureHandle + " textureHandle: " + textureHandle);
+        // With pooling or an atlas, the size can change without the handle changing.
+        if ((newTextureHandle != textureHandle) || texturePooling || textureAtlas) {
+            //Debug.Log("UnityJSPlugin: CallOnTexture: textureHandle changed from: " + textureHandle + " to: " + newTextureHandle);
+            textureHandle = newTextureHandle;
+
+            int oldTextureAllocatedWidth = textureAllocatedWidth;
+            int oldTextureAllocatedHeight = textureAllocatedHeight;
+            int textureAtlasX = 0;
+            int textureAtlasY = 0;
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+            textureWidth = _CUnityJSPlugin_GetRenderTextureWidth(plugin);
+            textureHeight = _CUnityJSPlugin_GetRenderTextureHeight(plugin);
+            textureAllocatedWidth = textureWidth;
+            textureAllocatedHeight = textureHeight;
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+            // TODO
+            textureWidth = 0;
+            textureHeight = 0;
+            textureAllocatedWidth = 0;
+            textureAllocatedHeight = 0;
+#elif UNITY_ANDROID
+            textureWidth = plugin.Call<int>("GetRenderTextureWidth");
+            textureHeight = plugin.Call<int>("GetRenderTextureHeight");
+            textureAllocatedWidth = plugin.Call<int>("GetRenderTextureAllocatedWidth");
+            textureAllocatedHeight = plugin.Call<int>("GetRenderTextureAllocatedHeight");
+            if (textureAtlas) {
+                textureAtlasX = plugin.Call<int>("GetRenderTextureAtlasX");
+                textureAtlasY = plugin.Call<int>("GetRenderTextureAtlasY");
+            }
+#endif
+
+            textureScale =
+                ((textureAllocatedWidth > 0) && (textureAllocatedHeight > 0))
+                    ? new Vector2((float)textureWidth / textureAllocatedWidth, (float)textureHeight / textureAllocatedHeight)
+                    : Vector2.one;
+
+            textureUVRect =
+                ((textureAllocatedWidth > 0) && (textureAllocatedHeight > 0))
+                    ? new Rect((float)textureAtlasX / textureAllocatedWidth, (float)textureAtlasY / textureAllocatedHeight, textureScale.x, textureScale.y)
+                    : new Rect(0, 0, 1, 1);
+
+            if ((texture != null) &&
+                (textureHandle != 0) &&
+                (textureAllocatedWidth == oldTextureAllocatedWidth) &&
+                (textureAllocatedHeight == oldTextureAllocatedHeight)) {
+                // Multi-buffered, so just point the texture at the next buffer.
+                texture.UpdateExternalTexture((IntPtr)textureHandle);
+            } else {
+                texture = null;
+            }
+        }
+
+        if ((texture == null) && (textureHandle != 0)) {
+
+            texture = Texture2D.CreateExternalTexture(textureAllocatedWidth, textureAllocatedHeight, TextureFormat.RGBA32, false, true, (IntPtr)textureHandle);
+
+            //Debug.Log("UnityJSPlugin: CallOnTexture: CreateExternalTexture width: " + textureWidth + " height: " + textureHeight + " textureHandle: " + textureHandle + " texture: " + texture);
+        }
+
+        //Debug.Log("UnityJSPlugin: CallOnTexture texture: " + texture + " onTexture: " + onTexture, this);
+
+        if (onTexture != null) {
+            onTexture(texture);
+        }
+
+    }
+
+
+    private IntPtr GetRenderEventFunc()
+    {
+        if (renderEventFunc == (IntPtr)0) {
+            renderEventFunc =
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+                (IntPtr)_CUnityJSPlugin_GetRenderEventFunc();
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
                 (IntPtr)0; // TODO
 #elif UNITY_ANDROID
                 (IntPtr)plugin.CallStatic<long>("GetRenderEventFunc");
@@ -806,6 +1537,256 @@ public class UnityJSPlugin : MonoBehaviour {
     }
 
 
+    // Blit into a ring of count (1 to 3) textures, so the plugin never
+    // writes the texture Unity is sampling. The texture handle changes
+    // every update, and CallOnTexture follows it.
+    public void SetRenderBufferCount(int count)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("SetRenderBufferCount", count);
+
+#endif
+
+    }
+
+
+    // Draw the web view at a lower resolution when drawing it takes more
+    // than budgetMS, down to minScale of the texture size, and scale it up
+    // into the texture. The texture stays the same size. A budgetMS of 0
+    // turns this off. Draws with the hardware canvas aren't timed, since
+    // they rasterize later on the GPU, so they keep the current scale.
+    public void SetDynamicResolution(float budgetMS, float minScale = 0.5f)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("SetDynamicResolution", budgetMS, minScale);
+
+#endif
+
+    }
+
+
+    // Render into a rectangle of a texture shared with the other plugins
+    // that enable this, so many small web views cost one blit pass and
+    // one texture. Show just this web view with textureUVRect, which can
+    // change on any onTexture.
+    public void SetRenderTextureAtlas(bool enabled)
+    {
+        textureAtlas = enabled;
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("SetRenderTextureAtlas", enabled);
+
+#endif
+
+    }
+
+
+    // Allocate the texture from a pool of power of two sizes, so resizing
+    // doesn't reallocate it. The web view is then drawn in the lower left
+    // corner of a bigger texture, so scale UVs by textureScale.
+    public void SetRenderTexturePooling(bool enabled)
+    {
+        texturePooling = enabled;
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("SetRenderTexturePooling", enabled);
+
+#endif
+
+    }
+
+
+    // RENDER_SYNC_FLUSH (the default) just flushes after the blit into
+    // the texture, which is enough since Unity samples it on the same
+    // context. RENDER_SYNC_FENCE also leaves a fence that render event 3
+    // waits on (see waitRenderFences), for when the texture is sampled
+    // from another context, and RENDER_SYNC_FINISH stalls with glFinish
+    // like it used to.
+    public void SetRenderSync(int mode)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("SetRenderSync", mode);
+
+#endif
+
+    }
+
+
+    // Applies to all plugins. GL_ERROR_CHECK_OFF for production,
+    // GL_ERROR_CHECK_SAMPLED (the default) to check every sampleInterval
+    // frames, or GL_ERROR_CHECK_FULL to check after every GL call.
+    public void SetGLErrorCheck(int policy, int sampleInterval=60)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.CallStatic("SetGLErrorCheck", policy, sampleInterval);
+
+#endif
+
+    }
+
+
+    // When enabled on Android 6 and up, the web view is drawn into its
+    // texture with a hardware canvas instead of in software, falling back
+    // to software if that fails.
+    public void SetHardwareCanvas(bool enabled)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("SetHardwareCanvas", enabled);
+
+#endif
+
+    }
+
+
+    // When enabled (the default), RenderIntoTexture only redraws the part
+    // of the web view that was invalidated, and skips clean frames.
+    public void SetDirtyRegionTracking(bool enabled)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("SetDirtyRegionTracking", enabled);
+
+#endif
+
+    }
+
+
+    // RENDER_MODE_ON_DEMAND (the default) draws when the web view changes,
+    // RENDER_MODE_CONTINUOUS draws every frame up to targetFPS (0 for no
+    // cap), and RENDER_MODE_PAUSED stops drawing.
+    public void SetRenderMode(int mode, int targetFPS=0)
+    {
+
+#if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE
+
+        // TODO
+
+#elif UNITY_EDITOR_WIN || UNITY_STANDALONE_WIN
+
+        // TODO
+
+#elif UNITY_ANDROID
+
+        if (plugin == null) {
+            return;
+        }
+
+        plugin.Call("SetRenderMode", mode, targetFPS);
+
+#endif
+
+    }
+
+
     public void FlushCaches()
     {
 
@@ -836,6 +1817,10 @@ public class UnityJSPlugin : MonoBehaviour {
     void Update()
     {
         pluginRenderEventIssued = false;
+
+        if (pollMessages) {
+            PollMessages();
+        }
     }
 
 
@@ -863,6 +1848,12 @@ public class UnityJSPlugin : MonoBehaviour {
 #if UNITY_EDITOR_OSX || UNITY_STANDALONE_OSX || UNITY_IPHONE || UNITY_ANDROID
         GL.IssuePluginEvent(GetRenderEventFunc(), 2);
 #endif
+
+#if UNITY_ANDROID
+        if (waitRenderFences) {
+            GL.IssuePluginEvent(GetRenderEventFunc(), 3);
+        }
+#endif
     }
 
 
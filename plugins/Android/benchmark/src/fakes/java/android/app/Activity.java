@@ -0,0 +1,69 @@
+////////////////////////////////////////////////////////////////////////
+// Activity.java
+// Fake of android.app.Activity for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.app;
+
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Display;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.view.WindowManager;
+import android.widget.FrameLayout;
+
+
+// runOnUiThread always posts to the main looper, since the benchmark
+// calls in from the render thread's side, and runs the UI thread's side
+// itself with Looper.runPending. The content views are added to the
+// window's decor view.
+
+public class Activity extends Context {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Window window = new Window(new FrameLayout(this));
+    private final Display display = new Display();
+    private final WindowManager windowManager = new WindowManager() {
+        public Display getDefaultDisplay() {
+            return display;
+        }
+    };
+
+
+    public Activity()
+    {
+        // Full screen on the fake Display.
+        window.getDecorView().layout(0, 0, 1080, 1920);
+    }
+
+
+    public void runOnUiThread(Runnable action)
+    {
+        handler.post(action);
+    }
+
+
+    public Window getWindow()
+    {
+        return window;
+    }
+
+
+    public WindowManager getWindowManager()
+    {
+        return windowManager;
+    }
+
+
+    public void addContentView(View view, ViewGroup.LayoutParams params)
+    {
+        ((ViewGroup)window.getDecorView()).addView(view, params);
+    }
+
+
+}
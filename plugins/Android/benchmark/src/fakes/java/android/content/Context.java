@@ -0,0 +1,29 @@
+////////////////////////////////////////////////////////////////////////
+// Context.java
+// Fake of android.content.Context for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.content;
+
+
+import java.io.File;
+
+
+public class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+
+    public File getDir(String name, int mode)
+    {
+        return new File(System.getProperty("java.io.tmpdir"), name);
+    }
+
+
+    public void startActivity(Intent intent)
+    {
+    }
+
+
+}
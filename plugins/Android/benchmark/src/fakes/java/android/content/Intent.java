@@ -0,0 +1,23 @@
+////////////////////////////////////////////////////////////////////////
+// Intent.java
+// Fake of android.content.Intent for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.content;
+
+
+import android.net.Uri;
+
+
+public class Intent {
+
+    public static final String ACTION_VIEW = "android.intent.action.VIEW";
+
+
+    public Intent(String action, Uri uri)
+    {
+    }
+
+
+}
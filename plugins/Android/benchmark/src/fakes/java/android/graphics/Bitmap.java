@@ -0,0 +1,11 @@
+////////////////////////////////////////////////////////////////////////
+// Bitmap.java
+// Fake of android.graphics.Bitmap for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.graphics;
+
+
+public class Bitmap {
+}
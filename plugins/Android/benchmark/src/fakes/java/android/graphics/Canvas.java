@@ -0,0 +1,90 @@
+////////////////////////////////////////////////////////////////////////
+// Canvas.java
+// Fake of android.graphics.Canvas for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.graphics;
+
+
+// Draws nothing, but keeps track of the clip, which starts out as the
+// dirty rect the canvas was locked with.
+
+public class Canvas {
+
+    private final Rect clip = new Rect();
+    private int saveCount = 1;
+
+
+    // Fake only, for Surface.lockCanvas.
+    public void setClip(Rect clip_)
+    {
+        clip.set(clip_);
+    }
+
+
+    public boolean getClipBounds(Rect bounds)
+    {
+        bounds.set(clip);
+        return !clip.isEmpty();
+    }
+
+
+    public Rect getClipBounds()
+    {
+        return new Rect(clip);
+    }
+
+
+    public boolean clipRect(Rect rect)
+    {
+        return clip.intersect(rect);
+    }
+
+
+    public boolean clipRect(int left, int top, int right, int bottom)
+    {
+        return clip.intersect(left, top, right, bottom);
+    }
+
+
+    public int save()
+    {
+        return saveCount++;
+    }
+
+
+    public void restore()
+    {
+        saveCount--;
+    }
+
+
+    public void restoreToCount(int count)
+    {
+        saveCount = count;
+    }
+
+
+    public void translate(float dx, float dy)
+    {
+    }
+
+
+    public void scale(float sx, float sy)
+    {
+    }
+
+
+    public boolean isHardwareAccelerated()
+    {
+        return false;
+    }
+
+
+    public void drawColor(int color, PorterDuff.Mode mode)
+    {
+    }
+
+
+}
@@ -0,0 +1,11 @@
+////////////////////////////////////////////////////////////////////////
+// Paint.java
+// Fake of android.graphics.Paint for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.graphics;
+
+
+public class Paint {
+}
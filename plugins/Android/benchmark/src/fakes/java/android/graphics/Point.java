@@ -0,0 +1,23 @@
+////////////////////////////////////////////////////////////////////////
+// Point.java
+// Fake of android.graphics.Point for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.graphics;
+
+
+public class Point {
+
+    public int x;
+    public int y;
+
+
+    public void set(int x_, int y_)
+    {
+        x = x_;
+        y = y_;
+    }
+
+
+}
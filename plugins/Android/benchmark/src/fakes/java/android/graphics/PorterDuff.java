@@ -0,0 +1,19 @@
+////////////////////////////////////////////////////////////////////////
+// PorterDuff.java
+// Fake of android.graphics.PorterDuff for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.graphics;
+
+
+public class PorterDuff {
+
+    public enum Mode {
+        CLEAR,
+        SRC,
+        SRC_OVER
+    }
+
+
+}
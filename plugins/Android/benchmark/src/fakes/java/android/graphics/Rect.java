@@ -0,0 +1,121 @@
+////////////////////////////////////////////////////////////////////////
+// Rect.java
+// Working fake of android.graphics.Rect for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.graphics;
+
+
+// The same semantics as the real one for everything ExternalSurface uses,
+// since the damage tracking depends on them.
+
+public class Rect {
+
+    public int left;
+    public int top;
+    public int right;
+    public int bottom;
+
+
+    public Rect()
+    {
+    }
+
+
+    public Rect(int left_, int top_, int right_, int bottom_)
+    {
+        set(left_, top_, right_, bottom_);
+    }
+
+
+    public Rect(Rect r)
+    {
+        set(r);
+    }
+
+
+    public void set(int left_, int top_, int right_, int bottom_)
+    {
+        left = left_;
+        top = top_;
+        right = right_;
+        bottom = bottom_;
+    }
+
+
+    public void set(Rect r)
+    {
+        set(r.left, r.top, r.right, r.bottom);
+    }
+
+
+    public void setEmpty()
+    {
+        left = top = right = bottom = 0;
+    }
+
+
+    public boolean isEmpty()
+    {
+        return (left >= right) || (top >= bottom);
+    }
+
+
+    public int width()
+    {
+        return right - left;
+    }
+
+
+    public int height()
+    {
+        return bottom - top;
+    }
+
+
+    public void union(int left_, int top_, int right_, int bottom_)
+    {
+        if ((left_ >= right_) || (top_ >= bottom_)) {
+            return;
+        }
+
+        if (isEmpty()) {
+            set(left_, top_, right_, bottom_);
+            return;
+        }
+
+        left = Math.min(left, left_);
+        top = Math.min(top, top_);
+        right = Math.max(right, right_);
+        bottom = Math.max(bottom, bottom_);
+    }
+
+
+    public void union(Rect r)
+    {
+        union(r.left, r.top, r.right, r.bottom);
+    }
+
+
+    public boolean intersect(int left_, int top_, int right_, int bottom_)
+    {
+        if ((left < right_) && (left_ < right) && (top < bottom_) && (top_ < bottom)) {
+            left = Math.max(left, left_);
+            top = Math.max(top, top_);
+            right = Math.min(right, right_);
+            bottom = Math.min(bottom, bottom_);
+            return true;
+        }
+
+        return false;
+    }
+
+
+    public boolean intersect(Rect r)
+    {
+        return intersect(r.left, r.top, r.right, r.bottom);
+    }
+
+
+}
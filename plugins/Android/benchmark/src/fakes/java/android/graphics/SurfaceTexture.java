@@ -0,0 +1,94 @@
+////////////////////////////////////////////////////////////////////////
+// SurfaceTexture.java
+// Fake of android.graphics.SurfaceTexture for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.graphics;
+
+
+// Every updateTexImage latches a new frame with a new timestamp, and the
+// transform is always the identity. The listener hears about every frame
+// a Surface posts, right away, on the posting thread.
+
+public class SurfaceTexture {
+
+    public interface OnFrameAvailableListener {
+        void onFrameAvailable(SurfaceTexture surfaceTexture);
+    }
+
+
+    private OnFrameAvailableListener listener;
+    private int width = 1;
+    private int height = 1;
+    private long timestamp;
+
+
+    public SurfaceTexture(int textureHandle)
+    {
+    }
+
+
+    public void setOnFrameAvailableListener(OnFrameAvailableListener listener_)
+    {
+        listener = listener_;
+    }
+
+
+    public void setDefaultBufferSize(int width_, int height_)
+    {
+        width = width_;
+        height = height_;
+    }
+
+
+    // Fake only, for Surface.
+    public int getDefaultBufferWidth()
+    {
+        return width;
+    }
+
+
+    // Fake only, for Surface.
+    public int getDefaultBufferHeight()
+    {
+        return height;
+    }
+
+
+    // Fake only, for Surface.unlockCanvasAndPost.
+    public void postFrame()
+    {
+        OnFrameAvailableListener l = listener;
+        if (l != null) {
+            l.onFrameAvailable(this);
+        }
+    }
+
+
+    public void updateTexImage()
+    {
+        timestamp += 16666667;
+    }
+
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+
+    public void getTransformMatrix(float[] matrix)
+    {
+        for (int i = 0; i < 16; i++) {
+            matrix[i] = ((i % 5) == 0) ? 1.0f : 0.0f;
+        }
+    }
+
+
+    public void release()
+    {
+    }
+
+
+}
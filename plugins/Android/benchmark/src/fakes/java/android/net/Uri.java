@@ -0,0 +1,37 @@
+////////////////////////////////////////////////////////////////////////
+// Uri.java
+// Fake of android.net.Uri for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.net;
+
+
+public class Uri {
+
+    public static final Uri EMPTY = new Uri("");
+
+
+    private final String string;
+
+
+    private Uri(String string_)
+    {
+        string = string_;
+    }
+
+
+    public static Uri parse(String string)
+    {
+        return new Uri(string);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return string;
+    }
+
+
+}
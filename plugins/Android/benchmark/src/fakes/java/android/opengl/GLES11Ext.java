@@ -0,0 +1,15 @@
+////////////////////////////////////////////////////////////////////////
+// GLES11Ext.java
+// Fake of android.opengl.GLES11Ext for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.opengl;
+
+
+public class GLES11Ext {
+
+    public static final int GL_TEXTURE_EXTERNAL_OES = 0x8D65;
+
+
+}
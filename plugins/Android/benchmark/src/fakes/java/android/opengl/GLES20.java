@@ -0,0 +1,212 @@
+////////////////////////////////////////////////////////////////////////
+// GLES20.java
+// Fake of android.opengl.GLES20 for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.opengl;
+
+
+import java.nio.Buffer;
+
+
+// There is no GPU, so drawing does nothing, but everything the plugin
+// checks succeeds: names are handed out in order, shaders compile and
+// link, framebuffers are complete, and there are never any errors. The
+// version is GLES 3, so fences are used.
+//
+// The constants have their real values.
+
+public class GLES20 {
+
+    public static final int GL_NO_ERROR = 0;
+    public static final int GL_TRUE = 1;
+    public static final int GL_TRIANGLE_STRIP = 0x0005;
+    public static final int GL_CULL_FACE = 0x0B44;
+    public static final int GL_DEPTH_TEST = 0x0B71;
+    public static final int GL_STENCIL_TEST = 0x0B90;
+    public static final int GL_BLEND = 0x0BE2;
+    public static final int GL_SCISSOR_TEST = 0x0C11;
+    public static final int GL_UNPACK_ALIGNMENT = 0x0CF5;
+    public static final int GL_MAX_TEXTURE_SIZE = 0x0D33;
+    public static final int GL_TEXTURE_2D = 0x0DE1;
+    public static final int GL_UNSIGNED_BYTE = 0x1401;
+    public static final int GL_FLOAT = 0x1406;
+    public static final int GL_RGBA = 0x1908;
+    public static final int GL_VERSION = 0x1F02;
+    public static final int GL_NEAREST = 0x2600;
+    public static final int GL_LINEAR = 0x2601;
+    public static final int GL_TEXTURE_MAG_FILTER = 0x2800;
+    public static final int GL_TEXTURE_MIN_FILTER = 0x2801;
+    public static final int GL_TEXTURE_WRAP_S = 0x2802;
+    public static final int GL_TEXTURE_WRAP_T = 0x2803;
+    public static final int GL_COLOR_BUFFER_BIT = 0x4000;
+    public static final int GL_POLYGON_OFFSET_FILL = 0x8037;
+    public static final int GL_CLAMP_TO_EDGE = 0x812F;
+    public static final int GL_TEXTURE0 = 0x84C0;
+    public static final int GL_TEXTURE1 = 0x84C1;
+    public static final int GL_ARRAY_BUFFER = 0x8892;
+    public static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    public static final int GL_STATIC_DRAW = 0x88E4;
+    public static final int GL_FRAGMENT_SHADER = 0x8B30;
+    public static final int GL_VERTEX_SHADER = 0x8B31;
+    public static final int GL_COMPILE_STATUS = 0x8B81;
+    public static final int GL_LINK_STATUS = 0x8B82;
+    public static final int GL_FRAMEBUFFER_COMPLETE = 0x8CD5;
+    public static final int GL_COLOR_ATTACHMENT0 = 0x8CE0;
+    public static final int GL_FRAMEBUFFER = 0x8D40;
+
+    public static final int MAX_TEXTURE_SIZE = 4096;
+
+
+    private static int nextName = 1;
+
+
+    private static void genNames(int n, int[] names, int offset)
+    {
+        for (int i = 0; i < n; i++) {
+            names[offset + i] = nextName++;
+        }
+    }
+
+
+    public static int glGetError()
+    {
+        return GL_NO_ERROR;
+    }
+
+
+    public static String glGetString(int name)
+    {
+        return (name == GL_VERSION) ? "OpenGL ES 3.0 (fake)" : "";
+    }
+
+
+    public static void glGetIntegerv(int pname, int[] params, int offset)
+    {
+        params[offset] = (pname == GL_MAX_TEXTURE_SIZE) ? MAX_TEXTURE_SIZE : 0;
+    }
+
+
+    public static void glEnable(int cap) {}
+    public static void glDisable(int cap) {}
+    public static void glPolygonOffset(float factor, float units) {}
+    public static void glDepthMask(boolean flag) {}
+    public static void glPixelStorei(int pname, int param) {}
+    public static void glViewport(int x, int y, int width, int height) {}
+    public static void glScissor(int x, int y, int width, int height) {}
+    public static void glClearColor(float red, float green, float blue, float alpha) {}
+    public static void glClear(int mask) {}
+    public static void glFinish() {}
+    public static void glFlush() {}
+
+
+    public static void glGenTextures(int n, int[] textures, int offset)
+    {
+        genNames(n, textures, offset);
+    }
+
+
+    public static void glDeleteTextures(int n, int[] textures, int offset) {}
+    public static void glActiveTexture(int texture) {}
+    public static void glBindTexture(int target, int texture) {}
+    public static void glTexParameterf(int target, int pname, float param) {}
+    public static void glTexParameteri(int target, int pname, int param) {}
+    public static void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {}
+
+
+    public static void glGenBuffers(int n, int[] buffers, int offset)
+    {
+        genNames(n, buffers, offset);
+    }
+
+
+    public static void glDeleteBuffers(int n, int[] buffers, int offset) {}
+    public static void glBindBuffer(int target, int buffer) {}
+    public static void glBufferData(int target, int size, Buffer data, int usage) {}
+
+
+    public static void glGenFramebuffers(int n, int[] framebuffers, int offset)
+    {
+        genNames(n, framebuffers, offset);
+    }
+
+
+    public static void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {}
+    public static void glBindFramebuffer(int target, int framebuffer) {}
+    public static void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {}
+
+
+    public static int glCheckFramebufferStatus(int target)
+    {
+        return GL_FRAMEBUFFER_COMPLETE;
+    }
+
+
+    public static int glCreateShader(int type)
+    {
+        return nextName++;
+    }
+
+
+    public static void glShaderSource(int shader, String string) {}
+    public static void glCompileShader(int shader) {}
+    public static void glDeleteShader(int shader) {}
+
+
+    public static void glGetShaderiv(int shader, int pname, int[] params, int offset)
+    {
+        params[offset] = GL_TRUE;
+    }
+
+
+    public static String glGetShaderInfoLog(int shader)
+    {
+        return "";
+    }
+
+
+    public static int glCreateProgram()
+    {
+        return nextName++;
+    }
+
+
+    public static void glAttachShader(int program, int shader) {}
+    public static void glLinkProgram(int program) {}
+    public static void glUseProgram(int program) {}
+    public static void glDeleteProgram(int program) {}
+
+
+    public static void glGetProgramiv(int program, int pname, int[] params, int offset)
+    {
+        params[offset] = GL_TRUE;
+    }
+
+
+    public static String glGetProgramInfoLog(int program)
+    {
+        return "";
+    }
+
+
+    public static int glGetUniformLocation(int program, String name)
+    {
+        return 0;
+    }
+
+
+    public static int glGetAttribLocation(int program, String name)
+    {
+        return name.equals("aPosition") ? 0 : 1;
+    }
+
+
+    public static void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {}
+    public static void glEnableVertexAttribArray(int index) {}
+    public static void glDisableVertexAttribArray(int index) {}
+    public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset) {}
+    public static void glDrawArrays(int mode, int first, int count) {}
+
+
+}
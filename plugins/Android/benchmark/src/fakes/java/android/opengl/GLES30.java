@@ -0,0 +1,29 @@
+////////////////////////////////////////////////////////////////////////
+// GLES30.java
+// Fake of android.opengl.GLES30 for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.opengl;
+
+
+public class GLES30 extends GLES20 {
+
+    public static final int GL_SYNC_GPU_COMMANDS_COMPLETE = 0x9117;
+    public static final long GL_TIMEOUT_IGNORED = -1L;
+
+
+    private static long nextSync = 1;
+
+
+    public static long glFenceSync(int condition, int flags)
+    {
+        return nextSync++;
+    }
+
+
+    public static void glWaitSync(long sync, int flags, long timeout) {}
+    public static void glDeleteSync(long sync) {}
+
+
+}
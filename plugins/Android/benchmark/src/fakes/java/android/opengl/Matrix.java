@@ -0,0 +1,13 @@
+////////////////////////////////////////////////////////////////////////
+// Matrix.java
+// Fake of android.opengl.Matrix for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.opengl;
+
+
+public class Matrix {
+
+
+}
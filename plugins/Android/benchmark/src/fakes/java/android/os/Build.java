@@ -0,0 +1,26 @@
+////////////////////////////////////////////////////////////////////////
+// Build.java
+// Fake of android.os.Build for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.os;
+
+
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 24;
+    }
+
+
+    public static class VERSION_CODES {
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int KITKAT = 19;
+        public static final int LOLLIPOP = 21;
+        public static final int M = 23;
+        public static final int N = 24;
+    }
+
+
+}
@@ -0,0 +1,41 @@
+////////////////////////////////////////////////////////////////////////
+// Handler.java
+// Fake of android.os.Handler for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.os;
+
+
+public class Handler {
+
+    private final Looper looper;
+
+
+    public Handler(Looper looper_)
+    {
+        looper = looper_;
+    }
+
+
+    public boolean post(Runnable runnable)
+    {
+        looper.post(runnable, 0);
+        return true;
+    }
+
+
+    public boolean postDelayed(Runnable runnable, long delayMillis)
+    {
+        looper.post(runnable, delayMillis);
+        return true;
+    }
+
+
+    public void removeCallbacks(Runnable runnable)
+    {
+        looper.removeCallbacks(runnable);
+    }
+
+
+}
@@ -0,0 +1,103 @@
+////////////////////////////////////////////////////////////////////////
+// Looper.java
+// Fake of android.os.Looper for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.os;
+
+
+import java.util.ArrayList;
+
+
+// There is only the main looper, and nothing runs it on its own: the
+// benchmark plays the UI thread by calling runPending, a fake only method,
+// which runs everything that is due, including what those post.
+
+public final class Looper {
+
+    private static final Looper mainLooper = new Looper();
+
+
+    static final class Message {
+        Runnable runnable;
+        long when;
+    }
+
+
+    // Guarded by this.
+    private final ArrayList<Message> queue = new ArrayList<Message>();
+    private final ArrayList<Message> pool = new ArrayList<Message>();
+
+
+    private Looper()
+    {
+    }
+
+
+    public static Looper getMainLooper()
+    {
+        return mainLooper;
+    }
+
+
+    public static Looper myLooper()
+    {
+        return mainLooper;
+    }
+
+
+    synchronized void post(Runnable runnable, long delayMillis)
+    {
+        Message message = pool.isEmpty() ? new Message() : pool.remove(pool.size() - 1);
+        message.runnable = runnable;
+        message.when = SystemClock.uptimeMillis() + delayMillis;
+        queue.add(message);
+    }
+
+
+    synchronized void removeCallbacks(Runnable runnable)
+    {
+        for (int i = queue.size() - 1; i >= 0; i--) {
+            if (queue.get(i).runnable == runnable) {
+                recycle(queue.remove(i));
+            }
+        }
+    }
+
+
+    // Runs the due runnables in the order they were posted, and returns how many ran.
+    public int runPending()
+    {
+        int ran = 0;
+        while (true) {
+            Runnable runnable = null;
+            synchronized (this) {
+                long now = SystemClock.uptimeMillis();
+                int n = queue.size();
+                for (int i = 0; i < n; i++) {
+                    Message message = queue.get(i);
+                    if (message.when <= now) {
+                        runnable = message.runnable;
+                        recycle(queue.remove(i));
+                        break;
+                    }
+                }
+            }
+            if (runnable == null) {
+                return ran;
+            }
+            runnable.run();
+            ran++;
+        }
+    }
+
+
+    private void recycle(Message message)
+    {
+        message.runnable = null;
+        pool.add(message);
+    }
+
+
+}
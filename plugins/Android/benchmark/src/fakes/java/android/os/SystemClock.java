@@ -0,0 +1,24 @@
+////////////////////////////////////////////////////////////////////////
+// SystemClock.java
+// Fake of android.os.SystemClock for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.os;
+
+
+public final class SystemClock {
+
+    public static long uptimeMillis()
+    {
+        return System.nanoTime() / 1000000;
+    }
+
+
+    public static long elapsedRealtimeNanos()
+    {
+        return System.nanoTime();
+    }
+
+
+}
@@ -0,0 +1,54 @@
+////////////////////////////////////////////////////////////////////////
+// Log.java
+// Fake of android.util.Log for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.util;
+
+
+// Errors and warnings go to stderr, so a benchmark that breaks a surface
+// says why. Everything else is dropped.
+
+public class Log {
+
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+
+    public static int v(String tag, String msg)
+    {
+        return 0;
+    }
+
+
+    public static int d(String tag, String msg)
+    {
+        return 0;
+    }
+
+
+    public static int i(String tag, String msg)
+    {
+        return 0;
+    }
+
+
+    public static int w(String tag, String msg)
+    {
+        System.err.println("W/" + tag + ": " + msg);
+        return 0;
+    }
+
+
+    public static int e(String tag, String msg)
+    {
+        System.err.println("E/" + tag + ": " + msg);
+        return 0;
+    }
+
+
+}
@@ -0,0 +1,23 @@
+////////////////////////////////////////////////////////////////////////
+// Display.java
+// Fake of android.view.Display for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.view;
+
+
+import android.graphics.Point;
+
+
+// A 1080 by 1920 phone.
+
+public class Display {
+
+    public void getSize(Point size)
+    {
+        size.set(1080, 1920);
+    }
+
+
+}
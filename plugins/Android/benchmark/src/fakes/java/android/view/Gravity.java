@@ -0,0 +1,15 @@
+////////////////////////////////////////////////////////////////////////
+// Gravity.java
+// Fake of android.view.Gravity for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.view;
+
+
+public class Gravity {
+
+    public static final int NO_GRAVITY = 0;
+
+
+}
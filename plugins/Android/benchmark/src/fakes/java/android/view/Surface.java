@@ -0,0 +1,68 @@
+////////////////////////////////////////////////////////////////////////
+// Surface.java
+// Fake of android.view.Surface for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.view;
+
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+
+
+// Posting a canvas posts a frame to the SurfaceTexture. Like the real
+// one, once it has locked a hardware canvas it belongs to HWUI, and
+// posting any other canvas through it throws.
+
+public class Surface {
+
+    private final SurfaceTexture surfaceTexture;
+    private final Canvas canvas = new Canvas();
+    private final Canvas hardwareCanvas = new Canvas();
+    private final Rect bounds = new Rect();
+    private boolean hwui;
+
+
+    public Surface(SurfaceTexture surfaceTexture_)
+    {
+        surfaceTexture = surfaceTexture_;
+    }
+
+
+    public Canvas lockCanvas(Rect dirty)
+    {
+        bounds.set(0, 0, surfaceTexture.getDefaultBufferWidth(), surfaceTexture.getDefaultBufferHeight());
+        if (dirty != null) {
+            bounds.intersect(dirty);
+        }
+        canvas.setClip(bounds);
+        return canvas;
+    }
+
+
+    public Canvas lockHardwareCanvas()
+    {
+        hwui = true;
+        bounds.set(0, 0, surfaceTexture.getDefaultBufferWidth(), surfaceTexture.getDefaultBufferHeight());
+        hardwareCanvas.setClip(bounds);
+        return hardwareCanvas;
+    }
+
+
+    public void unlockCanvasAndPost(Canvas canvas_)
+    {
+        if (hwui && (canvas_ != hardwareCanvas)) {
+            throw new IllegalArgumentException("canvas object must be the same instance that was previously returned by lockCanvas");
+        }
+        surfaceTexture.postFrame();
+    }
+
+
+    public void release()
+    {
+    }
+
+
+}
@@ -0,0 +1,194 @@
+////////////////////////////////////////////////////////////////////////
+// View.java
+// Fake of android.view.View for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.view;
+
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+
+// Nothing draws a view on its own: draw just calls onDraw, when the
+// plugin draws it into its surface. Views are never hardware accelerated,
+// and invalidating one does nothing but what a subclass adds.
+
+public class View {
+
+    public static final int VISIBLE = 0;
+    public static final int INVISIBLE = 4;
+    public static final int GONE = 8;
+    public static final int LAYER_TYPE_NONE = 0;
+    public static final int LAYER_TYPE_SOFTWARE = 1;
+    public static final int LAYER_TYPE_HARDWARE = 2;
+
+
+    private final Context context;
+    private final ViewTreeObserver viewTreeObserver = new ViewTreeObserver();
+    View parent;
+    private int width;
+    private int height;
+    private int layerType = LAYER_TYPE_NONE;
+
+
+    public View(Context context_)
+    {
+        context = context_;
+    }
+
+
+    public Context getContext()
+    {
+        return context;
+    }
+
+
+    public void layout(int left, int top, int right, int bottom)
+    {
+        int oldWidth = width;
+        int oldHeight = height;
+        width = right - left;
+        height = bottom - top;
+        if ((width != oldWidth) ||
+            (height != oldHeight)) {
+            onSizeChanged(width, height, oldWidth, oldHeight);
+        }
+    }
+
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+
+    public int getScrollX()
+    {
+        return 0;
+    }
+
+
+    public int getScrollY()
+    {
+        return 0;
+    }
+
+
+    public View getRootView()
+    {
+        View view = this;
+        while (view.parent != null) {
+            view = view.parent;
+        }
+        return view;
+    }
+
+
+    public ViewTreeObserver getViewTreeObserver()
+    {
+        return getRootView().viewTreeObserver;
+    }
+
+
+    public void getWindowVisibleDisplayFrame(Rect outRect)
+    {
+        View root = getRootView();
+        outRect.set(0, 0, root.width, root.height);
+    }
+
+
+    public void draw(Canvas canvas)
+    {
+        onDraw(canvas);
+    }
+
+
+    protected void onDraw(Canvas canvas)
+    {
+    }
+
+
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight)
+    {
+    }
+
+
+    protected void onScrollChanged(int left, int top, int oldLeft, int oldTop)
+    {
+    }
+
+
+    public void invalidate()
+    {
+    }
+
+
+    public void invalidate(Rect dirty)
+    {
+    }
+
+
+    public void invalidate(int left, int top, int right, int bottom)
+    {
+    }
+
+
+    public boolean isHardwareAccelerated()
+    {
+        return false;
+    }
+
+
+    public void setLayerType(int layerType_, Paint paint)
+    {
+        layerType = layerType_;
+    }
+
+
+    public int getLayerType()
+    {
+        return layerType;
+    }
+
+
+    public void setLayoutParams(ViewGroup.LayoutParams params)
+    {
+    }
+
+
+    public void setVisibility(int visibility)
+    {
+    }
+
+
+    public void setFocusable(boolean focusable)
+    {
+    }
+
+
+    public void setFocusableInTouchMode(boolean focusableInTouchMode)
+    {
+    }
+
+
+    public void setBackgroundColor(int color)
+    {
+    }
+
+
+    public void setZ(float z)
+    {
+    }
+
+
+}
@@ -0,0 +1,84 @@
+////////////////////////////////////////////////////////////////////////
+// ViewGroup.java
+// Fake of android.view.ViewGroup for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.view;
+
+
+import android.content.Context;
+import java.util.ArrayList;
+
+
+// Children are laid out to fill the group.
+
+public class ViewGroup extends View {
+
+    public static class LayoutParams {
+
+        public static final int MATCH_PARENT = -1;
+        public static final int WRAP_CONTENT = -2;
+
+        public int width;
+        public int height;
+
+
+        public LayoutParams(int width_, int height_)
+        {
+            width = width_;
+            height = height_;
+        }
+
+
+    }
+
+
+    private final ArrayList<View> children = new ArrayList<View>();
+
+
+    public ViewGroup(Context context)
+    {
+        super(context);
+    }
+
+
+    public void addView(View child, LayoutParams params)
+    {
+        children.add(child);
+        child.parent = this;
+        child.layout(0, 0, getWidth(), getHeight());
+    }
+
+
+    public void removeView(View child)
+    {
+        if (children.remove(child)) {
+            child.parent = null;
+        }
+    }
+
+
+    public int getChildCount()
+    {
+        return children.size();
+    }
+
+
+    public View getChildAt(int index)
+    {
+        return children.get(index);
+    }
+
+
+    @Override
+    public void layout(int left, int top, int right, int bottom)
+    {
+        super.layout(left, top, right, bottom);
+        for (int i = 0; i < children.size(); i++) {
+            children.get(i).layout(0, 0, right - left, bottom - top);
+        }
+    }
+
+
+}
@@ -0,0 +1,50 @@
+////////////////////////////////////////////////////////////////////////
+// ViewTreeObserver.java
+// Fake of android.view.ViewTreeObserver for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.view;
+
+
+import java.util.ArrayList;
+
+
+public class ViewTreeObserver {
+
+    public interface OnGlobalLayoutListener {
+        void onGlobalLayout();
+    }
+
+
+    private final ArrayList<OnGlobalLayoutListener> listeners = new ArrayList<OnGlobalLayoutListener>();
+
+
+    public void addOnGlobalLayoutListener(OnGlobalLayoutListener listener)
+    {
+        listeners.add(listener);
+    }
+
+
+    public void removeOnGlobalLayoutListener(OnGlobalLayoutListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+
+    public boolean isAlive()
+    {
+        return true;
+    }
+
+
+    // Fake only, for a layout pass.
+    public void dispatchOnGlobalLayout()
+    {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onGlobalLayout();
+        }
+    }
+
+
+}
@@ -0,0 +1,28 @@
+////////////////////////////////////////////////////////////////////////
+// Window.java
+// Fake of android.view.Window for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.view;
+
+
+public class Window {
+
+    private final View decorView;
+
+
+    // Fake only.
+    public Window(View decorView_)
+    {
+        decorView = decorView_;
+    }
+
+
+    public View getDecorView()
+    {
+        return decorView;
+    }
+
+
+}
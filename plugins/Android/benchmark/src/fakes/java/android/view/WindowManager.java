@@ -0,0 +1,15 @@
+////////////////////////////////////////////////////////////////////////
+// WindowManager.java
+// Fake of android.view.WindowManager for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.view;
+
+
+public interface WindowManager {
+
+    Display getDefaultDisplay();
+
+
+}
@@ -0,0 +1,60 @@
+////////////////////////////////////////////////////////////////////////
+// ConsoleMessage.java
+// Fake of android.webkit.ConsoleMessage for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.webkit;
+
+
+public class ConsoleMessage {
+
+    public enum MessageLevel {
+        TIP,
+        LOG,
+        WARNING,
+        ERROR,
+        DEBUG
+    }
+
+
+    private final String message;
+    private final String sourceId;
+    private final int lineNumber;
+    private final MessageLevel messageLevel;
+
+
+    public ConsoleMessage(String message_, String sourceId_, int lineNumber_, MessageLevel messageLevel_)
+    {
+        message = message_;
+        sourceId = sourceId_;
+        lineNumber = lineNumber_;
+        messageLevel = messageLevel_;
+    }
+
+
+    public String message()
+    {
+        return message;
+    }
+
+
+    public String sourceId()
+    {
+        return sourceId;
+    }
+
+
+    public int lineNumber()
+    {
+        return lineNumber;
+    }
+
+
+    public MessageLevel messageLevel()
+    {
+        return messageLevel;
+    }
+
+
+}
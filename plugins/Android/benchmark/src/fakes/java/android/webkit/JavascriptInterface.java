@@ -0,0 +1,19 @@
+////////////////////////////////////////////////////////////////////////
+// JavascriptInterface.java
+// Fake of android.webkit.JavascriptInterface for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.webkit;
+
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface JavascriptInterface {
+}
@@ -0,0 +1,15 @@
+////////////////////////////////////////////////////////////////////////
+// ValueCallback.java
+// Fake of android.webkit.ValueCallback for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.webkit;
+
+
+public interface ValueCallback<T> {
+
+    void onReceiveValue(T value);
+
+
+}
@@ -0,0 +1,18 @@
+////////////////////////////////////////////////////////////////////////
+// WebChromeClient.java
+// Fake of android.webkit.WebChromeClient for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.webkit;
+
+
+public class WebChromeClient {
+
+    public boolean onConsoleMessage(ConsoleMessage consoleMessage)
+    {
+        return false;
+    }
+
+
+}
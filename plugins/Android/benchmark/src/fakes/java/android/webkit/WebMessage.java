@@ -0,0 +1,41 @@
+////////////////////////////////////////////////////////////////////////
+// WebMessage.java
+// Fake of android.webkit.WebMessage for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.webkit;
+
+
+public class WebMessage {
+
+    private final String data;
+    private final WebMessagePort[] ports;
+
+
+    public WebMessage(String data_)
+    {
+        this(data_, null);
+    }
+
+
+    public WebMessage(String data_, WebMessagePort[] ports_)
+    {
+        data = data_;
+        ports = ports_;
+    }
+
+
+    public String getData()
+    {
+        return data;
+    }
+
+
+    public WebMessagePort[] getPorts()
+    {
+        return ports;
+    }
+
+
+}
@@ -0,0 +1,37 @@
+////////////////////////////////////////////////////////////////////////
+// WebMessagePort.java
+// Fake of android.webkit.WebMessagePort for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.webkit;
+
+
+import android.os.Handler;
+
+
+public abstract class WebMessagePort {
+
+    public static abstract class WebMessageCallback {
+
+        public void onMessage(WebMessagePort port, WebMessage message)
+        {
+        }
+
+
+    }
+
+
+    public abstract void postMessage(WebMessage message);
+
+
+    public abstract void close();
+
+
+    public abstract void setWebMessageCallback(WebMessageCallback callback);
+
+
+    public abstract void setWebMessageCallback(WebMessageCallback callback, Handler handler);
+
+
+}
@@ -0,0 +1,47 @@
+////////////////////////////////////////////////////////////////////////
+// WebSettings.java
+// Fake of android.webkit.WebSettings for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.webkit;
+
+
+public class WebSettings {
+
+    public void setSupportZoom(boolean support)
+    {
+    }
+
+
+    public void setJavaScriptEnabled(boolean enabled)
+    {
+    }
+
+
+    public void setDatabaseEnabled(boolean enabled)
+    {
+    }
+
+
+    public void setDomStorageEnabled(boolean enabled)
+    {
+    }
+
+
+    public void setDatabasePath(String path)
+    {
+    }
+
+
+    public void setAllowUniversalAccessFromFileURLs(boolean allow)
+    {
+    }
+
+
+    public void setMediaPlaybackRequiresUserGesture(boolean require)
+    {
+    }
+
+
+}
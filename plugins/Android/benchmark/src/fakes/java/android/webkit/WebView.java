@@ -0,0 +1,178 @@
+////////////////////////////////////////////////////////////////////////
+// WebView.java
+// Fake of android.webkit.WebView for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.webkit;
+
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.FrameLayout;
+
+
+// There is no page. Loading a URL just starts and finishes it on the main
+// looper, scripts evaluate to "null" on the main looper, and messages
+// posted to one port of a channel arrive at the other on the main looper,
+// with nothing on the page's side to answer them.
+
+public class WebView extends FrameLayout {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final WebSettings settings = new WebSettings();
+    private WebViewClient webViewClient = new WebViewClient();
+
+
+    static final class Port extends WebMessagePort {
+
+        private final Handler handler;
+        Port peer;
+        private WebMessageCallback callback;
+        private boolean closed;
+
+
+        Port(Handler handler_)
+        {
+            handler = handler_;
+        }
+
+
+        @Override
+        public void postMessage(final WebMessage message)
+        {
+            if (closed) {
+                return;
+            }
+            handler.post(new Runnable() {public void run() {
+                WebMessageCallback peerCallback = peer.callback;
+                if (!peer.closed && (peerCallback != null)) {
+                    peerCallback.onMessage(peer, message);
+                }
+            }});
+        }
+
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+
+
+        @Override
+        public void setWebMessageCallback(WebMessageCallback callback_)
+        {
+            callback = callback_;
+        }
+
+
+        @Override
+        public void setWebMessageCallback(WebMessageCallback callback_, Handler handler_)
+        {
+            callback = callback_;
+        }
+
+
+    }
+
+
+    public WebView(Context context)
+    {
+        super(context);
+    }
+
+
+    public static void setWebContentsDebuggingEnabled(boolean enabled)
+    {
+    }
+
+
+    public void setInitialScale(int scaleInPercent)
+    {
+    }
+
+
+    public void setWebChromeClient(WebChromeClient client)
+    {
+    }
+
+
+    public void setWebViewClient(WebViewClient client)
+    {
+        webViewClient = client;
+    }
+
+
+    public void addJavascriptInterface(Object object, String name)
+    {
+    }
+
+
+    public WebSettings getSettings()
+    {
+        return settings;
+    }
+
+
+    public void loadUrl(final String url)
+    {
+        final WebView self = this;
+        handler.post(new Runnable() {public void run() {
+            webViewClient.onPageStarted(self, url, null);
+            webViewClient.onPageFinished(self, url);
+        }});
+    }
+
+
+    public boolean canGoBack()
+    {
+        return false;
+    }
+
+
+    public boolean canGoForward()
+    {
+        return false;
+    }
+
+
+    public void goBack()
+    {
+    }
+
+
+    public void goForward()
+    {
+    }
+
+
+    public void evaluateJavascript(String script, final ValueCallback<String> resultCallback)
+    {
+        if (resultCallback == null) {
+            return;
+        }
+        handler.post(new Runnable() {public void run() {
+            resultCallback.onReceiveValue("null");
+        }});
+    }
+
+
+    public WebMessagePort[] createWebMessageChannel()
+    {
+        Port port0 = new Port(handler);
+        Port port1 = new Port(handler);
+        port0.peer = port1;
+        port1.peer = port0;
+        return new WebMessagePort[] { port0, port1 };
+    }
+
+
+    public void postWebMessage(WebMessage message, Uri targetOrigin)
+    {
+    }
+
+
+}
@@ -0,0 +1,36 @@
+////////////////////////////////////////////////////////////////////////
+// WebViewClient.java
+// Fake of android.webkit.WebViewClient for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.webkit;
+
+
+import android.graphics.Bitmap;
+
+
+public class WebViewClient {
+
+    public void onReceivedError(WebView view, int errorCode, String description, String failingUrl)
+    {
+    }
+
+
+    public void onPageStarted(WebView view, String url, Bitmap favicon)
+    {
+    }
+
+
+    public void onPageFinished(WebView view, String url)
+    {
+    }
+
+
+    public boolean shouldOverrideUrlLoading(WebView view, String url)
+    {
+        return false;
+    }
+
+
+}
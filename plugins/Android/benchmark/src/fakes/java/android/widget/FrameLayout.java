@@ -0,0 +1,37 @@
+////////////////////////////////////////////////////////////////////////
+// FrameLayout.java
+// Fake of android.widget.FrameLayout for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package android.widget;
+
+
+import android.content.Context;
+import android.view.ViewGroup;
+
+
+public class FrameLayout extends ViewGroup {
+
+    public static class LayoutParams extends ViewGroup.LayoutParams {
+
+        public int gravity;
+
+
+        public LayoutParams(int width, int height, int gravity_)
+        {
+            super(width, height);
+            gravity = gravity_;
+        }
+
+
+    }
+
+
+    public FrameLayout(Context context)
+    {
+        super(context);
+    }
+
+
+}
@@ -0,0 +1,47 @@
+////////////////////////////////////////////////////////////////////////
+// UnityJSNative.java
+// Fake of the native methods in libUnityJS for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.nio.ByteBuffer;
+
+
+// Loads no library. Unity gets nothing: the messages are only counted,
+// and the ring's reader consumes everything at once, without parsing it.
+
+class UnityJSNative {
+
+    static long messagesSent;
+    static long ringBytesRead;
+
+
+    public static void SetUnitySendMessageCallback(long sendMessageCallback)
+    {
+    }
+
+
+    public static long UnitySendMessage(String target, String method, String message)
+    {
+        messagesSent++;
+        return 0;
+    }
+
+
+    public static long GetRenderEventFunc()
+    {
+        return 0;
+    }
+
+
+    public static int UnitySendMessageRing(ByteBuffer buffer, int head, int tail)
+    {
+        ringBytesRead += tail - head;
+        return tail;
+    }
+
+
+}
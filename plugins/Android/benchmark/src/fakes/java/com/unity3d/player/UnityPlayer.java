@@ -0,0 +1,20 @@
+////////////////////////////////////////////////////////////////////////
+// UnityPlayer.java
+// Fake of com.unity3d.player.UnityPlayer for benchmarks on a plain JVM.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.unity3d.player;
+
+
+import android.app.Activity;
+
+
+// The benchmark sets currentActivity.
+
+public class UnityPlayer {
+
+    public static Activity currentActivity;
+
+
+}
@@ -0,0 +1,118 @@
+////////////////////////////////////////////////////////////////////////
+// BookkeepingBenchmark.java
+// Benchmarks the per frame and per message bookkeeping classes.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// The stats are recorded on every frame and message, GetStats can be
+// polled every frame, the resolution scaler sees every draw, and the atlas
+// is laid out again whenever a member changes size, so none of them
+// should show up next to the work they are accounting for.
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookkeepingBenchmark {
+
+    static final int RECT_COUNT = 32;
+
+
+    private final PluginStats stats = new PluginStats();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final ResolutionScaler resolutionScaler = new ResolutionScaler();
+    private final RectPacker packer = new RectPacker();
+    private final int[] widths = new int[RECT_COUNT];
+    private final int[] heights = new int[RECT_COUNT];
+    private final int[] xs = new int[RECT_COUNT];
+    private final int[] ys = new int[RECT_COUNT];
+    private long latency;
+    private long drawTime;
+
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < RECT_COUNT; i++) {
+            widths[i] = 32 + random.nextInt(224);
+            heights[i] = 32 + random.nextInt(224);
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            long nanos = 1000 + random.nextInt(1000000);
+            histogram.record(nanos);
+            stats.recordLatency(stats.toUnityLatency, "CallFromJS", nanos);
+            stats.recordLatency(stats.toWebViewLatency, "EvaluateJS", nanos);
+        }
+
+        resolutionScaler.setBudget(4000000, ResolutionScaler.DEFAULT_MIN_SCALE);
+    }
+
+
+    @Benchmark
+    public void recordLatency()
+    {
+        latency = (latency * 31 + 7) & 0xfffff;
+        stats.recordLatency(stats.toUnityLatency, "CallFromJS", latency);
+    }
+
+
+    @Benchmark
+    public long percentile()
+    {
+        return histogram.getPercentile(0.99);
+    }
+
+
+    @Benchmark
+    public String statsJSON()
+    {
+        return stats.toJSON("plugin", 0, false, 1.0f);
+    }
+
+
+    @Benchmark
+    public String latencyJSON()
+    {
+        return stats.latencyToJSON("plugin");
+    }
+
+
+    @Benchmark
+    public boolean resolutionSample()
+    {
+        // Hovers around the budget, so the scale keeps moving.
+        drawTime = (drawTime + 250000) % 8000000;
+        return resolutionScaler.addSample(drawTime);
+    }
+
+
+    @Benchmark
+    public boolean packAtlas()
+    {
+        return packer.pack(RECT_COUNT, widths, heights, xs, ys, 4096);
+    }
+
+
+}
@@ -0,0 +1,143 @@
+////////////////////////////////////////////////////////////////////////
+// MessagePathBenchmark.java
+// Benchmarks the paths of messages from JavaScript to Unity.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import android.app.Activity;
+import android.os.Looper;
+import com.unity3d.player.UnityPlayer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// call calls CUnityJSPluginInterface.call BATCH times, the way the page
+// does during a frame, then runs a render tick with
+// CUnityJSPlugin.RenderUpdateUnityJSPlugins, then the main looper, until
+// all the messages have been sent to the fake UnityJSNative. latency does
+// the same with a single message, and samples how long it takes to get
+// through. Each runs by every path:
+//
+//   immediate:       The old path, one runOnUiThread and UnitySendMessage per message.
+//   batched:         Queued, then flushed on the UI thread after the tick.
+//   batchedRing:     The same, written into the MessageRing.
+//   renderTick:      Queued, then flushed by the tick itself.
+//   renderTickRing:  The same, written into the MessageRing.
+//
+// This thread plays the JavaBridge, render and UI threads, so these
+// measure the work of all of them, not how long a message waits for the
+// next frame, which the batched paths add on a device.
+//
+// The plugins are static, so this must run with only one thread.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagePathBenchmark {
+
+    static final int BATCH = 64;
+
+
+    @Param({"immediate", "batched", "batchedRing", "renderTick", "renderTickRing"})
+    public String path;
+
+    @Param({"32", "1024"})
+    public int messageLength;
+
+    private final Looper uiLooper = Looper.getMainLooper();
+    private String message;
+    private CUnityJSPlugin plugin;
+    private CUnityJSPluginInterface pluginInterface;
+
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        StringBuilder builder = new StringBuilder(messageLength);
+        for (int i = 0; i < messageLength; i++) {
+            builder.append((char)('a' + (i % 26)));
+        }
+        message = builder.toString();
+
+        // The plugins' layout is static, so keep the activity it is in.
+        if (UnityPlayer.currentActivity == null) {
+            UnityPlayer.currentActivity = new Activity();
+        }
+
+        plugin = new CUnityJSPlugin();
+        plugin.Init(false);
+
+        if (path.startsWith("batched")) {
+            plugin.SetMessageDelivery(CUnityJSPlugin.MESSAGE_DELIVERY_BATCHED, 0, -1);
+        } else if (path.startsWith("renderTick")) {
+            plugin.SetMessageDelivery(CUnityJSPlugin.MESSAGE_DELIVERY_RENDER_TICK, 0, -1);
+        }
+
+        if (path.endsWith("Ring")) {
+            plugin.SetMessageTransport(CUnityJSPlugin.MESSAGE_TRANSPORT_RING, 0);
+        }
+
+        uiLooper.runPending();
+
+        // The same object Init gave the WebView as "Unity".
+        pluginInterface = new CUnityJSPluginInterface(plugin);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        plugin.Destroy();
+        uiLooper.runPending();
+        CUnityJSPlugin.RenderUpdateUnityJSPlugins();
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long call()
+    {
+        for (int i = 0; i < BATCH; i++) {
+            pluginInterface.call("CallFromJS", message);
+        }
+
+        CUnityJSPlugin.RenderUpdateUnityJSPlugins();
+        uiLooper.runPending();
+
+        return UnityJSNative.messagesSent + UnityJSNative.ringBytesRead;
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public long latency()
+    {
+        pluginInterface.call("CallFromJS", message);
+
+        CUnityJSPlugin.RenderUpdateUnityJSPlugins();
+        uiLooper.runPending();
+
+        return UnityJSNative.messagesSent + UnityJSNative.ringBytesRead;
+    }
+
+
+}
@@ -0,0 +1,138 @@
+////////////////////////////////////////////////////////////////////////
+// RenderTickBenchmark.java
+// Benchmarks one render tick over all the plugins, against a fake GL.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import android.app.Activity;
+import android.os.Looper;
+import android.view.ViewGroup;
+import com.unity3d.player.UnityPlayer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Each tick, every plugin's WebView invalidates some or all of itself,
+// then CUnityJSPlugin.RenderUpdateUnityJSPlugins and
+// WaitRenderFencesUnityJSPlugins run, the way render events 1 and 3 do,
+// then the main looper runs what they posted to the UI thread: drawing
+// the WebViews into their surfaces, which posts the frames the next tick
+// blits, and sending CallOnTexture to Unity. This thread plays both
+// threads, so it measures the work of both.
+//
+// The fake GLES20 does nothing, and the fake WebView draws nothing, so
+// this measures the Java side of a tick: the scheduling, the damage
+// tracking, the GL state caching, and the calls it makes.
+//
+// The GL state and the plugins are static, so benchmarks that use them
+// must run with only one thread.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderTickBenchmark {
+
+    static final int WIDTH = 256;
+    static final int HEIGHT = 256;
+
+
+    @Param({"1", "8", "32"})
+    public int pluginCount;
+
+    @Param({"false", "true"})
+    public boolean atlas;
+
+    @Param({"true", "false"})
+    public boolean partialDamage;
+
+    private final Looper uiLooper = Looper.getMainLooper();
+    private CUnityJSPlugin[] plugins;
+    private CustomWebView[] webViews;
+
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        CUnityJSPlugin.SetGLErrorCheck(GLErrorCheck.GL_ERROR_CHECK_SAMPLED, GLErrorCheck.DEFAULT_SAMPLE_INTERVAL);
+
+        // The plugins' layout is static, so keep the activity it is in.
+        if (UnityPlayer.currentActivity == null) {
+            UnityPlayer.currentActivity = new Activity();
+        }
+        Activity activity = UnityPlayer.currentActivity;
+
+        plugins = new CUnityJSPlugin[pluginCount];
+        for (int i = 0; i < pluginCount; i++) {
+            CUnityJSPlugin plugin = new CUnityJSPlugin();
+            plugin.SetRenderTextureAtlas(atlas);
+            plugin.Init(false);
+            plugin.RenderIntoTextureSetup(WIDTH, HEIGHT);
+            plugins[i] = plugin;
+        }
+        uiLooper.runPending();
+
+        // Init added them to one layout, the activity's only content view.
+        ViewGroup layout = (ViewGroup)((ViewGroup)activity.getWindow().getDecorView()).getChildAt(0);
+        webViews = new CustomWebView[pluginCount];
+        for (int i = 0; i < pluginCount; i++) {
+            webViews[i] = (CustomWebView)layout.getChildAt(i);
+        }
+
+        // Get past the first frames, which draw and blit everything.
+        renderTick();
+        renderTick();
+        renderTick();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        for (int i = 0; i < plugins.length; i++) {
+            plugins[i].Destroy();
+        }
+        uiLooper.runPending();
+
+        // Shuts down the retired surfaces.
+        CUnityJSPlugin.RenderUpdateUnityJSPlugins();
+    }
+
+
+    @Benchmark
+    public int renderTick()
+    {
+        // What the pages did since the last tick.
+        for (int i = 0; i < webViews.length; i++) {
+            if (partialDamage) {
+                webViews[i].invalidate(8, 8, 40, 24);
+            } else {
+                webViews[i].invalidate();
+            }
+        }
+
+        CUnityJSPlugin.RenderUpdateUnityJSPlugins();
+        CUnityJSPlugin.WaitRenderFencesUnityJSPlugins();
+
+        return uiLooper.runPending();
+    }
+
+
+}
@@ -0,0 +1,126 @@
+////////////////////////////////////////////////////////////////////////
+// ExternalSurfaceAllocationTest.java
+// Checks that a steady state frame of ExternalSurface allocates nothing.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Rect;
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+
+
+// Renders frames the way the render tick does, against the fake GL, and
+// counts the bytes the thread allocated with HotSpot's ThreadMXBean. Once
+// the textures, buffers and GL objects are set up, a frame must not
+// allocate anything, in every sync mode, with and without the atlas, and
+// with whole and partial damage.
+//
+// The build runs tests with escape analysis off, so the JIT can't hide
+// an allocation the interpreter or a less lucky compile would make.
+
+public class ExternalSurfaceAllocationTest {
+
+    static final int WIDTH = 256;
+    static final int HEIGHT = 256;
+    static final int WARMUP_FRAMES = 100;
+    static final int FRAMES = 1000;
+    static final int BATCHES = 5;
+
+    static final int[] SYNC_MODES = {
+        ExternalSurface.SYNC_FINISH,
+        ExternalSurface.SYNC_FENCE,
+        ExternalSurface.SYNC_FLUSH,
+    };
+
+
+    private final com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    private final Rect dirty = new Rect();
+
+
+    @Test
+    public void steadyStateFrameAllocatesNothing()
+    {
+        GLErrorCheck.setPolicy(GLErrorCheck.GL_ERROR_CHECK_SAMPLED, GLErrorCheck.DEFAULT_SAMPLE_INTERVAL);
+
+        for (int i = 0; i < SYNC_MODES.length; i++) {
+            for (int atlas = 0; atlas < 2; atlas++) {
+                for (int partial = 0; partial < 2; partial++) {
+                    checkFrames(SYNC_MODES[i], atlas == 1, partial == 1);
+                }
+            }
+        }
+    }
+
+
+    private void checkFrames(int syncMode, boolean atlas, boolean partialDamage)
+    {
+        ExternalSurface surface = new ExternalSurface();
+        surface.stats = new PluginStats();
+        surface.setSyncMode(syncMode);
+        surface.setAtlas(atlas);
+        surface.setupOutputTexture(WIDTH, HEIGHT);
+
+        try {
+
+            for (int i = 0; i < WARMUP_FRAMES; i++) {
+                renderFrame(surface, partialDamage);
+            }
+
+            // What measuring itself allocates, if anything.
+            long thread = Thread.currentThread().getId();
+            long before = threadBean.getThreadAllocatedBytes(thread);
+            long overhead = threadBean.getThreadAllocatedBytes(thread) - before;
+
+            // The JIT compiling or deoptimizing the frame's code can
+            // allocate on this thread now and then, so take the best of a
+            // few batches. Anything the frame itself allocates shows up in
+            // all of them.
+            long allocated = Long.MAX_VALUE;
+            for (int batch = 0; batch < BATCHES; batch++) {
+                before = threadBean.getThreadAllocatedBytes(thread);
+                for (int i = 0; i < FRAMES; i++) {
+                    renderFrame(surface, partialDamage);
+                }
+                allocated = Math.min(allocated, threadBean.getThreadAllocatedBytes(thread) - before - overhead);
+            }
+
+            assertEquals(
+                "bytes allocated by " + FRAMES + " frames with syncMode " + syncMode +
+                " atlas " + atlas + " partialDamage " + partialDamage,
+                0, allocated);
+
+        } finally {
+            surface.shutDown();
+        }
+    }
+
+
+    private void renderFrame(ExternalSurface surface, boolean partialDamage)
+    {
+        // What the UI thread does between ticks.
+        if (partialDamage) {
+            dirty.set(8, 8, 40, 24);
+            surface.addDamage(dirty);
+        } else {
+            surface.addDamage(null);
+        }
+        surface.onFrameAvailable(surface.surfaceTexture);
+
+        // What the render tick does.
+        GLErrorCheck.beginFrame();
+        GLResourceCache.beginFrame();
+        TextureAtlas.update();
+        surface.setupOutputTexture(WIDTH, HEIGHT);
+        surface.update();
+        GLResourceCache.endFrame();
+        surface.waitFence();
+    }
+
+
+}
@@ -0,0 +1,170 @@
+////////////////////////////////////////////////////////////////////////
+// MessageQueueStressTest.java
+// Pushes messages on several threads while consumers flush them in batches.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+
+// The consumer only drains when a flush is scheduled, the way the batched
+// delivery mode does: a push that returns PUSH_STARTED or PUSH_FULL
+// schedules one, and so does a drain that left messages behind. Every
+// message must be delivered exactly once, including the ones pushed while
+// a drain was running, with no flush left scheduled for them by their
+// push.
+//
+// Then the same with the framed payloads, and several consumers that
+// overlap the way the UI thread's flush, the render tick and Unity's
+// PollMessages do: two drain when a flush is scheduled, and two drain
+// all the time while the producers run. One often gives up because
+// another is draining, and that must neither lose nor duplicate a batch.
+
+public class MessageQueueStressTest {
+
+    static final int ROUNDS = 100;
+    static final int THREADS = 4;
+    static final int MESSAGES_PER_THREAD = 5000;
+
+
+    @Test
+    public void everyMessageIsFlushed() throws Exception
+    {
+        for (int round = 0; round < ROUNDS; round++) {
+            runRound(1, 0, false);
+        }
+    }
+
+
+    @Test
+    public void twoConsumersDeliverEachMessageOnce() throws Exception
+    {
+        for (int round = 0; round < ROUNDS; round++) {
+            runRound(2, 2, true);
+        }
+    }
+
+
+    private void runRound(int scheduledConsumers, int pollingConsumers, final boolean payloads) throws Exception
+    {
+        final MessageQueue queue = new MessageQueue();
+        // Only the first push of a batch schedules a flush.
+        queue.configure(Integer.MAX_VALUE, 1000000);
+
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicIntegerArray delivered = new AtomicIntegerArray(THREADS * MESSAGES_PER_THREAD);
+
+        final MessageQueue.Consumer consumer = new MessageQueue.Consumer() {
+            public void message(String method, String message) {
+                delivered.incrementAndGet(Integer.parseInt(message));
+            }
+        };
+
+        int consumers = scheduledConsumers + pollingConsumers;
+        Thread[] consumerThreads = new Thread[consumers];
+        for (int c = 0; c < consumers; c++) {
+            final boolean polling = c >= scheduledConsumers;
+            consumerThreads[c] = new Thread(new Runnable() {public void run() {
+                try {
+                    start.await();
+                    while (true) {
+                        boolean finished = done.getCount() == 0;
+                        if (polling ? !finished : scheduled.compareAndSet(true, false)) {
+                            flush(queue, payloads, consumer, scheduled);
+                            continue;
+                        }
+                        if (finished) {
+                            break;
+                        }
+                        Thread.yield();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }});
+            consumerThreads[c].start();
+        }
+
+        for (int t = 0; t < THREADS; t++) {
+            final int base = t * MESSAGES_PER_THREAD;
+            new Thread(new Runnable() {public void run() {
+                try {
+                    start.await();
+                    for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                        if (queue.push("CallFromJS", "" + (base + i), System.nanoTime()) != MessageQueue.PUSH_QUEUED) {
+                            scheduled.set(true);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    done.countDown();
+                }
+            }}).start();
+        }
+
+        start.countDown();
+        done.await();
+        for (int c = 0; c < consumers; c++) {
+            consumerThreads[c].join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        for (int i = 0; i < delivered.length(); i++) {
+            assertEquals("times message " + i + " was delivered", 1, delivered.get(i));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+
+    // What CUnityJSPlugin.FlushMessages does.
+    private static void flush(MessageQueue queue, boolean payloads, MessageQueue.Consumer consumer, AtomicBoolean scheduled)
+    {
+        if (payloads) {
+            unpack(queue.drain(), consumer);
+        } else {
+            queue.drain(consumer);
+        }
+        if (queue.leftMessages()) {
+            scheduled.set(true);
+        }
+    }
+
+
+    // Hands each message of a framed payload to consumer, the way
+    // UnityJSPlugin.UnpackMessageBatch does.
+    private static void unpack(String payload, MessageQueue.Consumer consumer)
+    {
+        if (payload == null) {
+            return;
+        }
+
+        int position = 0;
+        while (position < payload.length()) {
+            int colon = payload.indexOf(':', position);
+            int end = colon + 1 + Integer.parseInt(payload.substring(position, colon));
+            String method = payload.substring(colon + 1, end);
+            colon = payload.indexOf(':', end);
+            position = colon + 1 + Integer.parseInt(payload.substring(end, colon));
+            consumer.message(method, payload.substring(colon + 1, position));
+        }
+    }
+
+
+}
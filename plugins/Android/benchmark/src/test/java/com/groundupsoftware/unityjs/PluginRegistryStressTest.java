@@ -0,0 +1,149 @@
+////////////////////////////////////////////////////////////////////////
+// PluginRegistryStressTest.java
+// Creates and destroys plugins on several threads while a render thread ticks.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+
+// The render thread ticks the way RenderUpdateUnityJSPlugins does, shutting
+// down the retired surfaces and then rendering the snapshot, while the
+// other threads add and remove plugins and retire their surfaces the way
+// the constructor and Destroy do. No tick may render a plugin without its
+// ID, or one whose surface has already been shut down, and every retired
+// surface must be shut down exactly once.
+
+public class PluginRegistryStressTest {
+
+    static final int THREADS = 4;
+    static final int PLUGINS_PER_THREAD = 20000;
+
+
+    static final class Surface {
+        final AtomicInteger shutDowns = new AtomicInteger();
+    }
+
+
+    static final class Plugin {
+        final Surface surface = new Surface();
+        final String id;
+
+        Plugin(String id_)
+        {
+            id = id_;
+        }
+    }
+
+
+    @Test
+    public void createAndDestroyWhileRendering() throws Exception
+    {
+        final PluginRegistry<Plugin, Surface> registry =
+            new PluginRegistry<Plugin, Surface>(new Plugin[0]);
+        final ConcurrentHashMap<String, Plugin> live = new ConcurrentHashMap<String, Plugin>();
+        final ConcurrentHashMap<String, Boolean> ids = new ConcurrentHashMap<String, Boolean>();
+        final ConcurrentLinkedQueue<Surface> retiredSurfaces = new ConcurrentLinkedQueue<Surface>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final int[] ticks = new int[1];
+
+        Thread renderThread = new Thread(new Runnable() {public void run() {
+            try {
+                start.await();
+                boolean finished = false;
+                while (!finished) {
+                    finished = done.getCount() == 0;
+                    Surface retired;
+                    while ((retired = registry.pollRetired()) != null) {
+                        retired.shutDowns.incrementAndGet();
+                    }
+                    Plugin[] snapshot = registry.getSnapshot();
+                    for (int i = 0; i < snapshot.length; i++) {
+                        assertNotNull(snapshot[i]);
+                        assertNotNull("rendered a plugin without its ID", snapshot[i].id);
+                        assertEquals("rendered a shut down surface", 0, snapshot[i].surface.shutDowns.get());
+                    }
+                    ticks[0]++;
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }});
+        renderThread.start();
+
+        for (int t = 0; t < THREADS; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {public void run() {
+                try {
+                    Random random = new Random(seed);
+                    ArrayList<Plugin> mine = new ArrayList<Plugin>();
+                    start.await();
+                    for (int i = 0; i < PLUGINS_PER_THREAD; i++) {
+                        Plugin plugin = new Plugin(registry.nextID());
+                        registry.add(plugin.id, plugin);
+                        assertTrue("duplicate ID " + plugin.id, ids.putIfAbsent(plugin.id, Boolean.TRUE) == null);
+                        live.put(plugin.id, plugin);
+                        mine.add(plugin);
+                        if ((mine.size() > 8) || random.nextBoolean()) {
+                            Plugin destroyed = mine.remove(random.nextInt(mine.size()));
+                            live.remove(destroyed.id);
+                            assertTrue(registry.remove(destroyed.id));
+                            registry.retire(destroyed.surface);
+                            retiredSurfaces.add(destroyed.surface);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    done.countDown();
+                }
+            }}).start();
+        }
+
+        start.countDown();
+        done.await();
+        renderThread.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        // The last tick started after every thread was done, so it drained
+        // everything retired.
+        assertTrue(registry.pollRetired() == null);
+        assertTrue(ticks[0] > 0);
+
+        Plugin[] snapshot = registry.getSnapshot();
+        HashSet<String> remaining = new HashSet<String>();
+        for (int i = 0; i < snapshot.length; i++) {
+            remaining.add(snapshot[i].id);
+            assertEquals(0, snapshot[i].surface.shutDowns.get());
+        }
+        assertEquals(live.keySet(), remaining);
+        assertEquals(THREADS * PLUGINS_PER_THREAD, ids.size());
+        assertEquals(THREADS * PLUGINS_PER_THREAD - live.size(), retiredSurfaces.size());
+        for (Surface surface : retiredSurfaces) {
+            assertEquals(1, surface.shutDowns.get());
+        }
+        assertTrue(!registry.remove("0"));
+    }
+
+
+}
@@ -10,6 +10,9 @@
 
 #include <jni.h>
 #include <assert.h>
+#include <stdint.h>
+#include <string.h>
+#include <pthread.h>
 #include <android/log.h>
 #include "IUnityGraphics.h"
 
@@ -27,6 +30,12 @@
 
 static void UNITY_INTERFACE_API OnGraphicsDeviceEvent(UnityGfxDeviceEventType eventType);
 static void UNITY_INTERFACE_API RenderEventFunc(int eventId);
+static JNIEnv *GetJNIEnv();
+static void DetachJNIEnv(void *env);
+static void CUnityJSPlugin_SetUnitySendMessageCallback(JNIEnv *env, jclass thisClass, jlong unitySendMessageCallback_);
+static jlong CUnityJSPlugin_UnitySendMessage(JNIEnv *env, jclass thisClass, jstring targetString, jstring methodString, jstring messageString);
+static jint CUnityJSPlugin_UnitySendMessageRing(JNIEnv *env, jclass thisClass, jobject buffer, jint head, jint tail);
+static jlong CUnityJSPlugin_GetRenderEventFunc(JNIEnv *env, jclass thisClass);
 
 
 ////////////////////////////////////////////////////////////////////////
@@ -34,7 +43,10 @@ static void UNITY_INTERFACE_API RenderEventFunc(int eventId);
 
 
 static JavaVM *java_vm;
-static JNIEnv *jni_env;
+static pthread_key_t jni_env_key;
+static jclass class_CUnityJSPlugin;
+static jmethodID method_CUnityJSPlugin_RenderUpdateUnityJSPlugins;
+static jmethodID method_CUnityJSPlugin_WaitRenderFencesUnityJSPlugins;
 static IUnityInterfaces *unity_interfaces;
 static IUnityGraphics *unity_graphics;
 static UnityGfxRenderer unity_renderer_type = kUnityGfxRendererNull;
@@ -42,26 +54,109 @@ typedef void (*UnitySendMessageCallback)(const char *target, const char *method,
 static UnitySendMessageCallback unitySendMessageCallback;
 
 
+// The native methods of UnityJSNative, bound in JNI_OnLoad.
+static JNINativeMethod nativeMethods[] = {
+    { (char *)"SetUnitySendMessageCallback", (char *)"(J)V", (void *)CUnityJSPlugin_SetUnitySendMessageCallback },
+    { (char *)"UnitySendMessage", (char *)"(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)J", (void *)CUnityJSPlugin_UnitySendMessage },
+    { (char *)"UnitySendMessageRing", (char *)"(Ljava/nio/ByteBuffer;II)I", (void *)CUnityJSPlugin_UnitySendMessageRing },
+    { (char *)"GetRenderEventFunc", (char *)"()J", (void *)CUnityJSPlugin_GetRenderEventFunc },
+};
+
+
 ////////////////////////////////////////////////////////////////////////
 // Functions.
 
 
-// This gets loaded when Java loads this library.
+// This gets loaded when Java loads this library, from UnityJSNative's
+// static initializer, so FindClass sees the plugin's class loader here
+// (but not on Unity's render thread). Cache global references to
+// everything the render thread needs, and bind the natives.
 extern "C" jint JNI_OnLoad(
     JavaVM *vm,
     void *reserved)
 {
-    //trace("UnityJS.cpp: JNI_OnLoad: vm: %d reserved: %d", (int)vm, (int)reserved);
+    //trace("UnityJS.cpp: JNI_OnLoad: vm: %p reserved: %p", vm, reserved);
 
     java_vm = vm;
 
-    vm->AttachCurrentThread(&jni_env, 0);
-    //trace("UnityJS.cpp: JNI_OnLoad: jni_env: %d", (int)jni_env);
+    pthread_key_create(&jni_env_key, DetachJNIEnv);
+
+    JNIEnv *env = 0;
+    if (vm->GetEnv((void **)&env, JNI_VERSION_1_6) != JNI_OK) {
+        trace("UnityJS.cpp: JNI_OnLoad: GetEnv failed %d", 0);
+        return JNI_ERR;
+    }
+
+    jclass localClass = env->FindClass("com/groundupsoftware/unityjs/CUnityJSPlugin");
+    if (localClass == 0) {
+        trace("UnityJS.cpp: JNI_OnLoad: FindClass CUnityJSPlugin failed %d", 0);
+        return JNI_ERR;
+    }
+    class_CUnityJSPlugin = (jclass)env->NewGlobalRef(localClass);
+    env->DeleteLocalRef(localClass);
+
+    method_CUnityJSPlugin_RenderUpdateUnityJSPlugins = env->GetStaticMethodID(class_CUnityJSPlugin, "RenderUpdateUnityJSPlugins", "()V");
+    if (method_CUnityJSPlugin_RenderUpdateUnityJSPlugins == 0) {
+        trace("UnityJS.cpp: JNI_OnLoad: GetStaticMethodID RenderUpdateUnityJSPlugins failed %d", 0);
+        return JNI_ERR;
+    }
+
+    method_CUnityJSPlugin_WaitRenderFencesUnityJSPlugins = env->GetStaticMethodID(class_CUnityJSPlugin, "WaitRenderFencesUnityJSPlugins", "()V");
+    if (method_CUnityJSPlugin_WaitRenderFencesUnityJSPlugins == 0) {
+        trace("UnityJS.cpp: JNI_OnLoad: GetStaticMethodID WaitRenderFencesUnityJSPlugins failed %d", 0);
+        return JNI_ERR;
+    }
+
+    jclass nativeClass = env->FindClass("com/groundupsoftware/unityjs/UnityJSNative");
+    if (nativeClass == 0) {
+        trace("UnityJS.cpp: JNI_OnLoad: FindClass UnityJSNative failed %d", 0);
+        return JNI_ERR;
+    }
+
+    jint registered = env->RegisterNatives(nativeClass, nativeMethods, sizeof(nativeMethods) / sizeof(nativeMethods[0]));
+    env->DeleteLocalRef(nativeClass);
+    if (registered != JNI_OK) {
+        trace("UnityJS.cpp: JNI_OnLoad: RegisterNatives failed %d", 0);
+        return JNI_ERR;
+    }
 
     return JNI_VERSION_1_6;
 }
 
 
+// Returns the JNIEnv for the calling thread, attaching it to the VM the
+// first time. The env is cached per thread, and the thread is detached
+// again when it exits.
+static JNIEnv *GetJNIEnv()
+{
+    JNIEnv *env = (JNIEnv *)pthread_getspecific(jni_env_key);
+    if (env != 0) {
+        return env;
+    }
+
+    if (java_vm->GetEnv((void **)&env, JNI_VERSION_1_6) == JNI_EDETACHED) {
+        if (java_vm->AttachCurrentThread(&env, 0) != JNI_OK) {
+            trace("UnityJS.cpp: GetJNIEnv: AttachCurrentThread failed %d", 0);
+            return 0;
+        }
+        pthread_setspecific(jni_env_key, env);
+    }
+
+    // Threads that were already attached (like the UI thread) aren't
+    // cached, since DetachJNIEnv would detach them.
+    return env;
+}
+
+
+static void DetachJNIEnv(
+    void *env)
+{
+    if (env != 0) {
+        java_vm->DetachCurrentThread();
+    }
+}
+
+
 // NOTE: This never gets called on Android.
 extern "C" void UNITY_INTERFACE_EXPORT UNITY_INTERFACE_API UnityPluginLoad(
     IUnityInterfaces *unityInterfaces)
@@ -116,51 +211,105 @@ static void UNITY_INTERFACE_API OnGraphicsDeviceEvent(
 }
 
 
-// This gets called by CUnityJSPlugin.SetUnitySendMessageCallback.
-extern "C" void Java_com_ground_up_software_unityjs_CUnityJSPlugin_SetUnitySendMessageCallback(
+// This gets called by UnityJSNative.SetUnitySendMessageCallback.
+static void CUnityJSPlugin_SetUnitySendMessageCallback(
     JNIEnv *env,
-    jobject thisObject,
-    long unitySendMessageCallback_)
+    jclass thisClass,
+    jlong unitySendMessageCallback_)
 {
-    //trace("UnityJS.cpp: Java_com_ground_up_software_unityjs_CUnityJSPlugin_SetUnitySendMessageCallback: env: %ld thisObject: %ld sendMessageCallback: %ld", (long)env, (long)thisObject, (long)unitySendMessageCallback_);
-    unitySendMessageCallback = (UnitySendMessageCallback)unitySendMessageCallback_;
+    //trace("UnityJS.cpp: CUnityJSPlugin_SetUnitySendMessageCallback: sendMessageCallback: %lld", (long long)unitySendMessageCallback_);
+    unitySendMessageCallback = (UnitySendMessageCallback)(intptr_t)unitySendMessageCallback_;
 }
 
 
-// This gets called by CUnityJSPlugin.UnitySendMessage.
-extern "C" void Java_com_ground_up_software_unityjs_CUnityJSPlugin_UnitySendMessage(
+// This gets called by UnityJSNative.UnitySendMessage.
+static jlong CUnityJSPlugin_UnitySendMessage(
     JNIEnv *env,
-    jobject thisObject,
+    jclass thisClass,
     jstring targetString,
     jstring methodString,
     jstring messageString)
 {
     if (unitySendMessageCallback == 0) {
-        trace("UnityJS.cpp: Java_com_ground_up_software_unityjs_CUnityJSPlugin_GetRenderEventFunc: called without unitySendMessageCallback: %d", 0);
-        return;
+        trace("UnityJS.cpp: CUnityJSPlugin_UnitySendMessage: called without unitySendMessageCallback: %d", 0);
+        return 0;
     }
 
     const char *target = env->GetStringUTFChars(targetString, 0);
     const char *method = env->GetStringUTFChars(methodString, 0);
     const char *message = env->GetStringUTFChars(messageString, 0);
 
-    //trace("UnityJS.cpp: Java_com_ground_up_software_unityjs_CUnityJSPlugin_UnitySendMessage: env: %d thisObject: %d target: %s method: %s message: %s", (int)env, (int)thisObject, target, method, message);
+    //trace("UnityJS.cpp: CUnityJSPlugin_UnitySendMessage: target: %s method: %s message: %s", target, method, message);
 
     unitySendMessageCallback(target, method, message);
 
     env->ReleaseStringUTFChars(targetString, target);
     env->ReleaseStringUTFChars(methodString, method);
     env->ReleaseStringUTFChars(messageString, message);
+
+    return 0;
+}
+
+
+// This gets called by UnityJSNative.UnitySendMessageRing.
+// Reads the records that MessageRing.java wrote into the direct buffer
+// between head and tail in place, passing pointers into the buffer
+// straight to the callback, and returns the new head.
+static jint CUnityJSPlugin_UnitySendMessageRing(
+    JNIEnv *env,
+    jclass thisClass,
+    jobject buffer,
+    jint head,
+    jint tail)
+{
+    if (unitySendMessageCallback == 0) {
+        trace("UnityJS.cpp: CUnityJSPlugin_UnitySendMessageRing: called without unitySendMessageCallback: %d", 0);
+        return tail;
+    }
+
+    char *base = (char *)env->GetDirectBufferAddress(buffer);
+    jlong capacity = env->GetDirectBufferCapacity(buffer);
+    if ((base == 0) || (capacity <= 0)) {
+        trace("UnityJS.cpp: CUnityJSPlugin_UnitySendMessageRing: not a direct buffer: %d", 0);
+        return tail;
+    }
+
+    while (head != tail) {
+
+        // A WRAP marker, or no room for one, means continue at the start.
+        if ((capacity - head) < (jlong)sizeof(int32_t)) {
+            head = 0;
+            continue;
+        }
+
+        int32_t bodyLength = *(int32_t *)(base + head);
+        if (bodyLength < 0) {
+            head = 0;
+            continue;
+        }
+
+        const char *target = base + head + sizeof(int32_t);
+        const char *method = target + strlen(target) + 1;
+        const char *message = method + strlen(method) + 1;
+
+        //trace("UnityJS.cpp: CUnityJSPlugin_UnitySendMessageRing: head: %d bodyLength: %d target: %s method: %s", (int)head, (int)bodyLength, target, method);
+
+        unitySendMessageCallback(target, method, message);
+
+        head += sizeof(int32_t) + bodyLength;
+    }
+
+    return head;
 }
 
 
-// This gets called by CUnityJSPlugin.GetRenderEventFunc.
-extern "C" long Java_com_ground_up_software_unityjs_CUnityJSPlugin_GetRenderEventFunc(
+// This gets called by UnityJSNative.GetRenderEventFunc.
+static jlong CUnityJSPlugin_GetRenderEventFunc(
     JNIEnv *env,
-    jobject thisObject)
+    jclass thisClass)
 {
-    //trace("UnityJS.cpp: Java_com_ground_up_software_unityjs_CUnityJSPlugin_GetRenderEventFunc: env: %d thisObject: %d RenderEventFunc: %d", (int)env, (int)thisObject, (int)RenderEventFunc);
-    return (long)RenderEventFunc;
+    //trace("UnityJS.cpp: CUnityJSPlugin_GetRenderEventFunc: RenderEventFunc: %p", RenderEventFunc);
+    return (jlong)(intptr_t)RenderEventFunc;
 }
 
 
@@ -184,15 +333,36 @@ static void UNITY_INTERFACE_API RenderEventFunc(
         case 2: {
             //trace("UnityJS.cpp: RenderEventFunc: RenderUpdateUnityJSPlugins: eventID: %d", (int)eventId);
 
-            // TODO: cache in global
-            jclass class_CUnityJSPlugin = jni_env->FindClass("com/ground_up_software/unityjs/CUnityJSPlugin");
-            //trace("UnityJS.cpp: RenderEventFunc: class_CUnityJSPlugin: %d", (int)class_CUnityJSPlugin);
+            JNIEnv *env = GetJNIEnv();
+            if (env == 0) {
+                break;
+            }
+
+            env->CallStaticVoidMethod(class_CUnityJSPlugin, method_CUnityJSPlugin_RenderUpdateUnityJSPlugins);
+
+            if (env->ExceptionCheck()) {
+                // Don't leave an exception pending on Unity's render thread.
+                env->ExceptionDescribe();
+                env->ExceptionClear();
+            }
+
+            break;
+        }
+
+        case 3: {
+            //trace("UnityJS.cpp: RenderEventFunc: WaitRenderFencesUnityJSPlugins: eventID: %d", (int)eventId);
+
+            JNIEnv *env = GetJNIEnv();
+            if (env == 0) {
+                break;
+            }
 
-            // TODO: cache in global
-            jmethodID method_CUnityJSPlugin_RenderUpdateUnityJSPlugins = jni_env->GetStaticMethodID(class_CUnityJSPlugin, "RenderUpdateUnityJSPlugins", "()V");
-            //trace("UnityJS.cpp: RenderEventFunc: method_CUnityJSPlugin_RenderUpdateUnityJSPlugins: %d", (int)method_CUnityJSPlugin_RenderUpdateUnityJSPlugins);
+            env->CallStaticVoidMethod(class_CUnityJSPlugin, method_CUnityJSPlugin_WaitRenderFencesUnityJSPlugins);
 
-            jni_env->CallStaticVoidMethod(class_CUnityJSPlugin, method_CUnityJSPlugin_RenderUpdateUnityJSPlugins);
+            if (env->ExceptionCheck()) {
+                env->ExceptionDescribe();
+                env->ExceptionClear();
+            }
 
             break;
         }
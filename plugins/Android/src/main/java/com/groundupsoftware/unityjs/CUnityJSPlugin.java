@@ -24,16 +24,18 @@
 package com.groundupsoftware.unityjs;
 
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
 
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Canvas;
 import android.graphics.Bitmap;
-import android.graphics.Point;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
@@ -50,7 +52,11 @@ import android.opengl.GLES20;
 import com.unity3d.player.UnityPlayer;
 
 
-class CUnityJSPluginInterface {
+// The page calls Unity.call(message), or Unity.call(message, Date.now(),
+// name) to have the hop from JS to the Java bridge timed as well, and
+// the latencies of its messages recorded under name, see PluginStats.
+
+class CUnityJSPluginInterface implements WebMessageChannel.Receiver {
 
     private static String TAG = "CUnityJSPluginInterface";
 
@@ -71,6 +77,13 @@ class CUnityJSPluginInterface {
     }
 
 
+    @JavascriptInterface
+    public void call(final String message, double sentTime, String name)
+    {
+        call("CallFromJS", message, (long)sentTime, name);
+    }
+
+
     @JavascriptInterface
     public void returnResult(final String message)
     {
@@ -81,10 +94,36 @@ class CUnityJSPluginInterface {
 
     public void call(final String method, final String message)
     {
+        call(method, message, 0, null);
+    }
+
+
+    // sentTime is the page's Date.now() when it called, or 0 if it didn't
+    // say. The latencies are recorded under name, or method if it's empty.
+    public void call(final String method, final String message, long sentTime, String name)
+    {
+        final PluginStats stats = plugin.stats;
+        final String latencyName = ((name == null) || name.isEmpty()) ? method : name;
+
+        stats.countToUnity(method, message);
+
+        if (sentTime > 0) {
+            // The clocks can disagree by a little, so never record less than nothing.
+            long fromJS = Math.max(0, System.currentTimeMillis() - sentTime) * 1000000L;
+            stats.recordLatency(stats.fromJSLatency, latencyName, fromJS);
+        }
+
+        if (plugin.GetMessageDelivery() != CUnityJSPlugin.MESSAGE_DELIVERY_IMMEDIATE) {
+            plugin.QueueMessage(method, message, latencyName);
+            return;
+        }
+
+        final long queuedTime = System.nanoTime();
         final Activity a = UnityPlayer.currentActivity;
         a.runOnUiThread(new Runnable() {public void run() {
             if (plugin.IsInitialized()) {
                 CUnityJSPlugin.UnitySendMessage(plugin.pluginID, method, message);
+                stats.recordLatency(stats.toUnityLatency, latencyName, System.nanoTime() - queuedTime);
             }
         }});
     }
@@ -101,6 +140,21 @@ class CustomWebView extends WebView {
     public ExternalSurface externalSurface;
     public boolean disableExternalSurfaceDraw;
     public boolean disableSuperDraw;
+    public boolean trackDirtyRegion = true;
+    public boolean renderingIntoTexture;
+    public boolean hardwareCanvas;
+
+    // The region invalidated since the last takeDirtyRect, in view
+    // coordinates. Only touched on the UI thread. The View constructor
+    // can invalidate before these are initialized.
+    private Rect dirtyRect = new Rect();
+    private boolean dirtyAll = true;
+    private int dirtyWidth;
+    private int dirtyHeight;
+    private final Rect clipRect = new Rect();
+
+    // Read by the render thread to decide whether to draw on demand.
+    private volatile boolean contentDirty = true;
 
 
     public CustomWebView(Context context)
@@ -110,19 +164,131 @@ class CustomWebView extends WebView {
     }
 
 
+    @Override
+    public void invalidate()
+    {
+        markDirtyAll();
+        super.invalidate();
+    }
+
+
+    @Override
+    public void invalidate(Rect dirty)
+    {
+        if (dirty == null) {
+            markDirtyAll();
+        } else {
+            markDirty(dirty.left, dirty.top, dirty.right, dirty.bottom);
+        }
+        super.invalidate(dirty);
+    }
+
+
+    @Override
+    public void invalidate(int left, int top, int right, int bottom)
+    {
+        markDirty(left, top, right, bottom);
+        super.invalidate(left, top, right, bottom);
+    }
+
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight)
+    {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        markDirtyAll();
+    }
+
+
+    @Override
+    protected void onScrollChanged(int left, int top, int oldLeft, int oldTop)
+    {
+        super.onScrollChanged(left, top, oldLeft, oldTop);
+        markDirtyAll();
+    }
+
+
+    public void markDirtyAll()
+    {
+        dirtyAll = true;
+        contentDirty = true;
+    }
+
+
+    public boolean isDirty()
+    {
+        return contentDirty;
+    }
+
+
+    // Takes content coordinates like View.invalidate, which subtracts the scroll position.
+    private void markDirty(int left, int top, int right, int bottom)
+    {
+        if ((dirtyRect == null) || dirtyAll) {
+            return;
+        }
+
+        contentDirty = true;
+
+        int scrollX = getScrollX();
+        int scrollY = getScrollY();
+        dirtyRect.union(left - scrollX, top - scrollY, right - scrollX, bottom - scrollY);
+    }
+
+
+    // Sets dirty to the region of a width by height surface that needs to be
+    // redrawn and clears it, or returns false if nothing changed since the
+    // last call.
+    public boolean takeDirtyRect(Rect dirty, int width, int height)
+    {
+        if (!trackDirtyRegion ||
+            dirtyAll ||
+            (width != dirtyWidth) ||
+            (height != dirtyHeight)) {
+            dirty.set(0, 0, width, height);
+        } else {
+            if (dirtyRect.isEmpty()) {
+                contentDirty = false;
+                return false;
+            }
+            dirty.set(dirtyRect);
+            if (!dirty.intersect(0, 0, width, height)) {
+                dirtyRect.setEmpty();
+                contentDirty = false;
+                return false;
+            }
+        }
+
+        dirtyAll = false;
+        contentDirty = false;
+        dirtyWidth = width;
+        dirtyHeight = height;
+        dirtyRect.setEmpty();
+
+        return true;
+    }
+
+
     @Override
     protected void onDraw(Canvas canvas)
     {
         //Log.d(TAG, "onDraw: externalSurface: " + externalSurface + " disableExternalSurfaceDraw: " + disableExternalSurfaceDraw + " disableSuperDraw: " + disableSuperDraw);
 
+        // When the window draws us, the clip is the part of the view that was
+        // invalidated, which also catches invalidations that bypass invalidate.
+        if (!renderingIntoTexture &&
+            canvas.getClipBounds(clipRect)) {
+            markDirty(clipRect.left, clipRect.top, clipRect.right, clipRect.bottom);
+        }
+
         if ((externalSurface != null) &&
             !disableExternalSurfaceDraw) {
             try {
-                final Canvas surfaceCanvas = externalSurface.surface.lockCanvas(null);
+                final Canvas surfaceCanvas = externalSurface.lockCanvas(null, hardwareCanvas);
                 //Log.d(TAG, "onDraw: surfaceCanvas: " + surfaceCanvas);
                 super.onDraw(surfaceCanvas);
                 //Log.d(TAG, "onDraw: posting");
-                externalSurface.surface.unlockCanvasAndPost(surfaceCanvas);
+                externalSurface.unlockCanvasAndPost(surfaceCanvas);
                 //Log.d(TAG, "onDraw: posted");
             } catch (Exception ex) {
                 Log.e(TAG, "onDraw: Error: Exception drawing WebView! ex: " + ex);
@@ -144,47 +310,245 @@ class CustomWebView extends WebView {
 public class CUnityJSPlugin {
 
 
+    // How messages from JS are delivered to Unity.
+    public static final int MESSAGE_DELIVERY_IMMEDIATE = 0;   // One runOnUiThread and UnitySendMessage per message.
+    public static final int MESSAGE_DELIVERY_BATCHED = 1;     // Batched, flushed on the UI thread once per frame.
+    public static final int MESSAGE_DELIVERY_RENDER_TICK = 2; // Batched, delivered directly from RenderUpdateUnityJSPlugins.
+    public static final int MESSAGE_DELIVERY_POLLED = 3;      // Batched, pulled by Unity calling PollMessages.
+
+    // When RenderUpdate draws the WebView into the texture, see RenderScheduler.
+    public static final int RENDER_MODE_ON_DEMAND = RenderScheduler.RENDER_MODE_ON_DEMAND;   // When the WebView invalidates, or RenderIntoTextureSetup is called.
+    public static final int RENDER_MODE_CONTINUOUS = RenderScheduler.RENDER_MODE_CONTINUOUS; // Every frame, capped at a target FPS.
+    public static final int RENDER_MODE_PAUSED = RenderScheduler.RENDER_MODE_PAUSED;         // Not at all.
+
+    // How the blit into the render texture is synchronized with Unity, see ExternalSurface.
+    public static final int RENDER_SYNC_FINISH = ExternalSurface.SYNC_FINISH; // glFinish after every blit.
+    public static final int RENDER_SYNC_FENCE = ExternalSurface.SYNC_FENCE;   // Also a fence for a consumer on another context, see GetRenderFence.
+    public static final int RENDER_SYNC_FLUSH = ExternalSurface.SYNC_FLUSH;   // Just glFlush, the default.
+
+    // How often the render path checks glGetError, see GLErrorCheck.
+    public static final int GL_ERROR_CHECK_OFF = GLErrorCheck.GL_ERROR_CHECK_OFF;         // Never, for production.
+    public static final int GL_ERROR_CHECK_SAMPLED = GLErrorCheck.GL_ERROR_CHECK_SAMPLED; // At phase boundaries, and after every call every Nth frame.
+    public static final int GL_ERROR_CHECK_FULL = GLErrorCheck.GL_ERROR_CHECK_FULL;       // After every call, for debugging.
+
+    // How batched and render tick messages cross JNI.
+    public static final int MESSAGE_TRANSPORT_STRING = 0; // One framed Batch string through UnitySendMessage.
+    public static final int MESSAGE_TRANSPORT_RING = 1;   // UTF-8 records in a direct ByteBuffer read in place by UnitySendMessageRing.
+
     private static String TAG = "CUnityJSPlugin";
     private static FrameLayout layout = null; // TODO: Do not put Android context classes in static fields.
-    private static int currentPluginID = 0;
-    private static HashMap<String, CUnityJSPlugin> plugins = new HashMap<String, CUnityJSPlugin>();
-    private static final Object pluginLock = new Object();
+    private static final PluginRegistry<CUnityJSPlugin, ExternalSurface> plugins =
+        new PluginRegistry<CUnityJSPlugin, ExternalSurface>(new CUnityJSPlugin[0]); // Retires surfaces to shut down on the render thread.
 
-    public String pluginID;
+    public final String pluginID;
     private CustomWebView webView;
     private CUnityJSPluginInterface unityJSPlugin;
+    private WebMessageChannel webMessageChannel; // Only touched on the UI thread.
+    private volatile boolean webMessageChannelEnabled;
     private boolean canGoBack;
     private boolean canGoForward;
     private long renderTextureHandle;
     private int renderTextureWidth;
     private int renderTextureHeight;
     private ExternalSurface externalSurface;
-    private boolean renderIntoTexture;
+    private final RenderScheduler renderScheduler = new RenderScheduler();
+    private final ResolutionScaler resolutionScaler = new ResolutionScaler();
+    final PluginStats stats = new PluginStats();
+    private volatile long statsIntervalNanos; // 0 means don't push Stats messages.
+    private long nextStatsTime;               // Only touched by the render thread.
+    private float drawScaleX = 1.0f; // The surface scale of the last draw. Only touched on the UI thread.
+    private float drawScaleY = 1.0f;
+    private volatile int renderSync = RENDER_SYNC_FLUSH;
+    private int renderBufferCount = 1;
+    private boolean renderTexturePooling;
+    private boolean renderTextureAtlas;
+    private volatile boolean renderDrawPending;
+    private final Rect renderDirtyRect = new Rect();
+    private final Runnable renderIntoTextureRunnable = new Runnable() {public void run() {
+        DrawIntoExternalSurface();
+    }};
+    private volatile int messageDelivery = MESSAGE_DELIVERY_IMMEDIATE;
+    private final MessageQueue messageQueue = new MessageQueue();
+    private volatile int messageTransport = MESSAGE_TRANSPORT_STRING;
+    private MessageRing messageRing;
+    private final MessageQueue.Consumer messageRingWriter = new MessageQueue.Consumer() {
+        public void message(String method, String message) {
+            if (!messageRing.write(pluginID, method, message)) {
+                // Too big for the ring, so send it the slow way, after everything before it.
+                messageRing.flush();
+                CUnityJSPlugin.UnitySendMessage(pluginID, method, message);
+            }
+        }
+    };
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private final Runnable flushMessagesRunnable = new Runnable() {public void run() {
+        FlushMessages();
+    }};
+    private volatile boolean commandBatching;
+    private final CommandQueue commandQueue = new CommandQueue();
+    private final ResultQueue resultQueue = new ResultQueue();
+    private final FunctionTable functionTable = new FunctionTable();
+    private final ConsoleLog consoleLog = new ConsoleLog();
+    private final Runnable consoleSummaryRunnable = new Runnable() {public void run() {
+        String summary = consoleLog.takeSummary();
+        if ((summary != null) && IsInitialized()) {
+            unityJSPlugin.call("CallOnConsoleMessage", summary);
+        }
+    }};
+    private final Runnable flushResultsRunnable = new Runnable() {public void run() {
+        FlushResults();
+    }};
+    private final MessageQueue.LatencyRecorder commandLatencyRecorder = new MessageQueue.LatencyRecorder() {
+        public void record(String method, long nanos) {
+            stats.recordLatency(stats.toWebViewLatency, method, nanos);
+        }
+    };
+    private final Runnable flushCommandsRunnable = new Runnable() {public void run() {
+        commandQueue.flush(commandTarget, commandLatencyRecorder);
+    }};
+
+    // Runs commands from Unity on the UI thread, whether queued or not.
+    private final CommandQueue.Target commandTarget = new CommandQueue.Target() {
+
+        public void setRect(int width, int height) {
+            if (webView == null) {
+                return;
+            }
+            //params.setMargins(0, 0, 0, 0);
+            webView.setLayoutParams(
+                new FrameLayout.LayoutParams(
+                    width,
+                    height,
+                    Gravity.NO_GRAVITY));
+        }
+
+        public void setVisibility(boolean visibility) {
+            if (webView == null) {
+                return;
+            }
+            if (visibility) {
+                webView.setVisibility(View.VISIBLE);
+                //layout.requestFocus();
+                //webView.requestFocus();
+            } else {
+                webView.setVisibility(View.GONE);
+            }
+        }
+
+        public void loadURL(String url) {
+            if (webView == null) {
+                return;
+            }
+            webView.loadUrl(url);
+        }
+
+        public void evaluateJS(String js) {
+            if (webView == null) {
+                return;
+            }
+            webView.evaluateJavascript(CommandQueue.wrapScript(js), null);
+        }
+
+        public void evaluateJSBatch(String batch, final String[] scripts) {
+            if (webView == null) {
+                return;
+            }
+            final WebView batchWebView = webView;
+            webView.evaluateJavascript(batch, new ValueCallback<String>() {
+                @Override
+                public void onReceiveValue(String result) {
+                    if (CommandQueue.BATCH_RESULT.equals(result) ||
+                        (webView != batchWebView)) {
+                        return;
+                    }
+                    // Some script didn't parse, so none of them ran.
+                    Log.e(TAG, "evaluateJSBatch: batch failed, evaluating its " + scripts.length + " scripts one by one");
+                    for (int i = 0; i < scripts.length; i++) {
+                        evaluateJS(scripts[i]);
+                    }
+                }
+            });
+        }
+
+        public void evaluateJSReturnResult(String js, final long callTime) {
+            if (webView == null) {
+                return;
+            }
+            webView.evaluateJavascript(js, new ValueCallback<String>() {
+                @Override
+                public void onReceiveValue(String result) {
+                    //Log.d(TAG, "EvaluateJS: onReceiveValue: " + result);
+                    stats.recordLatency(stats.roundTripLatency, "EvaluateJSReturnResult", System.nanoTime() - callTime);
+                    unityJSPlugin.returnResult(result);
+                }
+            });
+        }
+
+        public void evaluateJSRequest(final int requestID, String js, final long callTime) {
+            if (webView == null) {
+                return;
+            }
+            webView.evaluateJavascript(js, new ValueCallback<String>() {
+                @Override
+                public void onReceiveValue(String result) {
+                    stats.recordLatency(stats.roundTripLatency, "EvaluateJSRequest", System.nanoTime() - callTime);
+                    if (resultQueue.complete(requestID, result)) {
+                        // Send it with the rest of this frame's results.
+                        uiHandler.postDelayed(flushResultsRunnable, CommandQueue.FALLBACK_DELAY_MS);
+                    }
+                }
+            });
+        }
+
+        public void goBack() {
+            if (webView == null) {
+                return;
+            }
+            webView.goBack();
+        }
+
+        public void goForward() {
+            if (webView == null) {
+                return;
+            }
+            webView.goForward();
+        }
+
+    };
+
 
+    // The natives are in UnityJSNative. Unity calls the first two of these
+    // by name on this class.
 
-    static {
-        System.loadLibrary("UnityJS");
+    public static void SetUnitySendMessageCallback(long sendMessageCallback)
+    {
+        UnityJSNative.SetUnitySendMessageCallback(sendMessageCallback);
     }
 
 
-    // Java_com_groundupsoftware_unityjs_CUnityJSPlugin_SetUnitySendMessageCallback
-    public native static void SetUnitySendMessageCallback(long sendMessageCallback);
+    public static long GetRenderEventFunc()
+    {
+        return UnityJSNative.GetRenderEventFunc();
+    }
 
-    // Java_com_groundupsoftware_unityjs_CUnityJSPlugin_SetUnitySendMessageCallback
-    public native static long UnitySendMessage(String target, String method, String message);
 
-    // Java_com_groundupsoftware_unityjs_CUnityJSPlugin_GetRenderEventFunc
-    public native static long GetRenderEventFunc();
+    public static long UnitySendMessage(String target, String method, String message)
+    {
+        return UnityJSNative.UnitySendMessage(target, method, message);
+    }
 
 
     public CUnityJSPlugin()
     {
-        synchronized (pluginLock) {
-
-            pluginID = "" + ++currentPluginID; // Never zero.
-            plugins.put(pluginID, this);
+        messageQueue.setLatencyRecorder(new MessageQueue.LatencyRecorder() {
+            public void record(String name, long nanos) {
+                stats.recordLatency(stats.toUnityLatency, name, nanos);
+            }
+        });
 
-        }
+        // Set before the render thread can see this plugin.
+        pluginID = plugins.nextID();
+        plugins.add(pluginID, this);
     }
 
 
@@ -223,6 +587,11 @@ public class CUnityJSPlugin {
 
             //Log.d(TAG, "Init: runOnUiThread: creating new ExternalSurface");
             externalSurface = new ExternalSurface();
+            externalSurface.setSyncMode(renderSync);
+            externalSurface.setOutputBufferCount(renderBufferCount);
+            externalSurface.setPooled(renderTexturePooling);
+            externalSurface.setAtlas(renderTextureAtlas);
+            externalSurface.stats = stats;
             //Log.d(TAG, "Init: runOnUiThread: created new ExternalSurface: " + externalSurface);
 
             webView.externalSurface = externalSurface;
@@ -245,7 +614,35 @@ public class CUnityJSPlugin {
                 @Override
                 public boolean onConsoleMessage(android.webkit.ConsoleMessage cm) {
                     //Log.d(TAG, "onConsoleMessage: " + cm.message());
-                    unityJSPlugin.call("CallOnConsoleMessage", cm.message());
+                    android.webkit.ConsoleMessage.MessageLevel messageLevel = cm.messageLevel();
+                    int level = ConsoleLog.LEVEL_LOG; // Including TIP.
+                    if (messageLevel == android.webkit.ConsoleMessage.MessageLevel.ERROR) {
+                        level = ConsoleLog.LEVEL_ERROR;
+                    } else if (messageLevel == android.webkit.ConsoleMessage.MessageLevel.WARNING) {
+                        level = ConsoleLog.LEVEL_WARNING;
+                    } else if (messageLevel == android.webkit.ConsoleMessage.MessageLevel.DEBUG) {
+                        level = ConsoleLog.LEVEL_DEBUG;
+                    }
+                    switch (consoleLog.add(level, cm.message(), cm.sourceId(), cm.lineNumber(), System.nanoTime())) {
+
+                        case ConsoleLog.FORWARD: {
+                            String summary = consoleLog.takeSummary();
+                            if (summary != null) {
+                                unityJSPlugin.call("CallOnConsoleMessage", summary);
+                            }
+                            unityJSPlugin.call("CallOnConsoleMessage", cm.message());
+                            break;
+                        }
+
+                        case ConsoleLog.SUPPRESSED_FIRST:
+                            // Report them even if nothing else gets forwarded.
+                            uiHandler.postDelayed(consoleSummaryRunnable, ConsoleLog.SUMMARY_DELAY_MS);
+                            break;
+
+                        default:
+                            break;
+
+                    }
                     return true;
                 }
 
@@ -254,6 +651,7 @@ public class CUnityJSPlugin {
             unityJSPlugin =
                 new CUnityJSPluginInterface(self);
             webView.addJavascriptInterface(unityJSPlugin , "Unity");
+            webMessageChannel = new WebMessageChannel(unityJSPlugin);
 
             webView.setWebViewClient(new WebViewClient() {
 
@@ -275,6 +673,14 @@ public class CUnityJSPlugin {
                 public void onPageFinished(WebView view, String url) {
                     canGoBack = webView.canGoBack();
                     canGoForward = webView.canGoForward();
+                    webView.markDirtyAll();
+                    String functions = functionTable.getInstallScript();
+                    if (functions != null) {
+                        webView.evaluateJavascript(functions, null);
+                    }
+                    if (webMessageChannelEnabled) {
+                        webMessageChannel.open(webView);
+                    }
                     unityJSPlugin.call("CallOnLoaded", url);
                 }
 
@@ -341,28 +747,9 @@ public class CUnityJSPlugin {
                     LayoutParams.MATCH_PARENT,
                     Gravity.NO_GRAVITY));
 
-        }});
+            KeyboardObserver.add(a, pluginID);
 
-        final View activityRootView = a.getWindow().getDecorView().getRootView();
-
-        activityRootView.getViewTreeObserver().addOnGlobalLayoutListener(new android.view.ViewTreeObserver.OnGlobalLayoutListener() {
-            @Override
-            public void onGlobalLayout() {
-                android.graphics.Rect r = new android.graphics.Rect();
-                // r will be populated with the coordinates of your view that area still visible.
-                activityRootView.getWindowVisibleDisplayFrame(r);
-                android.view.Display display = a.getWindowManager().getDefaultDisplay();
-                Point size = new Point();
-                display.getSize(size);
-                int heightDiff = activityRootView.getRootView().getHeight() - (r.bottom - r.top);
-                //System.out.print(String.format("[NativeWebview] %d, %d\n", size.y, heightDiff));
-                if (heightDiff > size.y / 3) { // assume that this means that the keyboard is on
-                    CUnityJSPlugin.UnitySendMessage(pluginID, "SetKeyboardVisible", "true");
-                } else {
-                    CUnityJSPlugin.UnitySendMessage(pluginID, "SetKeyboardVisible", "false");
-                }
-            }
-        });
+        }});
     }
 
 
@@ -370,25 +757,27 @@ public class CUnityJSPlugin {
     {
         //Log.d(TAG, "Destroy: mWebView: " + webView);
 
-        // TODO: clean up webView's ExternalSurface.
+        plugins.remove(pluginID);
 
-        synchronized (pluginLock) {
+        final Activity a = UnityPlayer.currentActivity;
+        a.runOnUiThread(new Runnable() {public void run() {
 
-            if ((pluginID != null) &&
-                (plugins != null) &&
-                plugins.containsKey(pluginID)) {
-                plugins.remove(pluginID);
+            // A render tick that started before this plugin was removed
+            // can still be using the surface, so the render thread releases
+            // its GL resources at the start of the next tick.
+            if (externalSurface != null) {
+                plugins.retire(externalSurface);
+                externalSurface = null;
             }
 
-        }
-
-        final Activity a = UnityPlayer.currentActivity;
-        a.runOnUiThread(new Runnable() {public void run() {
+            KeyboardObserver.remove(pluginID);
 
             if (webView == null) {
                 return;
             }
 
+            webMessageChannel.closePort();
+
             layout.removeView(webView);
             webView = null;
 
@@ -399,12 +788,15 @@ public class CUnityJSPlugin {
     public void LoadURL(final String url)
     {
         //Log.d(TAG, "LoadURL: " + url + " this: " + this);
+        stats.countToWebView(url);
+        final long callTime = System.nanoTime();
+        if (QueueCommand(CommandQueue.LOAD_URL, url, callTime)) {
+            return;
+        }
         final Activity a = UnityPlayer.currentActivity;
         a.runOnUiThread(new Runnable() {public void run() {
-            if (webView == null) {
-                return;
-            }
-            webView.loadUrl(url);
+            stats.recordLatency(stats.toWebViewLatency, "LoadURL", System.nanoTime() - callTime);
+            commandTarget.loadURL(url);
         }});
     }
 
@@ -412,12 +804,15 @@ public class CUnityJSPlugin {
     public void EvaluateJS(final String js)
     {
         //Log.d(TAG, "EvaluateJS: " + js + " this: " + this);
+        stats.countToWebView(js);
+        final long callTime = System.nanoTime();
+        if (QueueCommand(CommandQueue.EVALUATE_JS, js, callTime)) {
+            return;
+        }
         final Activity a = UnityPlayer.currentActivity;
         a.runOnUiThread(new Runnable() {public void run() {
-            if (webView == null) {
-                return;
-            }
-            webView.evaluateJavascript(js, null);
+            stats.recordLatency(stats.toWebViewLatency, "EvaluateJS", System.nanoTime() - callTime);
+            commandTarget.evaluateJS(js);
         }});
     }
 
@@ -425,88 +820,607 @@ public class CUnityJSPlugin {
     public void EvaluateJSReturnResult(final String js)
     {
         //Log.d(TAG, "EvaluateJSReturnResult: " + js + " this: " + this);
+        stats.countToWebView(js);
+        final long callTime = System.nanoTime();
+        if (QueueCommand(CommandQueue.EVALUATE_JS_RETURN_RESULT, js, callTime)) {
+            return;
+        }
         final Activity a = UnityPlayer.currentActivity;
         a.runOnUiThread(new Runnable() {public void run() {
-            if (webView == null) {
-                return;
-            }
-            webView.evaluateJavascript(js, new ValueCallback<String>() {
-                @Override
-                public void onReceiveValue(String result) {
-                    //Log.d(TAG, "EvaluateJS: onReceiveValue: " + result);
-                    unityJSPlugin.returnResult(result);
-                }
-            });
+            stats.recordLatency(stats.toWebViewLatency, "EvaluateJSReturnResult", System.nanoTime() - callTime);
+            commandTarget.evaluateJSReturnResult(js, callTime);
         }});
     }
 
 
-    public void GoBack()
+    // Evaluates js, and sends its result back to Unity with requestID, see
+    // ResultQueue. Any number of requests can be in flight, and the results
+    // that come back in the same frame are sent together. If timeoutMS is
+    // more than 0 and the result isn't back by then, the request times out.
+    public void EvaluateJSRequest(final int requestID, final String js, int timeoutMS)
     {
+        //Log.d(TAG, "EvaluateJSRequest: requestID: " + requestID + " js: " + js + " timeoutMS: " + timeoutMS + " this: " + this);
+        stats.countToWebView(js);
+        final long callTime = System.nanoTime();
+        resultQueue.start(requestID, (timeoutMS > 0) ? (callTime + (timeoutMS * 1000000L)) : 0);
+        if (timeoutMS > 0) {
+            // Time it out even if no frames are rendered.
+            uiHandler.postDelayed(flushResultsRunnable, timeoutMS);
+        }
+        if (commandBatching) {
+            if (commandQueue.push(CommandQueue.EVALUATE_JS_REQUEST, js, requestID, callTime)) {
+                uiHandler.postDelayed(flushCommandsRunnable, CommandQueue.FALLBACK_DELAY_MS);
+            }
+            return;
+        }
         final Activity a = UnityPlayer.currentActivity;
         a.runOnUiThread(new Runnable() {public void run() {
-            if (webView == null) {
-                return;
-            }
-            webView.goBack();
+            stats.recordLatency(stats.toWebViewLatency, "EvaluateJSRequest", System.nanoTime() - callTime);
+            commandTarget.evaluateJSRequest(requestID, js, callTime);
         }});
     }
 
 
-    public void GoForward()
+    // Sends a cancelled status for requestID instead of its result, if it
+    // is still in flight. The script itself still runs to completion.
+    public void CancelEvaluateJSRequest(int requestID)
     {
-        final Activity a = UnityPlayer.currentActivity;
-        a.runOnUiThread(new Runnable() {public void run() {
-            if (webView == null) {
-                return;
-            }
-            webView.goForward();
-        }});
+        if (resultQueue.cancel(requestID)) {
+            uiHandler.postDelayed(flushResultsRunnable, CommandQueue.FALLBACK_DELAY_MS);
+        }
     }
 
 
-    public void SetRect(int width, int height)
+    public int GetEvaluateJSRequestsPending()
     {
-        final FrameLayout.LayoutParams params =
-            new FrameLayout.LayoutParams(
-                width,
-                height,
-                Gravity.NO_GRAVITY);
-        //params.setMargins(0, 0, 0, 0);
-        final Activity a = UnityPlayer.currentActivity;
-        a.runOnUiThread(new Runnable() {public void run() {
-            if (webView == null) {
-                return;
-            }
-            webView.setLayoutParams(params);
-        }});
+        return resultQueue.getPendingCount();
     }
 
 
-    public void SetVisibility(final boolean visibility)
+    // Called on the UI thread.
+    private void FlushResults()
     {
-        final Activity a = UnityPlayer.currentActivity;
-        a.runOnUiThread(new Runnable() {public void run() {
-            if (webView == null) {
-                return;
-            }
-            if (visibility) {
-                webView.setVisibility(View.VISIBLE);
-                //layout.requestFocus();
-                //webView.requestFocus();
-            } else {
-                webView.setVisibility(View.GONE);
-            }
-        }});
+        String payload = resultQueue.drain(System.nanoTime());
+        if ((payload == null) || !IsInitialized()) {
+            return;
+        }
+
+        unityJSPlugin.call(ResultQueue.RESULTS_METHOD, payload);
     }
 
 
-    public void RenderIntoTextureSetup(final int width, final int height)
+    // Registers source, a JS function expression, as functionID, replacing
+    // any function already registered with that ID. It's installed in the
+    // current page right away, and in every page loaded after that, before
+    // CallOnLoaded. See FunctionTable.
+    public void RegisterJSFunction(int functionID, String source)
     {
-        //Log.d(TAG, "RenderIntoTextureSetup: width: " + width + " height: " + height + " this: " + this);
-        renderIntoTexture = true;
-        renderTextureWidth = width;
+        //Log.d(TAG, "RegisterJSFunction: functionID: " + functionID + " source: " + source + " this: " + this);
+        functionTable.register(functionID, source);
+        EvaluateJS(FunctionTable.installScript(functionID, source));
+    }
+
+
+    public void UnregisterJSFunction(int functionID)
+    {
+        //Log.d(TAG, "UnregisterJSFunction: functionID: " + functionID + " this: " + this);
+        if (functionTable.unregister(functionID)) {
+            EvaluateJS(FunctionTable.uninstallScript(functionID));
+        }
+    }
+
+
+    // Calls the function registered as functionID with args, which is
+    // inserted into the call as JS source (usually JSON), or can be empty.
+    // Goes through EvaluateJS, so it's queued and joined like any script.
+    public void CallJSFunction(int functionID, String args)
+    {
+        EvaluateJS(FunctionTable.callScript(functionID, args));
+    }
+
+
+    // Like CallJSFunction, but sends the function's result back to Unity
+    // like EvaluateJSRequest.
+    public void CallJSFunctionRequest(int requestID, int functionID, String args, int timeoutMS)
+    {
+        EvaluateJSRequest(requestID, FunctionTable.callScript(functionID, args), timeoutMS);
+    }
+
+
+    public void GoBack()
+    {
+        if (QueueCommand(CommandQueue.GO_BACK, null, System.nanoTime())) {
+            return;
+        }
+        final Activity a = UnityPlayer.currentActivity;
+        a.runOnUiThread(new Runnable() {public void run() {
+            commandTarget.goBack();
+        }});
+    }
+
+
+    public void GoForward()
+    {
+        if (QueueCommand(CommandQueue.GO_FORWARD, null, System.nanoTime())) {
+            return;
+        }
+        final Activity a = UnityPlayer.currentActivity;
+        a.runOnUiThread(new Runnable() {public void run() {
+            commandTarget.goForward();
+        }});
+    }
+
+
+    public void SetRect(final int width, final int height)
+    {
+        if (commandBatching) {
+            if (commandQueue.setRect(width, height, System.nanoTime())) {
+                uiHandler.postDelayed(flushCommandsRunnable, CommandQueue.FALLBACK_DELAY_MS);
+            }
+            return;
+        }
+        final Activity a = UnityPlayer.currentActivity;
+        a.runOnUiThread(new Runnable() {public void run() {
+            commandTarget.setRect(width, height);
+        }});
+    }
+
+
+    public void SetVisibility(final boolean visibility)
+    {
+        if (commandBatching) {
+            if (commandQueue.setVisibility(visibility, System.nanoTime())) {
+                uiHandler.postDelayed(flushCommandsRunnable, CommandQueue.FALLBACK_DELAY_MS);
+            }
+            return;
+        }
+        final Activity a = UnityPlayer.currentActivity;
+        a.runOnUiThread(new Runnable() {public void run() {
+            commandTarget.setVisibility(visibility);
+        }});
+    }
+
+
+    // Queues the commands above (LoadURL through SetVisibility) to run
+    // together on the UI thread once per frame, instead of posting each
+    // one, see CommandQueue. Commands are still run in order, except that
+    // SetRect and SetVisibility only apply the last one, before the others.
+    // The queue is flushed by RenderUpdate, or within
+    // CommandQueue.FALLBACK_DELAY_MS if no frames are being rendered.
+    public void SetCommandBatching(boolean enabled)
+    {
+        //Log.d(TAG, "SetCommandBatching: enabled: " + enabled);
+        commandBatching = enabled;
+
+        if (!enabled) {
+            // Run anything still queued, ahead of the commands that follow.
+            uiHandler.removeCallbacks(flushCommandsRunnable);
+            uiHandler.post(flushCommandsRunnable);
+        }
+    }
+
+
+    // Returns true if the command was queued, or false if command batching
+    // is off and the caller should run it.
+    private boolean QueueCommand(int type, String argument, long callTime)
+    {
+        if (!commandBatching) {
+            return false;
+        }
+
+        if (commandQueue.push(type, argument, callTime)) {
+            // Make sure it runs within the fallback delay even if no frames are rendered.
+            uiHandler.postDelayed(flushCommandsRunnable, CommandQueue.FALLBACK_DELAY_MS);
+        }
+
+        return true;
+    }
+
+
+    public void SetMessageBatching(boolean enabled, int maxPayloadLength, int maxDelayMS)
+    {
+        SetMessageDelivery(
+            enabled ? MESSAGE_DELIVERY_BATCHED : MESSAGE_DELIVERY_IMMEDIATE,
+            maxPayloadLength,
+            maxDelayMS);
+    }
+
+
+    public void SetMessageDelivery(int mode, int maxPayloadLength, int maxDelayMS)
+    {
+        //Log.d(TAG, "SetMessageDelivery: mode: " + mode + " maxPayloadLength: " + maxPayloadLength + " maxDelayMS: " + maxDelayMS);
+        messageQueue.configure(maxPayloadLength, maxDelayMS);
+        messageDelivery = mode;
+
+        if ((mode == MESSAGE_DELIVERY_IMMEDIATE) ||
+            (mode == MESSAGE_DELIVERY_BATCHED)) {
+            // Deliver anything that was queued under the previous mode.
+            uiHandler.post(flushMessagesRunnable);
+        }
+    }
+
+
+    public int GetMessageDelivery()
+    {
+        return messageDelivery;
+    }
+
+
+    public void SetMessageTransport(int transport, int ringCapacity)
+    {
+        //Log.d(TAG, "SetMessageTransport: transport: " + transport + " ringCapacity: " + ringCapacity);
+        if ((transport == MESSAGE_TRANSPORT_RING) &&
+            (messageRing == null)) {
+            messageRing = new MessageRing(
+                (ringCapacity > 0) ? ringCapacity : MessageRing.DEFAULT_CAPACITY,
+                new MessageRing.Reader() {
+                    public int read(ByteBuffer buffer, int head, int tail) {
+                        return UnityJSNative.UnitySendMessageRing(buffer, head, tail);
+                    }
+                });
+        }
+
+        messageTransport = transport;
+    }
+
+
+    // Sends JS to Unity messages through an asynchronous WebMessagePort
+    // instead of the blocking JavascriptInterface, see WebMessageChannel.
+    // Opens on the current page right away, and on every page after it.
+    // Returns false if this Android version doesn't support it (before
+    // API 23), in which case the JavascriptInterface keeps being used.
+    public boolean SetWebMessageChannel(final boolean enabled)
+    {
+        //Log.d(TAG, "SetWebMessageChannel: enabled: " + enabled);
+        if (enabled && !WebMessageChannel.isSupported()) {
+            return false;
+        }
+
+        webMessageChannelEnabled = enabled;
+
+        final Activity a = UnityPlayer.currentActivity;
+        a.runOnUiThread(new Runnable() {public void run() {
+            if ((webView == null) ||
+                (enabled == webMessageChannel.isOpen())) {
+                return;
+            }
+            if (enabled) {
+                webMessageChannel.open(webView);
+            } else {
+                webMessageChannel.close(webView);
+            }
+        }});
+
+        return true;
+    }
+
+
+    // Called from any thread. Only the batched mode wakes up the UI thread,
+    // the render tick and polled modes leave the messages in the queue
+    // until their consumer drains it.
+    public void QueueMessage(String method, String message)
+    {
+        QueueMessage(method, message, method);
+    }
+
+
+    // The same, with the name its latency is recorded under.
+    public void QueueMessage(String method, String message, String latencyName)
+    {
+        int pushed = messageQueue.push(method, message, latencyName, System.nanoTime());
+
+        if (messageDelivery != MESSAGE_DELIVERY_BATCHED) {
+            return;
+        }
+
+        switch (pushed) {
+
+            case MessageQueue.PUSH_STARTED:
+                // Make sure the batch goes out within maxDelayMS even if no frames are rendered.
+                uiHandler.postDelayed(flushMessagesRunnable, messageQueue.getMaxDelayMS());
+                break;
+
+            case MessageQueue.PUSH_FULL:
+                uiHandler.removeCallbacks(flushMessagesRunnable);
+                uiHandler.post(flushMessagesRunnable);
+                break;
+
+            default:
+                break;
+
+        }
+    }
+
+
+    // Called on the UI thread, or on the render thread in MESSAGE_DELIVERY_RENDER_TICK mode.
+    public void FlushMessages()
+    {
+        if ((messageTransport == MESSAGE_TRANSPORT_RING) &&
+            IsInitialized()) {
+            synchronized (messageRing) {
+                messageQueue.drain(messageRingWriter);
+                messageRing.flush();
+            }
+        } else {
+            String payload = messageQueue.drain();
+            if ((payload != null) && IsInitialized()) {
+                //Log.d(TAG, "FlushMessages: payload.length: " + payload.length());
+                CUnityJSPlugin.UnitySendMessage(pluginID, MessageQueue.BATCH_METHOD, payload);
+            }
+        }
+
+        if (messageQueue.leftMessages() &&
+            (messageDelivery == MESSAGE_DELIVERY_BATCHED)) {
+            // Make sure the messages pushed during the drain go out within maxDelayMS too.
+            uiHandler.postDelayed(flushMessagesRunnable, messageQueue.getMaxDelayMS());
+        }
+    }
+
+
+    // Called by Unity from Update in MESSAGE_DELIVERY_POLLED mode.
+    // Returns a framed batch of messages, or null if there are none.
+    public String PollMessages()
+    {
+        return messageQueue.drain();
+    }
+
+
+    // Renders the WebView through a hardware layer and Surface.lockHardwareCanvas
+    // (API 23 and up), instead of rasterizing it in software. Falls back to
+    // software if the device or the window can't, or the hardware canvas fails.
+    // Switching either way gives the surface a new Surface on its next
+    // lock, see ExternalSurface.lockCanvas.
+    public void SetHardwareCanvas(final boolean enabled)
+    {
+        final Activity a = UnityPlayer.currentActivity;
+        a.runOnUiThread(new Runnable() {public void run() {
+            if (webView == null) {
+                return;
+            }
+
+            boolean hardware =
+                enabled &&
+                (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) &&
+                (externalSurface != null) &&
+                !externalSurface.isHardwareCanvasFailed();
+
+            if (enabled && !hardware) {
+                Log.d(TAG, "SetHardwareCanvas: hardware canvas not available, staying in software");
+            }
+
+            webView.hardwareCanvas = hardware;
+            webView.setLayerType(hardware ? View.LAYER_TYPE_HARDWARE : View.LAYER_TYPE_SOFTWARE, null);
+            webView.markDirtyAll();
+        }});
+    }
+
+
+    // One of the RENDER_SYNC modes. Unity samples the texture on the
+    // context the blit ran on, so RENDER_SYNC_FLUSH is enough for it.
+    public void SetRenderSync(int mode)
+    {
+        //Log.d(TAG, "SetRenderSync: mode: " + mode + " this: " + this);
+        renderSync = mode;
+        if (externalSurface != null) {
+            externalSurface.setSyncMode(mode);
+        }
+    }
+
+
+    // How many output textures the WebView is blitted into in turn, from 1
+    // to ExternalSurface.MAX_OUTPUT_BUFFERS. With 2 or 3, the blit never
+    // writes the texture Unity is sampling, and GetRenderTextureHandle
+    // changes to the latest one after every update.
+    public void SetRenderBufferCount(int count)
+    {
+        //Log.d(TAG, "SetRenderBufferCount: count: " + count + " this: " + this);
+        renderBufferCount = count;
+        if (externalSurface != null) {
+            externalSurface.setOutputBufferCount(count);
+        }
+        renderScheduler.request();
+    }
+
+
+    // Allocates render textures from the shared OutputBufferPool at power
+    // of two sizes, so resizing doesn't reallocate them. The WebView is in
+    // the lower left GetRenderTextureWidth by GetRenderTextureHeight of a
+    // GetRenderTextureAllocatedWidth by GetRenderTextureAllocatedHeight
+    // texture, so Unity has to scale its UVs by the ratio.
+    public void SetRenderTexturePooling(boolean enabled)
+    {
+        //Log.d(TAG, "SetRenderTexturePooling: enabled: " + enabled + " this: " + this);
+        renderTexturePooling = enabled;
+        if (externalSurface != null) {
+            externalSurface.setPooled(enabled);
+        }
+        renderScheduler.request();
+    }
+
+
+    public int GetRenderTextureAllocatedWidth()
+    {
+        return (externalSurface == null) ? renderTextureWidth : externalSurface.getAllocatedWidth();
+    }
+
+
+    public int GetRenderTextureAllocatedHeight()
+    {
+        return (externalSurface == null) ? renderTextureHeight : externalSurface.getAllocatedHeight();
+    }
+
+
+    // Renders into a rectangle of a texture shared with the other plugins
+    // that enable this, instead of a texture of its own. Unity samples the
+    // GetRenderTextureAllocatedWidth by GetRenderTextureAllocatedHeight
+    // texture, between GetRenderTextureAtlasX, GetRenderTextureAtlasY
+    // (the lower left corner) and GetRenderTextureWidth,
+    // GetRenderTextureHeight further up and to the right. The rectangle
+    // moves whenever a plugin in the atlas changes size, so check it on
+    // every CallOnTexture. Takes precedence over SetRenderBufferCount and
+    // SetRenderTexturePooling.
+    public void SetRenderTextureAtlas(boolean enabled)
+    {
+        //Log.d(TAG, "SetRenderTextureAtlas: enabled: " + enabled + " this: " + this);
+        renderTextureAtlas = enabled;
+        if (externalSurface != null) {
+            externalSurface.setAtlas(enabled);
+        }
+        renderScheduler.request();
+    }
+
+
+    public int GetRenderTextureAtlasX()
+    {
+        return (externalSurface == null) ? 0 : externalSurface.getAtlasX();
+    }
+
+
+    public int GetRenderTextureAtlasY()
+    {
+        return (externalSurface == null) ? 0 : externalSurface.getAtlasY();
+    }
+
+
+    // For a consumer that samples the texture from another context. Only
+    // RENDER_SYNC_FENCE makes fences, so asking for one in the default
+    // RENDER_SYNC_FLUSH mode switches to it, and returns 0 until the next
+    // update. Only meaningful on the render thread, after RenderUpdate.
+    public long GetRenderFence()
+    {
+        if (renderSync == RENDER_SYNC_FLUSH) {
+            SetRenderSync(RENDER_SYNC_FENCE);
+        }
+
+        if (externalSurface == null) {
+            return 0;
+        }
+
+        return externalSurface.getFence();
+    }
+
+
+    public static void SetGLErrorCheck(int policy, int sampleInterval)
+    {
+        //Log.d(TAG, "SetGLErrorCheck: policy: " + policy + " sampleInterval: " + sampleInterval);
+        GLErrorCheck.setPolicy(policy, sampleInterval);
+    }
+
+
+    public void SetDirtyRegionTracking(final boolean enabled)
+    {
+        final Activity a = UnityPlayer.currentActivity;
+        a.runOnUiThread(new Runnable() {public void run() {
+            if (webView == null) {
+                return;
+            }
+            webView.trackDirtyRegion = enabled;
+            webView.markDirtyAll();
+        }});
+    }
+
+
+    public void RenderIntoTextureSetup(final int width, final int height)
+    {
+        //Log.d(TAG, "RenderIntoTextureSetup: width: " + width + " height: " + height + " this: " + this);
+        renderTextureWidth = width;
         renderTextureHeight = height;
+        renderScheduler.request();
+    }
+
+
+    // Draws the WebView into a smaller surface when drawing it takes more
+    // than budgetMS, down to minScale of the texture size, and scales it
+    // up when blitting it into the texture. A budgetMS of 0 turns this off,
+    // and draws at full resolution again.
+    public void SetDynamicResolution(float budgetMS, float minScale)
+    {
+        //Log.d(TAG, "SetDynamicResolution: budgetMS: " + budgetMS + " minScale: " + minScale + " this: " + this);
+        resolutionScaler.setBudget((long)(budgetMS * 1000000.0f), minScale);
+        if (externalSurface != null) {
+            externalSurface.setSurfaceScale(resolutionScaler.getScale());
+        }
+        renderScheduler.request();
+    }
+
+
+    // The fraction of the texture size the WebView is currently drawn at.
+    public float GetRenderScale()
+    {
+        return resolutionScaler.getScale();
+    }
+
+
+    // Returns this plugin's performance counters as compact JSON, see PluginStats.
+    public String GetStats()
+    {
+        return stats.toJSON(pluginID, messageQueue.size(), renderDrawPending, resolutionScaler.getScale());
+    }
+
+
+    // Returns p50, p99 and p999 latencies of the bridge in microseconds as
+    // JSON, by direction and method, see PluginStats.
+    public String GetLatencyStats()
+    {
+        return stats.latencyToJSON(pluginID);
+    }
+
+
+    public void ResetLatencyStats()
+    {
+        stats.resetLatency();
+    }
+
+
+    // Also sends GetStats to Unity as a Stats message every intervalMS,
+    // from the render tick. 0 turns that off.
+    public void SetStatsInterval(int intervalMS)
+    {
+        //Log.d(TAG, "SetStatsInterval: intervalMS: " + intervalMS + " this: " + this);
+        statsIntervalNanos = (intervalMS > 0) ? (intervalMS * 1000000L) : 0;
+    }
+
+
+    // Filters the page's console messages, see ConsoleLog. Only messages
+    // of minLevel (a ConsoleLog.LEVEL) and up, from sources containing
+    // sourceFilter (if not empty), are captured or forwarded. If forward
+    // is true they are sent to Unity as CallOnConsoleMessage, at most
+    // maxPerSecond a second (0 for no limit), with a summary of how many
+    // were suppressed.
+    public void SetConsoleFilter(int minLevel, String sourceFilter, int maxPerSecond, boolean forward)
+    {
+        //Log.d(TAG, "SetConsoleFilter: minLevel: " + minLevel + " sourceFilter: " + sourceFilter + " maxPerSecond: " + maxPerSecond + " forward: " + forward + " this: " + this);
+        consoleLog.configure(minLevel, sourceFilter, maxPerSecond, forward);
+    }
+
+
+    // Keeps the last capacity console messages that pass the filter, for
+    // GetConsoleMessages, whether forwarded or not. 0 turns that off.
+    public void SetConsoleCapture(int capacity)
+    {
+        //Log.d(TAG, "SetConsoleCapture: capacity: " + capacity + " this: " + this);
+        consoleLog.setCapacity(capacity);
+    }
+
+
+    // Returns the captured console messages as JSON, oldest first, and
+    // removes them if clear is true.
+    public String GetConsoleMessages(boolean clear)
+    {
+        return consoleLog.toJSON(pluginID, clear);
+    }
+
+
+    public void SetRenderMode(int mode, int targetFPS)
+    {
+        //Log.d(TAG, "SetRenderMode: mode: " + mode + " targetFPS: " + targetFPS + " this: " + this);
+        renderScheduler.setMode(mode, targetFPS);
+    }
+
+
+    public int GetRenderMode()
+    {
+        return renderScheduler.getMode();
     }
 
 
@@ -537,13 +1451,43 @@ public class CUnityJSPlugin {
     public static void RenderUpdateUnityJSPlugins()
     {
         //Log.d(TAG, "RenderUpdateUnityJSPlugins");
-        synchronized (pluginLock) {
+        GLErrorCheck.beginFrame();
+        GLResourceCache.beginFrame();
 
-            for (CUnityJSPlugin plugin : plugins.values()) {
-                plugin.RenderUpdate();
-            }
+        ExternalSurface retiredSurface;
+        while ((retiredSurface = plugins.pollRetired()) != null) {
+            retiredSurface.shutDown();
+        }
+
+        // Blit every plugin in the atlas in one pass, before they update.
+        TextureAtlas.update();
 
+        // A plugin destroyed during this loop still renders this tick.
+        CUnityJSPlugin[] snapshot = plugins.getSnapshot();
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i].RenderUpdate();
         }
+
+        // Unbind the program and vertex buffer the surfaces shared.
+        GLResourceCache.endFrame();
+    }
+
+
+    // Called by render event 3 before Unity samples the render textures
+    // from another context, to make the GPU wait for the latest blits.
+    // Only the plugins in RENDER_SYNC_FENCE mode have fences to wait on.
+    public static void WaitRenderFencesUnityJSPlugins()
+    {
+        //Log.d(TAG, "WaitRenderFencesUnityJSPlugins");
+        CUnityJSPlugin[] snapshot = plugins.getSnapshot();
+        for (int i = 0; i < snapshot.length; i++) {
+            ExternalSurface surface = snapshot[i].externalSurface;
+            if (surface != null) {
+                surface.waitFence();
+            }
+        }
+
+        TextureAtlas.waitFence();
     }
 
 
@@ -551,26 +1495,86 @@ public class CUnityJSPlugin {
     {
         //Log.d(TAG, "RenderUpdate: renderTextureHandle: " + renderTextureHandle + " renderTextureWidth: " + renderTextureWidth + " renderTextureHeight: " + renderTextureHeight + " this: " + this);
 
+        long startTime = System.nanoTime();
         RenderIntoTexture();
+        long renderedTime = System.nanoTime();
         UpdateExternalSurface();
+        long updatedTime = System.nanoTime();
+        stats.renderIntoTexture.add(renderedTime - startTime);
+        stats.update.add(updatedTime - renderedTime);
+
+        long statsInterval = statsIntervalNanos;
+        if ((statsInterval > 0) &&
+            (unityJSPlugin != null) &&
+            ((updatedTime - nextStatsTime) >= 0)) {
+            nextStatsTime = updatedTime + statsInterval;
+            unityJSPlugin.call("Stats", GetStats());
+        }
+
+        if (!commandQueue.isEmpty()) {
+            // Flush the commands once per frame.
+            uiHandler.removeCallbacks(flushCommandsRunnable);
+            uiHandler.post(flushCommandsRunnable);
+        }
+
+        if (resultQueue.needsDrain(updatedTime)) {
+            // Send the results that came back this frame, and any timeouts.
+            uiHandler.post(flushResultsRunnable);
+        }
+
+        if (messageQueue.isEmpty()) {
+            return;
+        }
+
+        switch (messageDelivery) {
+
+            case MESSAGE_DELIVERY_BATCHED:
+                // Flush the batch once per frame.
+                uiHandler.removeCallbacks(flushMessagesRunnable);
+                uiHandler.post(flushMessagesRunnable);
+                break;
+
+            case MESSAGE_DELIVERY_RENDER_TICK:
+                // Deliver straight from the render thread, without bouncing through the UI thread.
+                FlushMessages();
+                break;
+
+            default:
+                break;
+
+        }
     }
 
 
     public void RenderIntoTexture()
     {
-        if (!renderIntoTexture) {
+        if ((renderTextureWidth <= 0) ||
+            (renderTextureHeight <= 0)) {
+            // Not set up yet.
             return;
         }
 
-        renderIntoTexture = false;
+        // Don't queue up another draw while the UI thread is still busy with the last one.
+        if (renderDrawPending) {
+            return;
+        }
 
-        if (externalSurface == null) {
+        // Destroy can clear these on the UI thread while this runs.
+        CustomWebView view = webView;
+        ExternalSurface surface = externalSurface;
+
+        boolean dirty = (view != null) && view.isDirty();
+        if (!renderScheduler.shouldRender(System.nanoTime(), dirty)) {
+            return;
+        }
+
+        if (surface == null) {
             Log.e(TAG, "RenderIntoTexture: missing externalSurface");
             return;
         }
 
         //Log.d(TAG, "RenderIntoTexture: calling setupOutputTexture: renderTextureWidth: " + renderTextureWidth + " renderTextureHeight: " + renderTextureHeight);
-        renderTextureHandle = (long)externalSurface.setupOutputTexture(renderTextureWidth, renderTextureHeight);
+        renderTextureHandle = (long)surface.setupOutputTexture(renderTextureWidth, renderTextureHeight);
         //Log.d(TAG, "RenderIntoTexture: called setupOutputTexture: renderTextureHandle: " + renderTextureHandle);
         if (checkGlError("RenderIntoTexture: After setupOutputTexture")) {
             // Caught below.
@@ -584,46 +1588,157 @@ public class CUnityJSPlugin {
         }
 
         //Log.d(TAG, "RenderIntoTexture: calling runOnUiThread");
+        renderDrawPending = true;
         final Activity a = UnityPlayer.currentActivity;
-        a.runOnUiThread(new Runnable() {public void run() {
-            //Log.d(TAG, "RenderIntoTexture: runOnUiThread: starting webview draw on ui thread");
+        a.runOnUiThread(renderIntoTextureRunnable);
+        //Log.d(TAG, "RenderIntoTexture: called runOnUiThread");
 
-            if (unityJSPlugin == null) {
-                return;
-            }
+        //Log.d(TAG, "RenderIntoTexture: finished");
+    }
 
-            //Log.d(TAG, "RenderIntoTexture: runOnUiThread: lockCanvas: surface: " + externalSurface.surface + " this: " + this);
-            Canvas canvas = externalSurface.surface.lockCanvas(null);
-            //Log.d(TAG, "RenderIntoTexture: runOnUiThread: got canvas: " + canvas + ", now drawing" + " this: " + this);
 
-            try {
-                //Log.d(TAG, "RenderIntoTexture: runOnUiThread: drawing webView: " + webView + " pluginID: " + pluginID + " canvas: " + canvas + " this: " + this);
-                webView.draw(canvas);
-            } catch (Exception ex) {
-                //Log.e(TAG, "RenderIntoTexture: runOnUiThread: error during draw: " + ex + " this: " + this);
-                ex.printStackTrace();
+    // Draws the WebView into the external surface on the UI thread.
+    private void DrawIntoExternalSurface()
+    {
+        //Log.d(TAG, "RenderIntoTexture: runOnUiThread: starting webview draw on ui thread");
+
+        renderDrawPending = false;
+
+        // A render tick that raced with Destroy can post this after it.
+        if ((unityJSPlugin == null) ||
+            (webView == null) ||
+            (externalSurface == null)) {
+            return;
+        }
+
+        // After the surface is resized, redraw all of it at the new scale.
+        float scaleX = externalSurface.getSurfaceScaleX();
+        float scaleY = externalSurface.getSurfaceScaleY();
+        if ((scaleX != drawScaleX) ||
+            (scaleY != drawScaleY)) {
+            drawScaleX = scaleX;
+            drawScaleY = scaleY;
+            webView.markDirtyAll();
+        }
+
+        // Content like canvas animations doesn't always invalidate the
+        // view, so continuous mode redraws all of it every tick.
+        if (renderScheduler.getMode() == RENDER_MODE_CONTINUOUS) {
+            webView.markDirtyAll();
+        }
+
+        // Otherwise, only redraw what the WebView invalidated since the last time.
+        Rect dirty = renderDirtyRect;
+        if (!webView.takeDirtyRect(dirty, renderTextureWidth, renderTextureHeight)) {
+            //Log.d(TAG, "RenderIntoTexture: runOnUiThread: nothing dirty this: " + this);
+            return;
+        }
+
+        // A hardware canvas only helps if the WebView itself is hardware accelerated.
+        boolean hardware =
+            webView.hardwareCanvas &&
+            webView.isHardwareAccelerated();
+
+        // Small redraws say little about what a whole frame costs, so only
+        // the big ones are timed for dynamic resolution. A hardware draw
+        // only records the display list and rasterizes later on the GPU,
+        // so its time says nothing about the resolution.
+        boolean timed =
+            resolutionScaler.isEnabled() &&
+            !hardware &&
+            ((long)dirty.width() * dirty.height() * 2 >= (long)renderTextureWidth * renderTextureHeight);
+        long startTime = System.nanoTime();
+
+        // The surface may be smaller than the texture, so scale the dirty
+        // rect into it, rounding outwards.
+        boolean scaled = (scaleX != 1.0f) || (scaleY != 1.0f);
+        if (scaled) {
+            dirty.set(
+                (int)Math.floor(dirty.left * scaleX),
+                (int)Math.floor(dirty.top * scaleY),
+                (int)Math.ceil(dirty.right * scaleX),
+                (int)Math.ceil(dirty.bottom * scaleY));
+        }
+
+        //Log.d(TAG, "RenderIntoTexture: runOnUiThread: lockCanvas: surface: " + externalSurface.surface + " dirty: " + dirty + " hardware: " + hardware + " this: " + this);
+        Canvas canvas;
+        try {
+            canvas = externalSurface.lockCanvas(dirty, hardware);
+        } catch (Exception ex) {
+            // Try again from scratch next time, rather than take down the UI thread.
+            Log.e(TAG, "RenderIntoTexture: lockCanvas failed. ex: " + ex);
+            webView.markDirtyAll();
+            return;
+        }
+        //Log.d(TAG, "RenderIntoTexture: runOnUiThread: got canvas: " + canvas + ", now drawing" + " this: " + this);
+
+        if (scaled) {
+            canvas.scale(scaleX, scaleY);
+        }
+
+        webView.renderingIntoTexture = true;
+        try {
+            //Log.d(TAG, "RenderIntoTexture: runOnUiThread: drawing webView: " + webView + " pluginID: " + pluginID + " canvas: " + canvas + " this: " + this);
+            webView.draw(canvas);
+        } catch (Exception ex) {
+            //Log.e(TAG, "RenderIntoTexture: runOnUiThread: error during draw: " + ex + " this: " + this);
+            ex.printStackTrace();
+            if (canvas.isHardwareAccelerated()) {
+                Log.e(TAG, "RenderIntoTexture: hardware canvas draw failed, falling back to software. ex: " + ex);
+                FallBackToSoftwareCanvas();
+            }
+        } finally {
+            webView.renderingIntoTexture = false;
+        }
+        //Log.d(TAG, "RenderIntoTexture: runOnUiThread: drew, now unlocking canvas: " + canvas);
+
+        try {
+            externalSurface.unlockCanvasAndPost(canvas);
+        } catch (Exception ex) {
+            Log.e(TAG, "RenderIntoTexture: unlockCanvasAndPost failed. ex: " + ex);
+            if (hardware) {
+                FallBackToSoftwareCanvas();
             }
-            //Log.d(TAG, "RenderIntoTexture: runOnUiThread: drew, now unlocking canvas: " + canvas);
+            webView.markDirtyAll();
+            return;
+        }
+        //Log.d(TAG, "RenderIntoTexture: runOnUiThread: posted, now updating this: " + this);
 
-            externalSurface.surface.unlockCanvasAndPost(canvas);
-            //Log.d(TAG, "RenderIntoTexture: runOnUiThread: posted, now updating this: " + this);
+        long drawTime = System.nanoTime() - startTime;
+        stats.draw.add(drawTime);
 
-            //Log.d(TAG, "RenderIntoTexture: runOnUiThread: ending webview draw on ui thread");
-        }});
-        //Log.d(TAG, "RenderIntoTexture: called runOnUiThread");
+        if (timed &&
+            resolutionScaler.addSample(drawTime)) {
+            // Resized on the next render tick, then redrawn at the new scale.
+            //Log.d(TAG, "RenderIntoTexture: runOnUiThread: scale: " + resolutionScaler.getScale() + " this: " + this);
+            externalSurface.setSurfaceScale(resolutionScaler.getScale());
+            renderScheduler.request();
+        }
 
-        //Log.d(TAG, "RenderIntoTexture: finished");
+        //Log.d(TAG, "RenderIntoTexture: runOnUiThread: ending webview draw on ui thread");
+    }
+
+
+    // Uses the software path for good, and redraws everything with it.
+    // The next lockCanvas gives it a new Surface.
+    private void FallBackToSoftwareCanvas()
+    {
+        externalSurface.setHardwareCanvasFailed();
+        webView.hardwareCanvas = false;
+        webView.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
+        webView.markDirtyAll();
     }
 
 
     public void UpdateExternalSurface()
     {
-        if (externalSurface == null) {
+        ExternalSurface surface = externalSurface;
+        if (surface == null) {
             Log.e(TAG, "UpdateExternalSurface: externalSurface is null");
             return;
         }
 
-        boolean updated = externalSurface.update();
+        boolean updated = surface.update();
         //Log.d(TAG, "UpdateExternalSurface: updated: " + updated);
 
         if (checkGlError("UpdateExternalSurface: After update")) {
@@ -635,24 +1750,18 @@ public class CUnityJSPlugin {
             return;
         }
 
+        // With more than one output buffer, this moves to the one just finished.
+        renderTextureHandle = (long)surface.getOutputTextureHandle();
+
         //Log.d(TAG, "UpdateExternalSurface: surface updated so calling CallOnTexture");
         unityJSPlugin.call("CallOnTexture", "");
     }
 
 
+    // These check at the end of a phase, as often as GLErrorCheck's policy says.
     private static boolean checkGlError(String op)
     {
-        boolean gotError = false;
-        int error;
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-            if (!gotError) {
-                Log.e(TAG, "checkGlError: !!!!!!!!!!!!!!!! ERROR: " + op);
-            }
-            gotError = true;
-            Log.e(TAG, "checkGlError: error: " + error);
-        }
-
-        return gotError;
+        return GLErrorCheck.checkBoundary(TAG, op);
     }
 
 
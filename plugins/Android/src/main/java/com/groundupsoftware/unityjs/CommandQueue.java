@@ -0,0 +1,322 @@
+////////////////////////////////////////////////////////////////////////
+// CommandQueue.java
+// Per-plugin queue of Unity to WebView commands, coalesced and flushed once per frame.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.ArrayList;
+
+
+// Unity can issue dozens of commands per frame, and running each one with
+// its own runOnUiThread costs a Runnable and a UI thread wakeup, plus a
+// trip into V8 for every script. Queued instead, they are flushed
+// together on the UI thread once per frame:
+//
+//   - SetRect and SetVisibility are state, so only the last of each
+//     survives, and they are applied before the other commands.
+//   - Consecutive EvaluateJS scripts are joined into one batch, and
+//     evaluated with one evaluateJavascript. Each script is wrapped in
+//     its own try block, so one that throws is logged to the console
+//     and the ones after it still run.
+//   - Everything else runs in the order it was queued.
+//
+// So that joining doesn't change what a script means, every EvaluateJS
+// script is wrapped the same way, see wrapScript, whether it's joined,
+// flushed alone, or run without the queue. That makes top level let,
+// const and class declarations local to their script, always, so
+// scripts that share globals have to use var or window.
+//
+// A script that doesn't parse makes the whole batch fail to parse, so
+// none of it runs. The batch ends by returning BATCH_RESULT, and when
+// the target sees any other result it evaluates the scripts again one
+// by one, so only the broken ones are lost. Those run after the
+// commands flushed behind them.
+//
+// Command objects are recycled, so a steady stream of commands doesn't
+// allocate anything but the scripts it evaluates.
+//
+// Any thread can push, and one thread (the UI thread) flushes. The lock
+// is only held to swap the pending commands out, never while they run.
+
+class CommandQueue {
+
+    public static final int LOAD_URL = 0;
+    public static final int EVALUATE_JS = 1;
+    public static final int EVALUATE_JS_RETURN_RESULT = 2;
+    public static final int GO_BACK = 3;
+    public static final int GO_FORWARD = 4;
+    public static final int EVALUATE_JS_REQUEST = 5;
+
+    // Latency names of the commands, by type.
+    private static final String[] NAMES = {
+        "LoadURL",
+        "EvaluateJS",
+        "EvaluateJSReturnResult",
+        "GoBack",
+        "GoForward",
+        "EvaluateJSRequest",
+    };
+
+    // Wrapped around every EvaluateJS script. The newlines end a trailing
+    // line comment, and the semicolon any statement left unterminated.
+    private static final String SCRIPT_BEGIN = "try {\n";
+    private static final String SCRIPT_END = "\n;} catch (e) { console.error(e); }\n";
+
+    // The last statement of a batch, and the result evaluateJavascript
+    // reports for it, if the batch parsed.
+    private static final String BATCH_END = "'UnityJSBatch';";
+    public static final String BATCH_RESULT = "\"UnityJSBatch\"";
+
+    // Wraps a script the way it would be in a batch, for a Target to
+    // evaluate one by itself.
+    public static String wrapScript(String js)
+    {
+        return SCRIPT_BEGIN + js + SCRIPT_END;
+    }
+
+
+    // How soon a flush runs if no frame is rendered to flush it sooner.
+    public static final int FALLBACK_DELAY_MS = 16;
+
+
+    // Runs the flushed commands, on the flushing thread. evaluateJS gets
+    // scripts as Unity sent them, to wrap with wrapScript, and
+    // evaluateJSBatch gets them already wrapped and joined.
+    interface Target {
+        void setRect(int width, int height);
+        void setVisibility(boolean visibility);
+        void loadURL(String url);
+        void evaluateJS(String js);
+        void evaluateJSBatch(String batch, String[] scripts);
+        void evaluateJSReturnResult(String js, long queuedTime);
+        void evaluateJSRequest(int requestID, String js, long queuedTime);
+        void goBack();
+        void goForward();
+    }
+
+
+    private static final class Command {
+        int type;
+        String argument;
+        int requestID;
+        long queuedTime;
+    }
+
+
+    private final Object lock = new Object();
+
+    // Guarded by lock.
+    private ArrayList<Command> pending = new ArrayList<Command>();
+    private final ArrayList<Command> free = new ArrayList<Command>();
+    private boolean rectPending;
+    private int rectWidth;
+    private int rectHeight;
+    private long rectQueuedTime;
+    private boolean visibilityPending;
+    private boolean visibility;
+    private long visibilityQueuedTime;
+
+    // Only touched by the flushing thread.
+    private ArrayList<Command> flushing = new ArrayList<Command>();
+    private final StringBuilder batch = new StringBuilder(1024);
+    private final ArrayList<String> batchScripts = new ArrayList<String>();
+
+
+    // Returns true if this is the first command since the last flush, so
+    // the caller should make sure a flush is coming.
+    public boolean push(int type, String argument, long nowNanos)
+    {
+        return push(type, argument, 0, nowNanos);
+    }
+
+
+    public boolean push(int type, String argument, int requestID, long nowNanos)
+    {
+        synchronized (lock) {
+            boolean started = isEmptyLocked();
+
+            int n = free.size();
+            Command command = (n > 0) ? free.remove(n - 1) : new Command();
+            command.type = type;
+            command.argument = argument;
+            command.requestID = requestID;
+            command.queuedTime = nowNanos;
+            pending.add(command);
+
+            return started;
+        }
+    }
+
+
+    public boolean setRect(int width, int height, long nowNanos)
+    {
+        synchronized (lock) {
+            boolean started = isEmptyLocked();
+
+            if (!rectPending) {
+                rectQueuedTime = nowNanos;
+            }
+            rectPending = true;
+            rectWidth = width;
+            rectHeight = height;
+
+            return started;
+        }
+    }
+
+
+    public boolean setVisibility(boolean visibility_, long nowNanos)
+    {
+        synchronized (lock) {
+            boolean started = isEmptyLocked();
+
+            if (!visibilityPending) {
+                visibilityQueuedTime = nowNanos;
+            }
+            visibilityPending = true;
+            visibility = visibility_;
+
+            return started;
+        }
+    }
+
+
+    public boolean isEmpty()
+    {
+        synchronized (lock) {
+            return isEmptyLocked();
+        }
+    }
+
+
+    private boolean isEmptyLocked()
+    {
+        return pending.isEmpty() && !rectPending && !visibilityPending;
+    }
+
+
+    // Runs everything queued so far on target, and returns the number of
+    // commands it took. recorder, if not null, is told how long each
+    // command waited, with superseded SetRects and SetVisibilitys counted
+    // from the first one.
+    public int flush(Target target, MessageQueue.LatencyRecorder recorder)
+    {
+        boolean flushRect;
+        int width;
+        int height;
+        long rectTime;
+        boolean flushVisibility;
+        boolean visible;
+        long visibilityTime;
+
+        synchronized (lock) {
+            ArrayList<Command> swap = flushing;
+            flushing = pending;
+            pending = swap;
+
+            flushRect = rectPending;
+            width = rectWidth;
+            height = rectHeight;
+            rectTime = rectQueuedTime;
+            rectPending = false;
+
+            flushVisibility = visibilityPending;
+            visible = visibility;
+            visibilityTime = visibilityQueuedTime;
+            visibilityPending = false;
+        }
+
+        long now = System.nanoTime();
+        int flushed = 0;
+
+        if (flushRect) {
+            if (recorder != null) {
+                recorder.record("SetRect", now - rectTime);
+            }
+            target.setRect(width, height);
+            flushed++;
+        }
+
+        if (flushVisibility) {
+            if (recorder != null) {
+                recorder.record("SetVisibility", now - visibilityTime);
+            }
+            target.setVisibility(visible);
+            flushed++;
+        }
+
+        int count = flushing.size();
+        for (int i = 0; i < count; i++) {
+            Command command = flushing.get(i);
+            if (recorder != null) {
+                recorder.record(NAMES[command.type], now - command.queuedTime);
+            }
+            flushed++;
+
+            switch (command.type) {
+
+                case LOAD_URL:
+                    target.loadURL(command.argument);
+                    break;
+
+                case EVALUATE_JS: {
+                    boolean joinNext =
+                        (i + 1 < count) &&
+                        (flushing.get(i + 1).type == EVALUATE_JS);
+                    if (!joinNext && batchScripts.isEmpty()) {
+                        // Just one, so no need for a batch.
+                        target.evaluateJS(command.argument);
+                        break;
+                    }
+                    batch.append(SCRIPT_BEGIN).append(command.argument).append(SCRIPT_END);
+                    batchScripts.add(command.argument);
+                    if (!joinNext) {
+                        batch.append(BATCH_END);
+                        target.evaluateJSBatch(
+                            batch.toString(),
+                            batchScripts.toArray(new String[batchScripts.size()]));
+                        batch.setLength(0);
+                        batchScripts.clear();
+                    }
+                    break;
+                }
+
+                case EVALUATE_JS_RETURN_RESULT:
+                    target.evaluateJSReturnResult(command.argument, command.queuedTime);
+                    break;
+
+                case EVALUATE_JS_REQUEST:
+                    target.evaluateJSRequest(command.requestID, command.argument, command.queuedTime);
+                    break;
+
+                case GO_BACK:
+                    target.goBack();
+                    break;
+
+                case GO_FORWARD:
+                    target.goForward();
+                    break;
+
+                default:
+                    break;
+
+            }
+        }
+
+        synchronized (lock) {
+            for (int i = 0; i < count; i++) {
+                Command command = flushing.get(i);
+                command.argument = null;
+                free.add(command);
+            }
+        }
+        flushing.clear();
+
+        return flushed;
+    }
+
+
+}
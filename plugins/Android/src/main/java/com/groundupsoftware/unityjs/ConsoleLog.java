@@ -0,0 +1,225 @@
+////////////////////////////////////////////////////////////////////////
+// ConsoleLog.java
+// Filters, rate limits and captures the page's console messages.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+// A chatty script can log hundreds of lines a second, and sending each
+// one to Unity as CallOnConsoleMessage crowds out the real traffic on
+// the bridge. Each console message goes through add, which decides what
+// happens to it:
+//
+//   - Messages below the minimum level, or whose source doesn't contain
+//     the source filter, are dropped entirely.
+//   - The rest are kept in a ring buffer of the last capacity messages,
+//     if capture is on, for Unity to fetch with toJSON when it wants them.
+//   - If forwarding is on, they are also sent to Unity live, up to
+//     maxPerSecond of them per one second window. The ones over the limit
+//     are counted, and the count is sent as one summary line, ahead of the
+//     next message forwarded, or SUMMARY_DELAY_MS after the first one was
+//     suppressed, whichever comes first.
+//
+// By default everything is forwarded, and nothing is captured.
+
+class ConsoleLog {
+
+    public static final int LEVEL_DEBUG = 0;
+    public static final int LEVEL_LOG = 1;
+    public static final int LEVEL_WARNING = 2;
+    public static final int LEVEL_ERROR = 3;
+
+    private static final String[] LEVEL_NAMES = {
+        "debug",
+        "log",
+        "warning",
+        "error",
+    };
+
+    // What add says to do with a message.
+    public static final int FORWARD = 0;
+    public static final int DROP = 1;
+    public static final int SUPPRESSED = 2;
+    public static final int SUPPRESSED_FIRST = 3; // The first since the last summary, so schedule one.
+
+    private static final long WINDOW_NANOS = 1000000000L;
+    public static final int SUMMARY_DELAY_MS = 1000;
+
+
+    // Guarded by this.
+    private int minLevel = LEVEL_DEBUG;
+    private String sourceFilter;
+    private int maxPerSecond;
+    private boolean forward = true;
+    private long windowStart;
+    private int windowCount;
+    private int suppressed;
+
+    // The ring buffer, oldest at head.
+    private int[] levels = new int[0];
+    private String[] messages = new String[0];
+    private String[] sources = new String[0];
+    private int[] lines = new int[0];
+    private int head;
+    private int size;
+    private long overwritten;
+
+
+    // maxPerSecond 0 means no limit, and an empty or null sourceFilter
+    // matches everything.
+    public synchronized void configure(int minLevel_, String sourceFilter_, int maxPerSecond_, boolean forward_)
+    {
+        minLevel = minLevel_;
+        sourceFilter = ((sourceFilter_ == null) || sourceFilter_.isEmpty()) ? null : sourceFilter_;
+        maxPerSecond = Math.max(0, maxPerSecond_);
+        forward = forward_;
+        windowCount = 0;
+    }
+
+
+    // Resizes the ring buffer, which empties it. 0 turns capture off.
+    public synchronized void setCapacity(int capacity)
+    {
+        capacity = Math.max(0, capacity);
+        levels = new int[capacity];
+        messages = new String[capacity];
+        sources = new String[capacity];
+        lines = new int[capacity];
+        head = 0;
+        size = 0;
+        overwritten = 0;
+    }
+
+
+    public synchronized int add(int level, String message, String sourceID, int line, long nowNanos)
+    {
+        if ((level < minLevel) ||
+            ((sourceFilter != null) &&
+             ((sourceID == null) || !sourceID.contains(sourceFilter)))) {
+            return DROP;
+        }
+
+        int capacity = messages.length;
+        if (capacity > 0) {
+            int index = (head + size) % capacity;
+            if (size == capacity) {
+                head = (head + 1) % capacity;
+                overwritten++;
+            } else {
+                size++;
+            }
+            levels[index] = level;
+            messages[index] = message;
+            sources[index] = sourceID;
+            lines[index] = line;
+        }
+
+        if (!forward) {
+            return DROP;
+        }
+
+        if (maxPerSecond > 0) {
+            if ((windowCount == 0) ||
+                ((nowNanos - windowStart) >= WINDOW_NANOS)) {
+                windowStart = nowNanos;
+                windowCount = 0;
+            }
+            if (windowCount >= maxPerSecond) {
+                suppressed++;
+                return (suppressed == 1) ? SUPPRESSED_FIRST : SUPPRESSED;
+            }
+            windowCount++;
+        }
+
+        return FORWARD;
+    }
+
+
+    // Returns the line summarizing the messages suppressed since the last
+    // summary, and starts counting again, or returns null if there weren't
+    // any.
+    public synchronized String takeSummary()
+    {
+        if (suppressed == 0) {
+            return null;
+        }
+
+        String summary = "UnityJS: " + suppressed + " console messages suppressed";
+        suppressed = 0;
+
+        return summary;
+    }
+
+
+    // Returns the captured messages, oldest first, and removes them if
+    // clear is true. overwritten is how many were pushed out of the ring
+    // buffer before they were read.
+    public synchronized String toJSON(String pluginID, boolean clear)
+    {
+        StringBuilder json = new StringBuilder(256 + (size * 64));
+
+        json.append("{\"pluginID\":\"").append(pluginID).append('"')
+            .append(",\"overwritten\":").append(overwritten)
+            .append(",\"messages\":[");
+
+        int capacity = messages.length;
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % capacity;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"level\":\"").append(LEVEL_NAMES[levels[index]]).append('"')
+                .append(",\"source\":");
+            appendJSONString(json, sources[index]);
+            json.append(",\"line\":").append(lines[index])
+                .append(",\"message\":");
+            appendJSONString(json, messages[index]);
+            json.append('}');
+        }
+
+        json.append("]}");
+
+        if (clear) {
+            for (int i = 0; i < capacity; i++) {
+                messages[i] = null;
+                sources[i] = null;
+            }
+            head = 0;
+            size = 0;
+            overwritten = 0;
+        }
+
+        return json.toString();
+    }
+
+
+    // Also used by PluginStats, for the names pages give their messages.
+    static void appendJSONString(StringBuilder json, String s)
+    {
+        if (s == null) {
+            json.append("null");
+            return;
+        }
+
+        json.append('"');
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                json.append('\\').append(c);
+            } else if (c == '\n') {
+                json.append("\\n");
+            } else if ((c < 0x20) || (c == 0x2028) || (c == 0x2029)) {
+                // Control characters, and the line separators JS strings can't hold.
+                json.append(String.format("\\u%04x", (int)c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+
+}
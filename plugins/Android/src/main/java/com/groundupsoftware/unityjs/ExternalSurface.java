@@ -5,15 +5,17 @@
 package com.groundupsoftware.unityjs;
 
 
-import java.nio.ByteOrder;
-import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
-import java.nio.FloatBuffer;
 import java.util.Random;
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
+import android.os.Build;
 import android.util.Log;
 import android.view.Surface;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLES11Ext;
 import android.opengl.GLUtils;
 import android.opengl.Matrix;
@@ -24,13 +26,48 @@ class ExternalSurface
 
     private static String TAG = "ExternalSurface";
 
+    // update blits into a ring of up to this many output textures, so it
+    // never writes the texture Unity is sampling.
+    public static final int MAX_OUTPUT_BUFFERS = 3;
+
+    // How update makes the blit visible to whoever samples the output
+    // texture. Unity samples it on the context the blit ran on, where
+    // commands already run in order, so the default is SYNC_FLUSH, and
+    // fences are only made for a consumer on another context.
+    public static final int SYNC_FINISH = 0; // glFinish, stalling until the GPU is done.
+    public static final int SYNC_FENCE = 1;  // glFlush and a GLES 3 fence the consumer can wait on, or just glFlush without GLES 3.
+    public static final int SYNC_FLUSH = 2;  // Just glFlush. Enough when the consumer uses the same context.
+
+    // Debug logging is compiled out of the per-frame path unless this is lowered to Log.DEBUG.
+    static final int LOG_LEVEL = Log.INFO;
+
     public SurfaceTexture surfaceTexture;
     public Surface surface;
     private int externalTextureHandle;
-    private int outputTextureHandle;
-    private int framebufferHandle;
+    private final int[] outputTextureHandles = new int[MAX_OUTPUT_BUFFERS];
+    private final int[] framebufferHandles = new int[MAX_OUTPUT_BUFFERS];
+    private final OutputBufferPool.Entry[] pooledBuffers = new OutputBufferPool.Entry[MAX_OUTPUT_BUFFERS];
+    private volatile int outputBufferCount = 1;
+    private volatile boolean pooled;
+    private int allocatedBufferCount;
+    private boolean allocatedPooled;
+    private int allocatedWidth;
+    private int allocatedHeight;
+    private int writeSlot;
+    private int completedSlot = -1;
     private int framebufferWidth;
     private int framebufferHeight;
+
+    // The SurfaceTexture's buffers can be smaller than the framebuffer, in
+    // which case the blit scales them up, and damage is in the surface's
+    // coordinates until clipToDamage scales it to the framebuffer's.
+    private volatile float requestedSurfaceScale = 1.0f;
+    private int surfaceWidth;
+    private int surfaceHeight;
+    private volatile float surfaceScaleX = 1.0f;
+    private volatile float surfaceScaleY = 1.0f;
+    private GLResourceCache.Buffer vertexBuffer;
+    private GLResourceCache.Program program;
     private int vertexBufferHandle;
     private int programHandle;
     private int uMatrixHandle;
@@ -41,14 +78,68 @@ class ExternalSurface
     private boolean initialized;
     private boolean broken;
     private boolean frameAvailable;
+    private boolean hasFrame;
     private Random random = new Random();
 
+    // Damage drawn into the surface since the last update, in surface
+    // coordinates with the origin at the top left. Guarded by this.
+    private final Rect pendingDamage = new Rect();
+    private boolean pendingDamageAll = true;
+
+    // Damage is added before a frame is posted, so update can take it one
+    // frame before it latches that frame. Blitting the last update's damage
+    // again covers that.
+    private final Rect damage = new Rect();
+    private final Rect lastDamage = new Rect();
+    private boolean lastDamageAll = true;
+    private final Rect scissor = new Rect();
+    private boolean frameDamageAll;
+
+    // Damage each output texture has missed since it was last written.
+    private final Rect[] slotDamage = { new Rect(), new Rect(), new Rect() };
+    private final boolean[] slotDamageAll = { true, true, true };
+
+    // Scratch space for the per-frame path, which must not allocate.
+    private final int[] lastExternalTextureHandles = new int[1];
+    private final int[] drawFrameExternalTextureHandles = new int[1];
+
+    private volatile int syncMode = SYNC_FLUSH;
+    private long fence;
+    private static int fenceSupport; // 0 unknown, 1 supported, -1 unsupported.
+
+    // Set when a hardware canvas failed, so the software canvas is used from then on.
+    private volatile boolean hardwareCanvasFailed;
+
+    // The kind of canvas surface was last locked with. Once a Surface has
+    // locked a hardware canvas it belongs to HWUI, and posting a software
+    // canvas through it throws, so switching kinds needs a new Surface.
+    // Only touched on the UI thread.
+    private static final int CANVAS_NONE = 0;
+    private static final int CANVAS_SOFTWARE = 1;
+    private static final int CANVAS_HARDWARE = 2;
+    private int surfaceCanvas = CANVAS_NONE;
+
+    // The owning plugin's counters, or null.
+    PluginStats stats;
+
+    // Membership in the TextureAtlas. The rest are managed by TextureAtlas
+    // on the render thread.
+    private volatile boolean atlasRequested;
+    private boolean inAtlas;
+    boolean atlasPlaced;   // Has a rectangle in the atlas texture.
+    boolean atlasBlitAll;  // Moved, so blit all of it again.
+    boolean atlasUpdated;  // Blitted since the last update.
+    int atlasX;            // Lower left corner of the rectangle.
+    int atlasY;
+
     private static final int FLOAT_SIZE_BYTES = 4;
     private static final int VERTICES_DATA_STRIDE_BYTES =      5 * FLOAT_SIZE_BYTES;
     private static final int VERTICES_DATA_POS_OFFSET_BYTES =  0 * FLOAT_SIZE_BYTES;
     private static final int VERTICES_DATA_UV_OFFSET_BYTES =   3 * FLOAT_SIZE_BYTES;
 
-    private final float[] verticesData = {
+    // Shared with every other ExternalSurface through GLResourceCache.
+    private static final String VERTICES_KEY = "ExternalSurface.vertices";
+    private static final float[] verticesData = {
         // X, Y, Z, U, V
         -1f, -1f, 0f, 0f, 0f,
          1f, -1f, 0f, 1f, 0f,
@@ -56,8 +147,6 @@ class ExternalSurface
          1f,  1f, 0f, 1f, 1f,
     };
 
-    private FloatBuffer vertices;
-
     private static final String VERTEX_SHADER =
         "uniform mat4 uMatrix;\n" +
         "attribute vec4 aPosition;\n" +
@@ -97,7 +186,6 @@ class ExternalSurface
         GLES20.glDisable(GLES20.GL_POLYGON_OFFSET_FILL);
         GLES20.glPolygonOffset(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
         GLES20.glDepthMask(false);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
         GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
 
         if (initialized) {
@@ -124,26 +212,38 @@ class ExternalSurface
         externalTextureHandle = textures[0];
         //Log.d(TAG, "initialize: generated texture externalTextureHandle: " + externalTextureHandle);
 
-        Log.d(TAG, "initialize: saving last texture lastExternalTextureHandles");
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "initialize: saving last texture lastExternalTextureHandles");
+        }
         int[] lastExternalTextureHandles = new int[1];
         GLES20.glGetIntegerv(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, lastExternalTextureHandles, 0);
         if (checkGlError("glBindTexture glGetIntegerv GL_TEXTURE_EXTERNAL_OES")) {
-            Log.d(TAG, "initialize: glGetIntegerv GL_TEXTURE_EXTERNAL_OES failed");
+            if (LOG_LEVEL <= Log.DEBUG) {
+                Log.d(TAG, "initialize: glGetIntegerv GL_TEXTURE_EXTERNAL_OES failed");
+            }
             //broken = true;
             //return;
         }
-        Log.d(TAG, "initialize: saved last texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "initialize: saved last texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
+        }
 
-        Log.d(TAG, "initialize: binding texture externalTextureHandle " + externalTextureHandle);
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "initialize: binding texture externalTextureHandle " + externalTextureHandle);
+        }
         GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, externalTextureHandle);
         if (checkGlError("glBindTexture externalTextureHandle")) {
             //Log.d(TAG, "initialize: glBindTexture failed");
             broken = true;
             return;
         }
-        Log.d(TAG, "initialize: bound texture externalTextureHandle " + externalTextureHandle);
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "initialize: bound texture externalTextureHandle " + externalTextureHandle);
+        }
 
-        Log.d(TAG, "initialize: calling glTexParameterf");
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "initialize: calling glTexParameterf");
+        }
         GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
         GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
@@ -153,16 +253,22 @@ class ExternalSurface
             broken = true;
             return;
         }
-        Log.d(TAG, "initialize: called glTexParameterf");
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "initialize: called glTexParameterf");
+        }
 
-        Log.d(TAG, "initialize: restoring binding texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "initialize: restoring binding texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
+        }
         GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, lastExternalTextureHandles[0]);
         if (checkGlError("glBindTexture lastExternalTextureHandles")) {
             //Log.d(TAG, "initialize: glBindTexture lastExternalTextureHandles failed");
             //broken = true;
             //return;
         }
-        Log.d(TAG, "initialize: restoring bound texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "initialize: restoring bound texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
+        }
 
         //Log.d(TAG, "initialize: creating new SurfaceTexture with externalTextureHandle: " + externalTextureHandle);
         surfaceTexture = new SurfaceTexture(externalTextureHandle);
@@ -173,51 +279,23 @@ class ExternalSurface
         surface = new Surface(surfaceTexture);
         //Log.d(TAG, "initialize: created surface: " + surface);
 
-        //Log.d(TAG, "initialize: creating vertex buffer");
-        int[] vbhandles = new int[1];
-        //Log.d(TAG, "initialize: glGenBuffers");
-        GLES20.glGenBuffers(1, vbhandles, 0);
-        vertexBufferHandle = vbhandles[0];
-        if (checkGlError("glGenBuffers")) {
-            broken = true;
-            return;
-        }
-
-        //Log.d(TAG, "initialize: glBindBuffer GL_ARRAY_BUFFER vertexBufferHandle: " + vertexBufferHandle);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferHandle);
-        if (checkGlError("glBindBuffer vertexBufferHandle: " + vertexBufferHandle)) {
-            broken = true;
-            return;
-        }
-
-        int bufferSize = verticesData.length * FLOAT_SIZE_BYTES;
-        //Log.d(TAG, "initialize: creating vertices verticesData.length: " + verticesData.length + " bufferSize: " + bufferSize);
-        vertices = ByteBuffer.allocateDirect(bufferSize)
-            .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        vertices.put(verticesData).position(0);
-
-        //Log.d(TAG, "initialize: glBufferData bufferSize: " + bufferSize);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, bufferSize, vertices, GLES20.GL_STATIC_DRAW);
-        if (checkGlError("glBufferData")) {
+        //Log.d(TAG, "initialize: acquiring vertex buffer");
+        vertexBuffer = GLResourceCache.acquireVertexBuffer(VERTICES_KEY, verticesData);
+        if (vertexBuffer == null) {
             broken = true;
             return;
         }
+        vertexBufferHandle = vertexBuffer.handle;
 
-        //Log.d(TAG, "initialize: glBindBuffer GL_ARRAY_BUFFER 0");
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        if (checkGlError("glBindBuffer 0")) {
-            broken = true;
-            return;
-        }
-
-        //Log.d(TAG, "initialize: creating program");
-        programHandle = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
-        //Log.d(TAG, "initialize: created program programHandle: " + programHandle);
-        if (programHandle == 0) {
+        //Log.d(TAG, "initialize: acquiring program");
+        program = GLResourceCache.acquireProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        if (program == null) {
             //Log.d(TAG, "initialize: error creating program");
             broken = true;
             return;
         }
+        programHandle = program.handle;
+        //Log.d(TAG, "initialize: acquired program programHandle: " + programHandle);
 
         //Log.d(TAG, "initialize: glGetUniformLocation uMatrix");
         uMatrixHandle = GLES20.glGetUniformLocation(programHandle, "uMatrix");
@@ -249,6 +327,11 @@ class ExternalSurface
         }
         //Log.d(TAG, "initialize: still aTextureHandle: " + aTextureHandle);
 
+        if (GLErrorCheck.checkBoundary(TAG, "initialize")) {
+            broken = true;
+            return;
+        }
+
     }
 
 
@@ -262,139 +345,417 @@ class ExternalSurface
             return 0;
         }
 
+        boolean useAtlas = atlasRequested;
+        if (useAtlas != inAtlas) {
+            inAtlas = useAtlas;
+            if (useAtlas) {
+                for (int slot = 0; slot < MAX_OUTPUT_BUFFERS; slot++) {
+                    releaseOutputBuffer(slot);
+                }
+                allocatedBufferCount = 0;
+                framebufferWidth = 0;
+                framebufferHeight = 0;
+                deleteFence();
+                TextureAtlas.add(this);
+            } else {
+                TextureAtlas.remove(this);
+                allocatedBufferCount = 0;
+            }
+        }
+
+        if (inAtlas) {
+            return setupAtlasTexture(width, height);
+        }
+
+        int bufferCount = outputBufferCount;
+        boolean usePool = pooled;
+
         boolean resize =
-            (framebufferHandle == 0) ||
-            (outputTextureHandle == 0) ||
+            (bufferCount != allocatedBufferCount) ||
+            (usePool != allocatedPooled) ||
             (framebufferWidth != width) ||
-            (framebufferWidth != height);
+            (framebufferHeight != height);
 
         if (!resize) {
-            return outputTextureHandle;
+            applySurfaceSize();
+            return getOutputTextureHandle();
         }
 
-        //Log.d(TAG, "setupOutputTexture: resizing to width: " + width + " height: " + height);
+        //Log.d(TAG, "setupOutputTexture: resizing to width: " + width + " height: " + height + " bufferCount: " + bufferCount);
         framebufferWidth = width;
         framebufferHeight = height;
 
-        if (outputTextureHandle == 0) {
+        // The new textures are undefined, so the next update has to fill all of them.
+        addDamage(null);
+
+        for (int slot = bufferCount; slot < MAX_OUTPUT_BUFFERS; slot++) {
+            releaseOutputBuffer(slot);
+        }
+
+        for (int slot = 0; slot < bufferCount; slot++) {
+            boolean ok =
+                usePool
+                    ? setupPooledOutputBuffer(slot)
+                    : setupOutputBuffer(slot);
+            if (!ok) {
+                return 0;
+            }
+            slotDamage[slot].setEmpty();
+            slotDamageAll[slot] = true;
+        }
+
+        allocatedBufferCount = bufferCount;
+        allocatedPooled = usePool;
+        allocatedWidth = usePool ? OutputBufferPool.bucketSize(width) : width;
+        allocatedHeight = usePool ? OutputBufferPool.bucketSize(height) : height;
+        writeSlot = 0;
+        completedSlot = -1;
+
+        applySurfaceSize();
+
+        if (GLErrorCheck.checkBoundary(TAG, "setupOutputTexture")) {
+            broken = true;
+            return 0;
+        }
+
+        return getOutputTextureHandle();
+    }
+
+
+    // Blits into a rectangle of the shared TextureAtlas instead of output
+    // textures of its own, with one framebuffer pass for all members.
+    // Can be called from any thread, and takes effect on the next setupOutputTexture.
+    public void setAtlas(boolean atlas)
+    {
+        atlasRequested = atlas;
+    }
+
+
+    public boolean isInAtlas()
+    {
+        return inAtlas;
+    }
+
+
+    private int setupAtlasTexture(int width, int height)
+    {
+        if ((framebufferWidth != width) ||
+            (framebufferHeight != height)) {
+            //Log.d(TAG, "setupAtlasTexture: resizing to width: " + width + " height: " + height);
+            framebufferWidth = width;
+            framebufferHeight = height;
+            addDamage(null);
+            TextureAtlas.invalidate();
+        }
+
+        applySurfaceSize();
+
+        TextureAtlas.layout();
+
+        return atlasPlaced ? TextureAtlas.getTextureHandle() : 0;
+    }
+
+
+    // Draws the WebView at this fraction of the output size, and scales it
+    // up in the blit. Can be called from any thread, and takes effect on
+    // the next setupOutputTexture.
+    public void setSurfaceScale(float scale)
+    {
+        requestedSurfaceScale = Math.max(0.0f, Math.min(1.0f, scale));
+    }
+
+
+    // What to scale the canvas by when drawing the output sized WebView
+    // into the surface. Set on the render thread before it posts a draw.
+    public float getSurfaceScaleX()
+    {
+        return surfaceScaleX;
+    }
+
+
+    public float getSurfaceScaleY()
+    {
+        return surfaceScaleY;
+    }
+
+
+    // Sizes the SurfaceTexture's buffers to the output size times the
+    // requested scale. The next frame is drawn at the new size, so all of
+    // it is damaged.
+    private void applySurfaceSize()
+    {
+        float scale = requestedSurfaceScale;
+        int width = Math.max(1, Math.round(framebufferWidth * scale));
+        int height = Math.max(1, Math.round(framebufferHeight * scale));
+
+        // The output size can change without the surface size changing.
+        surfaceScaleX = (float)width / framebufferWidth;
+        surfaceScaleY = (float)height / framebufferHeight;
+
+        if ((width == surfaceWidth) &&
+            (height == surfaceHeight)) {
+            return;
+        }
+
+        //Log.d(TAG, "applySurfaceSize: scale: " + scale + " width: " + width + " height: " + height);
+        surfaceWidth = width;
+        surfaceHeight = height;
+        surfaceTexture.setDefaultBufferSize(surfaceWidth, surfaceHeight);
+        addDamage(null);
+    }
+
+
+    public int getFramebufferWidth()
+    {
+        return framebufferWidth;
+    }
+
+
+    public int getFramebufferHeight()
+    {
+        return framebufferHeight;
+    }
+
+
+    // Where the WebView is in the atlas texture, or 0, 0 when not in one.
+    public int getAtlasX()
+    {
+        return inAtlas ? atlasX : 0;
+    }
+
+
+    public int getAtlasY()
+    {
+        return inAtlas ? atlasY : 0;
+    }
+
+
+    // Sets the number of output textures, from 1 to MAX_OUTPUT_BUFFERS.
+    // Can be called from any thread, and takes effect on the next setupOutputTexture.
+    public void setOutputBufferCount(int count)
+    {
+        outputBufferCount = Math.max(1, Math.min(MAX_OUTPUT_BUFFERS, count));
+    }
+
+
+    // When pooled, output textures come from OutputBufferPool, so they are
+    // bigger than the requested size, and only resized when the size moves
+    // to another power of two bucket. Takes effect on the next setupOutputTexture.
+    public void setPooled(boolean pooled_)
+    {
+        pooled = pooled_;
+    }
+
+
+    // The size the output textures were actually allocated at. The WebView
+    // is in the lower left framebufferWidth by framebufferHeight of them.
+    public int getAllocatedWidth()
+    {
+        return inAtlas ? TextureAtlas.getWidth() : allocatedWidth;
+    }
+
+
+    public int getAllocatedHeight()
+    {
+        return inAtlas ? TextureAtlas.getHeight() : allocatedHeight;
+    }
+
+
+    // The texture Unity should sample: the one update most recently
+    // finished, or the first one before it has finished any.
+    public int getOutputTextureHandle()
+    {
+        if (inAtlas) {
+            return atlasPlaced ? TextureAtlas.getTextureHandle() : 0;
+        }
+
+        return outputTextureHandles[(completedSlot >= 0) ? completedSlot : 0];
+    }
+
 
-            //Log.d(TAG, "setupOutputTexture: generating texture handle outputTextureHandle");
+    // Takes a buffer for one slot from the pool, keeping the one it has if
+    // the current size is still in the same bucket.
+    private boolean setupPooledOutputBuffer(int slot)
+    {
+        OutputBufferPool.Entry entry = pooledBuffers[slot];
+        if ((entry != null) &&
+            OutputBufferPool.fits(entry, framebufferWidth, framebufferHeight)) {
+            return true;
+        }
+
+        releaseOutputBuffer(slot);
+
+        entry = OutputBufferPool.acquire(framebufferWidth, framebufferHeight);
+        if (entry == null) {
+            broken = true;
+            return false;
+        }
+
+        pooledBuffers[slot] = entry;
+        outputTextureHandles[slot] = entry.textureHandle;
+        framebufferHandles[slot] = entry.framebufferHandle;
+
+        return true;
+    }
+
+
+    // (Re)allocates the texture and framebuffer of one slot at the current size.
+    private boolean setupOutputBuffer(int slot)
+    {
+        if (pooledBuffers[slot] != null) {
+            releaseOutputBuffer(slot);
+        }
+
+        if (outputTextureHandles[slot] == 0) {
+
+            //Log.d(TAG, "setupOutputBuffer: generating texture handle outputTextureHandles[slot]");
             int[] handles = {0};
             GLES20.glGenTextures(1, handles, 0);
             if (checkGlError("glGenTextures")) {
                 broken = true;
-                return 0;
+                return false;
             }
-            outputTextureHandle = handles[0];
-            //Log.d(TAG, "setupOutputTexture: generated outputTextureHandle: " + outputTextureHandle);
+            outputTextureHandles[slot] = handles[0];
+            //Log.d(TAG, "setupOutputBuffer: generated outputTextureHandles[slot]: " + outputTextureHandles[slot]);
 
-            //Log.d(TAG, "setupOutputTexture: binding texture outputTextureHandle: " + outputTextureHandle);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, outputTextureHandle);
+            //Log.d(TAG, "setupOutputBuffer: binding texture outputTextureHandles[slot]: " + outputTextureHandles[slot]);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, outputTextureHandles[slot]);
             if (checkGlError("glBindTexture")) {
                 broken = true;
-                return 0;
+                return false;
             }
-            //Log.d(TAG, "setupOutputTexture: bound texture outputTextureHandle: " + outputTextureHandle);
+            //Log.d(TAG, "setupOutputBuffer: bound texture outputTextureHandles[slot]: " + outputTextureHandles[slot]);
 
-            //Log.d(TAG, "setupOutputTexture: setting texture parameters");
+            //Log.d(TAG, "setupOutputBuffer: setting texture parameters");
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
             if (checkGlError("glTexParameteri")) {
                 broken = true;
-                return 0;
+                return false;
             }
 
-            //Log.d(TAG, "setupOutputTexture: glPixelStorei");
+            //Log.d(TAG, "setupOutputBuffer: glPixelStorei");
             GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
             if (checkGlError("glPixelStorei")) {
                 broken = true;
-                return 0;
+                return false;
             }
 
-            //Log.d(TAG, "setupOutputTexture: unbinding texture");
+            //Log.d(TAG, "setupOutputBuffer: unbinding texture");
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
             if (checkGlError("glBindTexture 0")) {
                 broken = true;
-                return 0;
+                return false;
             }
 
         }
 
-        //Log.d(TAG, "setupOutputTexture: binding texture outputTextureHandle: " + outputTextureHandle);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, outputTextureHandle);
+        //Log.d(TAG, "setupOutputBuffer: binding texture outputTextureHandles[slot]: " + outputTextureHandles[slot]);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, outputTextureHandles[slot]);
         if (checkGlError("glBindTexture")) {
             broken = true;
-            return 0;
+            return false;
         }
-        //Log.d(TAG, "setupOutputTexture: bound texture outputTextureHandle: " + outputTextureHandle);
+        //Log.d(TAG, "setupOutputBuffer: bound texture outputTextureHandles[slot]: " + outputTextureHandles[slot]);
 
-        //Log.d(TAG, "setupOutputTexture: texImage2D framebufferWidth: " + framebufferWidth + " framebufferHeight: " + framebufferHeight);
+        //Log.d(TAG, "setupOutputBuffer: texImage2D framebufferWidth: " + framebufferWidth + " framebufferHeight: " + framebufferHeight);
         int format = GLES20.GL_RGBA;
         GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, framebufferWidth, framebufferHeight, 0, format, GLES20.GL_UNSIGNED_BYTE, null);
         if (checkGlError("glTexImage2D")) {
             broken = true;
-            return 0;
+            return false;
         }
 
-        //Log.d(TAG, "setupOutputTexture: unbinding texture");
+        //Log.d(TAG, "setupOutputBuffer: unbinding texture");
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
         if (checkGlError("glBindTexture 0")) {
             broken = true;
-            return 0;
+            return false;
         }
 
-        if (framebufferHandle != 0) {
+        if (framebufferHandles[slot] != 0) {
 
             // Delete the old framebuffer.
 
-            //Log.d(TAG, "setupOutputTexture: deleting old framebufferHandle: " + framebufferHandle);
-            int[] handles = { framebufferHandle };
+            //Log.d(TAG, "setupOutputBuffer: deleting old framebufferHandles[slot]: " + framebufferHandles[slot]);
+            int[] handles = { framebufferHandles[slot] };
             GLES20.glDeleteFramebuffers(1, handles, 0);
             if (checkGlError("glDeleteFramebuffers")) {
                 broken = true;
-                return 0;
+                return false;
             }
-            //Log.d(TAG, "setupOutputTexture: deleted old framebuffer");
+            //Log.d(TAG, "setupOutputBuffer: deleted old framebuffer");
 
-            framebufferHandle = 0;
+            framebufferHandles[slot] = 0;
 
         }
 
-        surfaceTexture.setDefaultBufferSize(framebufferWidth, framebufferHeight);
-
         int[] handles = { 0 };
         GLES20.glGenFramebuffers(1, handles, 0);
         if (checkGlError("glGenFramebuffers")) {
             broken = true;
-            return 0;
+            return false;
         }
-        framebufferHandle = handles[0];
-        //Log.d(TAG, "setupOutputTexture: generated framebuffer framebufferHandle: " + framebufferHandle);
+        framebufferHandles[slot] = handles[0];
+        //Log.d(TAG, "setupOutputBuffer: generated framebuffer framebufferHandles[slot]: " + framebufferHandles[slot]);
 
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferHandle);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferHandles[slot]);
         if (checkGlError("glBindFramebuffer")) {
             broken = true;
-            return 0;
+            return false;
         }
-        //Log.d(TAG, "setupOutputTexture: bound framebuffer framebufferHandle: " + framebufferHandle);
+        //Log.d(TAG, "setupOutputBuffer: bound framebuffer framebufferHandles[slot]: " + framebufferHandles[slot]);
 
-        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, outputTextureHandle, 0);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, outputTextureHandles[slot], 0);
         if (checkGlError("glFramebufferTexture2D")) {
             broken = true;
-            return 0;
+            return false;
         }
-        //Log.d(TAG, "setupOutputTexture: glFramebufferTexture2D outputTextureHandle: " + outputTextureHandle);
+        //Log.d(TAG, "setupOutputBuffer: glFramebufferTexture2D outputTextureHandles[slot]: " + outputTextureHandles[slot]);
 
         int framebufferStatus = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
         if (checkGlError("glCheckFramebufferStatus")) {
             broken = true;
-            return 0;
+            return false;
+        }
+        //Log.d(TAG, "setupOutputBuffer: framebufferStatus: " + framebufferStatus);
+
+        return true;
+    }
+
+
+    // Returns a slot's buffer to the pool, or deletes it if it's not pooled.
+    private void releaseOutputBuffer(int slot)
+    {
+        if (pooledBuffers[slot] != null) {
+            OutputBufferPool.release(pooledBuffers[slot]);
+            pooledBuffers[slot] = null;
+            outputTextureHandles[slot] = 0;
+            framebufferHandles[slot] = 0;
+            return;
+        }
+
+        if (framebufferHandles[slot] != 0) {
+            //Log.d(TAG, "releaseOutputBuffer: deleting framebufferHandle: " + framebufferHandles[slot]);
+            int[] handles = { framebufferHandles[slot] };
+            GLES20.glDeleteFramebuffers(1, handles, 0);
+            if (checkGlError("glDeleteFramebuffers")) {
+                broken = true;
+            }
+            framebufferHandles[slot] = 0;
         }
-        //Log.d(TAG, "setupOutputTexture: framebufferStatus: " + framebufferStatus);
 
-        return outputTextureHandle;
+        if (outputTextureHandles[slot] != 0) {
+            //Log.d(TAG, "releaseOutputBuffer: deleting outputTextureHandle: " + outputTextureHandles[slot]);
+            int[] handles = { outputTextureHandles[slot] };
+            GLES20.glDeleteTextures(1, handles, 0);
+            if (checkGlError("glDeleteTextures")) {
+                broken = true;
+            }
+            outputTextureHandles[slot] = 0;
+        }
     }
     
 
@@ -406,6 +767,13 @@ class ExternalSurface
 
         initialized = false;
 
+        deleteFence();
+
+        if (inAtlas) {
+            TextureAtlas.remove(this);
+            inAtlas = false;
+        }
+
         surface = null;
 
         if (surfaceTexture != null) {
@@ -414,22 +782,17 @@ class ExternalSurface
             surfaceTexture = null;
         }
 
-        if (vertexBufferHandle != 0) {
-            //Log.d(TAG, "shutDown: deleting vertexBufferHandle: " + vertexBufferHandle);
-            int[] handles = { vertexBufferHandle };
-            GLES20.glDeleteBuffers(1, handles, 0);
-            if (checkGlError("glDeleteBuffers")) {
-                broken = true;
-            }
+        if (vertexBuffer != null) {
+            //Log.d(TAG, "shutDown: releasing vertexBufferHandle: " + vertexBufferHandle);
+            GLResourceCache.releaseVertexBuffer(vertexBuffer);
+            vertexBuffer = null;
             vertexBufferHandle = 0;
         }
 
-        if (programHandle != 0) {
-            //Log.d(TAG, "shutDown: deleting programHandle: " + programHandle);
-            GLES20.glDeleteProgram(programHandle);
-            if (checkGlError("glDeleteProgram")) {
-                broken = true;
-            }
+        if (program != null) {
+            //Log.d(TAG, "shutDown: releasing programHandle: " + programHandle);
+            GLResourceCache.releaseProgram(program);
+            program = null;
             programHandle = 0;
         }
 
@@ -443,25 +806,11 @@ class ExternalSurface
             externalTextureHandle = 0;
         }
 
-        if (framebufferHandle != 0) {
-            //Log.d(TAG, "shutDown: deleting framebufferHandle: " + framebufferHandle);
-            int[] handles = { framebufferHandle };
-            GLES20.glDeleteFramebuffers(1, handles, 0);
-            if (checkGlError("glDeleteFramebuffers")) {
-                broken = true;
-            }
-            framebufferHandle = 0;
-        }
-
-        if (outputTextureHandle != 0) {
-            //Log.d(TAG, "shutDown: deleting outputTextureHandle: " + outputTextureHandle);
-            int[] handles = { outputTextureHandle };
-            GLES20.glDeleteTextures(1, handles, 0);
-            if (checkGlError("glDeleteTextures")) {
-                broken = true;
-            }
-            outputTextureHandle = 0;
+        for (int slot = 0; slot < MAX_OUTPUT_BUFFERS; slot++) {
+            releaseOutputBuffer(slot);
         }
+        allocatedBufferCount = 0;
+        completedSlot = -1;
 
     }
 
@@ -474,173 +823,534 @@ class ExternalSurface
     }
 
 
-    public boolean update()
+    // Can be called from any thread, and takes effect on the next update.
+    public void setSyncMode(int syncMode_)
     {
-        //Log.d(TAG, "update: initialized: " + initialized + " broken: " + broken + " frameAvailable: " + frameAvailable);
+        syncMode = syncMode_;
+    }
 
-        initialize();
 
-        if (broken || !frameAvailable) {
-            return false;
-        }
+    public int getSyncMode()
+    {
+        return syncMode;
+    }
 
-        frameAvailable = false;
 
-        //Log.d(TAG, "update: frameAvailable so will updateTexImage");
+    // The GLES 3 sync object signaled when the last blit into the output
+    // texture completes, or 0 if there isn't one pending.
+    public long getFence()
+    {
+        return inAtlas ? TextureAtlas.getFence() : fence;
+    }
 
-        surfaceTexture.updateTexImage();
 
-        long surfaceTextureTimestamp = surfaceTexture.getTimestamp();
-        if (surfaceTextureTimestamp == lastTimestamp) {
-            //Log.d(TAG, "update: frameAvailable but no change from lastTimestamp: " + lastTimestamp);
-            return false;
+    // Makes the GPU (not the CPU) wait for the last blit before running
+    // any commands issued after this, then drops the fence. Only needed
+    // when the output texture is sampled from another context, since
+    // commands in the same context already run in order.
+    public void waitFence()
+    {
+        if (fence == 0) {
+            return;
         }
-        lastTimestamp = surfaceTextureTimestamp;
 
-        //Log.d(TAG, "update: frameAvailable so updated lastTimestamp: " + lastTimestamp + " ----------------");
+        GLES30.glWaitSync(fence, 0, GLES30.GL_TIMEOUT_IGNORED);
+        checkGlError("glWaitSync");
+        deleteFence();
+    }
 
-        if (framebufferHandle == 0) {
-            Log.e(TAG, "No framebufferHandle.");
-            broken = true;
-            return false;
-        }
 
-        //Log.d(TAG, "update: binding framebufferHandle: " + framebufferHandle);
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferHandle);
-        if (checkGlError("glBindFramebuffer")) {
-            broken = true;
-            return false;
+    private void deleteFence()
+    {
+        if (fence == 0) {
+            return;
         }
 
-        Log.d(TAG, "update: saving last texture lastExternalTextureHandles");
-        int[] lastExternalTextureHandles = new int[1];
-        GLES20.glGetIntegerv(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, lastExternalTextureHandles, 0);
-        if (checkGlError("glBindTexture glGetIntegerv GL_TEXTURE_EXTERNAL_OES")) {
-            Log.d(TAG, "update: glGetIntegerv GL_TEXTURE_EXTERNAL_OES failed");
-            //broken = true;
-            //return false;
+        GLES30.glDeleteSync(fence);
+        fence = 0;
+    }
+
+
+    // Fences need GLES 3, which GLES30 only wraps on API 18 and up.
+    static boolean isFenceSupported()
+    {
+        if (fenceSupport == 0) {
+            String version = GLES20.glGetString(GLES20.GL_VERSION);
+            boolean supported =
+                (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) &&
+                (version != null) &&
+                version.startsWith("OpenGL ES ") &&
+                !version.startsWith("OpenGL ES 2.") &&
+                !version.startsWith("OpenGL ES 1.");
+            fenceSupport = supported ? 1 : -1;
+            Log.i(TAG, "isFenceSupported: version: " + version + " supported: " + supported);
+        }
+
+        return fenceSupport > 0;
+    }
+
+
+    // Called on the UI thread to lock surface for drawing, and add the
+    // damage. A hardware canvas (API 23 and up) renders much faster, but
+    // doesn't preserve the last frame, so all of it gets redrawn.
+    // Otherwise this locks a software canvas clipped to dirty, which
+    // lockCanvas may grow to cover anything it could not preserve.
+    // The locked region is cleared, so transparent pages don't draw
+    // over their last frame. Switching between hardware and software
+    // replaces surface first, see surfaceCanvas.
+    public Canvas lockCanvas(Rect dirty, boolean hardware)
+    {
+        Canvas canvas = null;
+
+        if (hardware &&
+            !hardwareCanvasFailed &&
+            (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)) {
+            if (surfaceCanvas == CANVAS_SOFTWARE) {
+                replaceSurface();
+            }
+            // Even a failed lock may have handed the Surface to HWUI.
+            surfaceCanvas = CANVAS_HARDWARE;
+            try {
+                canvas = surface.lockHardwareCanvas();
+                dirty = null;
+            } catch (Exception ex) {
+                Log.e(TAG, "lockCanvas: lockHardwareCanvas failed, falling back to software. ex: " + ex);
+                hardwareCanvasFailed = true;
+            }
         }
-        Log.d(TAG, "update: saved last texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
 
-        Log.d(TAG, "update: binding texture externalTextureHandle " + externalTextureHandle);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, externalTextureHandle);
-        if (checkGlError("glBindTexture externalTextureHandle")) {
-            //Log.d(TAG, "update: glBindTexture failed");
-            broken = true;
-            return false;
+        if (canvas == null) {
+            if (surfaceCanvas == CANVAS_HARDWARE) {
+                // Nothing is preserved, so the lock grows dirty to all of it.
+                replaceSurface();
+            }
+            surfaceCanvas = CANVAS_SOFTWARE;
+            canvas = surface.lockCanvas(dirty);
         }
-        Log.d(TAG, "update: bound texture externalTextureHandle " + externalTextureHandle);
 
-        //Log.d(TAG, "update: disabling stuff");
-        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
-        GLES20.glDisable(GLES20.GL_STENCIL_TEST);
-        GLES20.glDisable(GLES20.GL_CULL_FACE);
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLES20.glDisable(GLES20.GL_POLYGON_OFFSET_FILL);
-        GLES20.glPolygonOffset(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-        GLES20.glDepthMask(false);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-        if (checkGlError("glDisable")) {
+        addDamage(dirty);
+
+        canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+
+        return canvas;
+    }
+
+
+    // Called on the UI thread to post the canvas from lockCanvas.
+    public void unlockCanvasAndPost(Canvas canvas)
+    {
+        surface.unlockCanvasAndPost(canvas);
+    }
+
+
+    // Called on the UI thread. The old Surface has to let go of the
+    // SurfaceTexture's buffer queue before the new one connects to it.
+    private void replaceSurface()
+    {
+        //Log.d(TAG, "replaceSurface: surfaceCanvas: " + surfaceCanvas);
+        surface.release();
+        surface = new Surface(surfaceTexture);
+        surfaceCanvas = CANVAS_NONE;
+    }
+
+
+    public void setHardwareCanvasFailed()
+    {
+        hardwareCanvasFailed = true;
+    }
+
+
+    public boolean isHardwareCanvasFailed()
+    {
+        return hardwareCanvasFailed;
+    }
+
+
+    // Called on the UI thread before posting a frame drawn into surface.
+    // A null damage rect means the whole surface changed.
+    synchronized public void addDamage(Rect damage_)
+    {
+        if (damage_ == null) {
+            pendingDamageAll = true;
+        } else {
+            pendingDamage.union(damage_);
+        }
+    }
+
+
+    public boolean update()
+    {
+        //Log.d(TAG, "update: initialized: " + initialized + " broken: " + broken + " frameAvailable: " + frameAvailable);
+
+        initialize();
+
+        if (inAtlas) {
+            // TextureAtlas.update already blitted it, along with the other members.
+            boolean updated = atlasUpdated;
+            atlasUpdated = false;
+            return updated;
+        }
+
+        if (!acquireFrame()) {
+            return false;
+        }
+
+        int slot = writeSlot;
+
+        if ((slot >= allocatedBufferCount) ||
+            (framebufferHandles[slot] == 0)) {
+            Log.e(TAG, "No framebufferHandle.");
             broken = true;
             return false;
         }
 
-        //Log.d(TAG, "update: glViewport framebufferWidth: " + framebufferWidth + " framebufferHeight: " + framebufferHeight);
-        GLES20.glViewport(0, 0, framebufferWidth, framebufferHeight);
-        if (checkGlError("glViewport")) {
+        // Every output texture misses this frame's damage until it is written.
+        for (int i = 0; i < allocatedBufferCount; i++) {
+            if (frameDamageAll) {
+                slotDamageAll[i] = true;
+            } else {
+                slotDamage[i].union(scissor);
+            }
+        }
+
+        scissor.set(slotDamage[slot]);
+        boolean scissored = clipToDamage(!slotDamageAll[slot]);
+
+        slotDamage[slot].setEmpty();
+        slotDamageAll[slot] = false;
+
+        //Log.d(TAG, "update: binding framebufferHandle: " + framebufferHandles[slot] + " slot: " + slot);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferHandles[slot]);
+        if (checkGlError("glBindFramebuffer")) {
             broken = true;
             return false;
         }
 
-        //Log.d(TAG, "update: glClearColor");
-        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-        if (checkGlError("glClearColor")) {
+        if (!beginBlits()) {
             broken = true;
             return false;
         }
 
-        //Log.d(TAG, "update: glClear");
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-        if (checkGlError("glClear")) {
+        // When pooled, this is the lower left corner of a bigger texture.
+        if (!blitInto(0, 0, scissored)) {
+            return false;
+        }
+
+        switch (syncMode) {
+
+            case SYNC_FINISH:
+                deleteFence();
+                //Log.d(TAG, "update: glFinish");
+                GLES20.glFinish();
+                if (checkGlError("glFinish")) {
+                    broken = true;
+                    return false;
+                }
+                break;
+
+            case SYNC_FENCE:
+                if (isFenceSupported()) {
+                    //Log.d(TAG, "update: glFenceSync");
+                    deleteFence();
+                    fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                    if (checkGlError("glFenceSync")) {
+                        fence = 0;
+                    }
+                }
+                GLES20.glFlush();
+                break;
+
+            default:
+                deleteFence();
+                GLES20.glFlush();
+                break;
+
+        }
+
+        // Generate mipmap?
+
+        // The program, vertex buffer and attributes stay bound for the next
+        // surface, and GLResourceCache.endFrame unbinds them.
+
+        //Log.d(TAG, "update: glBindFramebuffer 0");
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        if (checkGlError("glBindFramebuffer 0")) {
             broken = true;
             return false;
         }
 
-        //Log.d(TAG, "update: calling drawFrame");
-        drawFrame();
-        //Log.d(TAG, "update: called drawFrame");
+        if (!endBlits()) {
+            broken = true;
+            return false;
+        }
 
-        //Log.d(TAG, "update: glFinish");
-        GLES20.glFinish();
-        if (checkGlError("glFinish")) {
+        if (GLErrorCheck.checkBoundary(TAG, "update")) {
             broken = true;
             return false;
         }
 
-        // Generate mipmap?
+        completedSlot = slot;
+        writeSlot = (slot + 1) % allocatedBufferCount;
 
-        //Log.d(TAG, "update: glUseProgram 0");
-        GLES20.glUseProgram(0);
-        if (checkGlError("glUseProgram 0")) {
+        //Log.d(TAG, "update: done");
+
+        return true;
+    }
+
+
+    // Latches the newest frame into the external texture, and takes the
+    // damage to blit into scissor: this frame's plus the last one's, or
+    // everything if frameDamageAll is set. Returns false if there isn't
+    // a new frame.
+    boolean acquireFrame()
+    {
+        if (broken || !frameAvailable) {
+            return false;
+        }
+
+        frameAvailable = false;
+
+        //Log.d(TAG, "acquireFrame: frameAvailable so will updateTexImage");
+
+        surfaceTexture.updateTexImage();
+        hasFrame = true;
+
+        long surfaceTextureTimestamp = surfaceTexture.getTimestamp();
+        if (surfaceTextureTimestamp == lastTimestamp) {
+            //Log.d(TAG, "acquireFrame: frameAvailable but no change from lastTimestamp: " + lastTimestamp);
+            if (stats != null) {
+                stats.framesSkipped++;
+            }
+            return false;
+        }
+        lastTimestamp = surfaceTextureTimestamp;
+
+        //Log.d(TAG, "acquireFrame: frameAvailable so updated lastTimestamp: " + lastTimestamp + " ----------------");
+
+        // Take the damage after latching the frame, so it covers everything
+        // drawn into the frame.
+        boolean damageAll;
+        synchronized (this) {
+            damage.set(pendingDamage);
+            damageAll = pendingDamageAll;
+            pendingDamage.setEmpty();
+            pendingDamageAll = false;
+        }
+
+        scissor.set(damage);
+        scissor.union(lastDamage);
+        frameDamageAll =
+            damageAll ||
+            lastDamageAll ||
+            scissor.isEmpty();
+
+        lastDamage.set(damage);
+        lastDamageAll = damageAll;
+
+        return true;
+    }
+
+
+    boolean hasFrame()
+    {
+        return hasFrame;
+    }
+
+
+    // Returns true if the next blit can be clipped to scissor, scaling it
+    // from the surface to the framebuffer and clamping it.
+    boolean clipToDamage(boolean allowed)
+    {
+        if (!allowed ||
+            frameDamageAll ||
+            scissor.isEmpty()) {
+            return false;
+        }
+
+        if ((surfaceWidth != framebufferWidth) ||
+            (surfaceHeight != framebufferHeight)) {
+            // Round outwards, plus a pixel for linear filtering to reach in from the neighbors.
+            scissor.set(
+                ((scissor.left * framebufferWidth) / surfaceWidth) - 1,
+                ((scissor.top * framebufferHeight) / surfaceHeight) - 1,
+                ((scissor.right * framebufferWidth + surfaceWidth - 1) / surfaceWidth) + 1,
+                ((scissor.bottom * framebufferHeight + surfaceHeight - 1) / surfaceHeight) + 1);
+        }
+
+        return scissor.intersect(0, 0, framebufferWidth, framebufferHeight);
+    }
+
+
+    // Sets up the state shared by any number of blits into the bound
+    // framebuffer. Returns false on error.
+    static boolean beginBlits()
+    {
+        //Log.d(TAG, "beginBlits: disabling stuff");
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glDisable(GLES20.GL_STENCIL_TEST);
+        GLES20.glDisable(GLES20.GL_CULL_FACE);
+        GLES20.glDisable(GLES20.GL_BLEND);
+        GLES20.glDisable(GLES20.GL_POLYGON_OFFSET_FILL);
+        GLES20.glPolygonOffset(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        GLES20.glDepthMask(false);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        if (checkGlError("glDisable")) {
+            return false;
+        }
+
+        //Log.d(TAG, "beginBlits: glClearColor");
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        if (checkGlError("glClearColor")) {
+            return false;
+        }
+
+        return true;
+    }
+
+
+    // Clears and blits the latched frame into the bound framebuffer, with
+    // its lower left corner at x, y. If clip is set, only touches scissor.
+    boolean blitInto(int x, int y, boolean clip)
+    {
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "blitInto: saving last texture lastExternalTextureHandles");
+        }
+        GLES20.glGetIntegerv(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, lastExternalTextureHandles, 0);
+        if (checkGlError("glBindTexture glGetIntegerv GL_TEXTURE_EXTERNAL_OES")) {
+            if (LOG_LEVEL <= Log.DEBUG) {
+                Log.d(TAG, "blitInto: glGetIntegerv GL_TEXTURE_EXTERNAL_OES failed");
+            }
+            //broken = true;
+            //return false;
+        }
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "blitInto: saved last texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
+        }
+
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "blitInto: binding texture externalTextureHandle " + externalTextureHandle);
+        }
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, externalTextureHandle);
+        if (checkGlError("glBindTexture externalTextureHandle")) {
+            //Log.d(TAG, "blitInto: glBindTexture failed");
             broken = true;
             return false;
         }
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "blitInto: bound texture externalTextureHandle " + externalTextureHandle);
+        }
 
-        //Log.d(TAG, "update: glBindFramebuffer 0");
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        if (checkGlError("glBindFramebuffer 0")) {
+        //Log.d(TAG, "blitInto: glViewport x: " + x + " y: " + y + " framebufferWidth: " + framebufferWidth + " framebufferHeight: " + framebufferHeight);
+        GLES20.glViewport(x, y, framebufferWidth, framebufferHeight);
+        if (checkGlError("glViewport")) {
             broken = true;
             return false;
         }
 
-        Log.d(TAG, "initialize: restored binding texture lastExternalTextureHandles" + lastExternalTextureHandles[0]);
+        boolean scissored = clip || inAtlas;
+        try {
+
+            if (clip) {
+                // Only clear and blit the damage. The surface's origin is at the
+                // top left, and the framebuffer's is at the bottom left.
+                //Log.d(TAG, "blitInto: glScissor scissor: " + scissor);
+                GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+                GLES20.glScissor(x + scissor.left, y + framebufferHeight - scissor.bottom, scissor.width(), scissor.height());
+            } else if (inAtlas) {
+                // Don't clear the neighbors.
+                GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+                GLES20.glScissor(x, y, framebufferWidth, framebufferHeight);
+            }
+            if (checkGlError("glScissor")) {
+                broken = true;
+                return false;
+            }
+
+            //Log.d(TAG, "blitInto: glClear");
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            if (checkGlError("glClear")) {
+                broken = true;
+                return false;
+            }
+
+            //Log.d(TAG, "blitInto: calling drawFrame");
+            long drawFrameStart = System.nanoTime();
+            drawFrame();
+            if (stats != null) {
+                stats.drawFrame.add(System.nanoTime() - drawFrameStart);
+            }
+            //Log.d(TAG, "blitInto: called drawFrame");
+
+        } finally {
+
+            // Scissoring left on would clip everything Unity draws after this.
+            if (scissored) {
+                GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+            }
+
+        }
+
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "blitInto: restoring binding texture lastExternalTextureHandles" + lastExternalTextureHandles[0]);
+        }
         GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, lastExternalTextureHandles[0]);
         if (checkGlError("glBindTexture lastExternalTextureHandles")) {
-            Log.d(TAG, "initialize: glBindTexture lastExternalTextureHandles failed");
+            if (LOG_LEVEL <= Log.DEBUG) {
+                Log.d(TAG, "blitInto: glBindTexture lastExternalTextureHandles failed");
+            }
             //broken = true;
             //return false;
         }
-        Log.d(TAG, "initialize: restored bound texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "blitInto: restored bound texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
+        }
+
+        if (broken) {
+            return false;
+        }
+
+        if (stats != null) {
+            stats.framesRendered++;
+        }
 
-        //Log.d(TAG, "update: glBindTexture 0");
+        return true;
+    }
+
+
+    // Unbinds the textures the blits used. Returns false on error.
+    static boolean endBlits()
+    {
+        //Log.d(TAG, "endBlits: glBindTexture 0");
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
         if (checkGlError("glBindTexture 0")) {
-            broken = true;
             return false;
         }
 
-        //Log.d(TAG, "update: glActiveTexture GL_TEXTURE0");
+        //Log.d(TAG, "endBlits: glActiveTexture GL_TEXTURE0");
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         if (checkGlError("glActiveTexture GL_TEXTURE0")) {
-            broken = true;
             return false;
         }
 
-        //Log.d(TAG, "update: glBindTexture 0");
+        //Log.d(TAG, "endBlits: glBindTexture 0");
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
         if (checkGlError("glBindTexture 0")) {
-            broken = true;
             return false;
         }
 
-        //Log.d(TAG, "update: glActiveTexture GL_TEXTURE1");
+        //Log.d(TAG, "endBlits: glActiveTexture GL_TEXTURE1");
         GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
         if (checkGlError("glActiveTexture GL_TEXTURE1")) {
-            broken = true;
             return false;
         }
 
-        //Log.d(TAG, "update: glBindTexture 0");
+        //Log.d(TAG, "endBlits: glBindTexture 0");
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
         if (checkGlError("glBindTexture 0")) {
-            broken = true;
             return false;
         }
 
-        //Log.d(TAG, "update: done");
-
         return true;
     }
 
@@ -654,8 +1364,10 @@ class ExternalSurface
             return;
         }
 
-        //Log.d(TAG, "drawFrame: glUseProgram: programHandle: " + programHandle);
-        GLES20.glUseProgram(programHandle);
+        // Only the first surface drawn in a render tick binds the shared
+        // program and vertex buffer and sets up the attributes.
+        //Log.d(TAG, "drawFrame: useProgram: programHandle: " + programHandle);
+        boolean programChanged = GLResourceCache.useProgram(programHandle);
         if (checkGlError("glUseProgram")) {
             broken = true;
             return;
@@ -668,17 +1380,24 @@ class ExternalSurface
             return;
         }
 
-        Log.d(TAG, "drawFrame: saving last texture lastExternalTextureHandles");
-        int[] lastExternalTextureHandles = new int[1];
-        GLES20.glGetIntegerv(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, lastExternalTextureHandles, 0);
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "drawFrame: saving last texture drawFrameExternalTextureHandles");
+        }
+        GLES20.glGetIntegerv(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, drawFrameExternalTextureHandles, 0);
         if (checkGlError("glBindTexture glGetIntegerv GL_TEXTURE_EXTERNAL_OES")) {
-            Log.d(TAG, "drawFrame: glGetIntegerv GL_TEXTURE_EXTERNAL_OES failed");
+            if (LOG_LEVEL <= Log.DEBUG) {
+                Log.d(TAG, "drawFrame: glGetIntegerv GL_TEXTURE_EXTERNAL_OES failed");
+            }
             //broken = true;
             //return;
         }
-        Log.d(TAG, "drawFrame: saved last texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "drawFrame: saved last texture drawFrameExternalTextureHandles " + drawFrameExternalTextureHandles[0]);
+        }
 
-        Log.d(TAG, "drawFrame: glBindTexture GL_TEXTURE_EXTERNAL_OES externalTextureHandle: " + externalTextureHandle);
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "drawFrame: glBindTexture GL_TEXTURE_EXTERNAL_OES externalTextureHandle: " + externalTextureHandle);
+        }
         GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, externalTextureHandle);
         if (checkGlError("glBindTexture")) {
             broken = true;
@@ -693,46 +1412,43 @@ class ExternalSurface
             return;
         }
 
-        //Log.d(TAG, "drawFrame: glEnableVertexAttribArray aPositionHandle: " + aPositionHandle);
-        GLES20.glEnableVertexAttribArray(aPositionHandle);
-        if (checkGlError("glEnableVertexAttribArray aPositionHandle")) {
+        //Log.d(TAG, "drawFrame: bindArrayBuffer vertexBufferHandle: " + vertexBufferHandle);
+        boolean bufferChanged = GLResourceCache.bindArrayBuffer(vertexBufferHandle);
+        if (checkGlError("glBindBuffer vertexBufferHandle")) {
             broken = true;
             return;
         }
 
-        //Log.d(TAG, "drawFrame: glBindBuffer GL_ARRAY_BUFFER vertexBufferHandle: " + vertexBufferHandle);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferHandle);
-        if (checkGlError("glBindBuffer vertexBufferHandle: " + vertexBufferHandle)) {
-            broken = true;
-            return;
-        }
+        if (programChanged || bufferChanged) {
 
-        //Log.d(TAG, "drawFrame: glVertexAttribPointer aPositionHandle: " + aPositionHandle);
-        GLES20.glVertexAttribPointer(aPositionHandle, 3, GLES20.GL_FLOAT, false, VERTICES_DATA_STRIDE_BYTES, VERTICES_DATA_POS_OFFSET_BYTES);
-        if (checkGlError("glVertexAttribPointer maPosition")) {
-            broken = true;
-            return;
-        }
+            //Log.d(TAG, "drawFrame: enableVertexAttribArray aPositionHandle: " + aPositionHandle);
+            GLResourceCache.enableVertexAttribArray(aPositionHandle);
+            if (checkGlError("glEnableVertexAttribArray aPositionHandle")) {
+                broken = true;
+                return;
+            }
 
-        //Log.d(TAG, "drawFrame: glEnableVertexAttribArray aTextureHandle: " + aTextureHandle);
-        GLES20.glEnableVertexAttribArray(aTextureHandle);
-        if (checkGlError("glEnableVertexAttribArray aTextureHandle")) {
-            broken = true;
-            return;
-        }
+            //Log.d(TAG, "drawFrame: glVertexAttribPointer aPositionHandle: " + aPositionHandle);
+            GLES20.glVertexAttribPointer(aPositionHandle, 3, GLES20.GL_FLOAT, false, VERTICES_DATA_STRIDE_BYTES, VERTICES_DATA_POS_OFFSET_BYTES);
+            if (checkGlError("glVertexAttribPointer maPosition")) {
+                broken = true;
+                return;
+            }
 
-        //Log.d(TAG, "drawFrame: glBindBuffer GL_ARRAY_BUFFER vertexBufferHandle: " + vertexBufferHandle);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferHandle);
-        if (checkGlError("glBindBuffer vertexBufferHandle: " + vertexBufferHandle)) {
-            broken = true;
-            return;
-        }
+            //Log.d(TAG, "drawFrame: enableVertexAttribArray aTextureHandle: " + aTextureHandle);
+            GLResourceCache.enableVertexAttribArray(aTextureHandle);
+            if (checkGlError("glEnableVertexAttribArray aTextureHandle")) {
+                broken = true;
+                return;
+            }
+
+            //Log.d(TAG, "drawFrame: glVertexAttribPointer aTextureHandle: " + aTextureHandle);
+            GLES20.glVertexAttribPointer(aTextureHandle, 2, GLES20.GL_FLOAT, false, VERTICES_DATA_STRIDE_BYTES, VERTICES_DATA_UV_OFFSET_BYTES);
+            if (checkGlError("glVertexAttribPointer aTextureHandle")) {
+                broken = true;
+                return;
+            }
 
-        //Log.d(TAG, "drawFrame: glVertexAttribPointer aTextureHandle: " + aTextureHandle);
-        GLES20.glVertexAttribPointer(aTextureHandle, 2, GLES20.GL_FLOAT, false, VERTICES_DATA_STRIDE_BYTES, VERTICES_DATA_UV_OFFSET_BYTES);
-        if (checkGlError("glVertexAttribPointer aTextureHandle")) {
-            broken = true;
-            return;
         }
 
         //Log.d(TAG, "drawFrame: glDrawArrays");
@@ -742,160 +1458,37 @@ class ExternalSurface
             return;
         }
 
-        GLES20.glDisableVertexAttribArray(aPositionHandle);
-        if (checkGlError("glDisableVertexAttribArray aPositionHandle")) {
-            broken = true;
-            return;
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "drawFrame: restoring binding texture drawFrameExternalTextureHandles " + drawFrameExternalTextureHandles[0]);
         }
-
-        //Log.d(TAG, "drawFrame: glDisableVertexAttribArray aTextureHandle: " + aTextureHandle);
-        GLES20.glDisableVertexAttribArray(aTextureHandle);
-        if (checkGlError("glDisableVertexAttribArray aTextureHandle")) {
-            broken = true;
-            return;
-        }
-
-        //Log.d(TAG, "drawFrame: glBindBuffer GL_ARRAY_BUFFER 0");
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        if (checkGlError("glBindBuffer 0")) {
-            broken = true;
-            return;
-        }
-
-        Log.d(TAG, "drawFrame: restoring binding texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, lastExternalTextureHandles[0]);
-        if (checkGlError("glBindTexture lastExternalTextureHandles")) {
-            Log.d(TAG, "drawFrame: glBindTexture restoring lastExternalTextureHandles failed");
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, drawFrameExternalTextureHandles[0]);
+        if (checkGlError("glBindTexture drawFrameExternalTextureHandles")) {
+            if (LOG_LEVEL <= Log.DEBUG) {
+                Log.d(TAG, "drawFrame: glBindTexture restoring drawFrameExternalTextureHandles failed");
+            }
             //broken = true;
             //return;
         }
-        Log.d(TAG, "drawFrame: restoring bound texture lastExternalTextureHandles " + lastExternalTextureHandles[0]);
-
-        ////////////////////////////////////////////////////////////////////////
-
-        //Log.d(TAG, "drawFrame: done");
-
-    }
-
-
-    private int createProgram(String vertexSource, String fragmentSource)
-    {
-
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        if (vertexShader == 0) {
-            Log.e(TAG, "createProgram: Could not load vertex shader.");
-            broken = true;
-            return 0;
+        if (LOG_LEVEL <= Log.DEBUG) {
+            Log.d(TAG, "drawFrame: restoring bound texture drawFrameExternalTextureHandles " + drawFrameExternalTextureHandles[0]);
         }
-        //Log.d(TAG, "createProgram: Loaded vertex shader.");
 
-        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
-        if (pixelShader == 0) {
-            Log.e(TAG, "createProgram: Could not load pixel shader.");
-            broken = true;
-            return 0;
-        }
-        //Log.d(TAG, "createProgram: Loaded pixel shader.");
-
-        int program = GLES20.glCreateProgram();
-        if (program == 0) {
-            Log.e(TAG, "createProgram: Could not create shader program.");
-            broken = true;
-            return 0;
-        }
-        //Log.d(TAG, "createProgram: Created program.");
-
-        GLES20.glAttachShader(program, vertexShader);
-        if (checkGlError("glAttachShader vertexShader")) {
-            Log.e(TAG, "Could not attach vertexShader.");
-            broken = true;
-            return 0;
-        }
-        //Log.d(TAG, "createProgram: Attached vertexShader.");
-
-        GLES20.glAttachShader(program, pixelShader);
-        if (checkGlError("glAttachShader pixelShader")) {
-            Log.e(TAG, "Could not attach pixelShader.");
-            broken = true;
-            return 0;
-        }
-        //Log.d(TAG, "createProgram: Attached pixelShader.");
-
-        GLES20.glLinkProgram(program);
-        if (checkGlError("glLinkProgram")) {
-            Log.e(TAG, "Could not link program.");
-            broken = true;
-            return 0;
-        }
-        int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-        if (checkGlError("glGetProgramiv") ||
-                (linkStatus[0] != GLES20.GL_TRUE)) {
-            Log.e(TAG, "Could not link program: ");
-            Log.e(TAG, GLES20.glGetProgramInfoLog(program));
-            GLES20.glDeleteProgram(program);
-            broken = true;
-            return 0;
-        }
-        //Log.d(TAG, "createProgram: Linked program.");
-
-        return program;
-    }
-
-
-    private int loadShader(int shaderType, String source)
-    {
-        int shader = GLES20.glCreateShader(shaderType);
-        if (checkGlError("glCreateShader") ||
-            (shader == 0)) {
-            Log.e(TAG, "loadShader: glError: Could not create shaderType: " + shaderType);
-            broken = true;
-            return 0;
-        }
-        //Log.d(TAG, "loadShader: created shader.");
+        ////////////////////////////////////////////////////////////////////////
 
-        GLES20.glShaderSource(shader, source);
-        if (checkGlError("glShaderSource")) {
-            Log.e(TAG, "loadShader: glError: Could not set shader source. shader: " + shader + " source: " + source);
+        if (GLErrorCheck.checkBoundary(TAG, "drawFrame")) {
             broken = true;
-            return 0;
+            return;
         }
-        //Log.d(TAG, "loadShader: Set shader source.");
 
-        GLES20.glCompileShader(shader);
-        if (checkGlError("glCompileShader")) {
-            Log.e(TAG, "loadShader: glError: Could not compile shader. shaderType: " + shaderType + " shader: " + shader);
-            broken = true;
-            return 0;
-        }
-        int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
-        if (checkGlError("glGetShaderiv") ||
-            (compiled[0] == 0)) {
-            Log.e(TAG, "loadShader: Could not compile shader. shaderType: " + shaderType);
-            Log.e(TAG, GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            return 0;
-        }
-        //Log.d(TAG, "loadShader: Compiled shader.");
+        //Log.d(TAG, "drawFrame: done");
 
-        return shader;
     }
 
 
+    // Checks after a single GL call, as often as GLErrorCheck's policy says.
     private static boolean checkGlError(String op)
     {
-        boolean gotError = false;
-        int error;
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-            if (!gotError) {
-                Log.e(TAG, "checkGlError: !!!!!!!!!!!!!!!! ERROR: " + op);
-            }
-            gotError = true;
-            Log.e(TAG, "checkGlError: error: " + error);
-        }
-
-        return gotError;
+        return GLErrorCheck.check(TAG, op);
     }
 
 
@@ -0,0 +1,104 @@
+////////////////////////////////////////////////////////////////////////
+// FunctionTable.java
+// JS functions registered once per plugin, and called by ID.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.Map;
+import java.util.TreeMap;
+
+
+// Sending the same script template with different arguments every frame
+// makes V8 parse and compile it every time. Instead, Unity registers the
+// template once as a function, which is installed in the page as
+// UnityJSFunctions[id], and each call sends just
+//   UnityJSFunctions[id](args);
+// where args is the JSON arguments, or nothing.
+//
+// Every page load starts with an empty window, so the plugin installs
+// the whole table again in onPageFinished, before telling Unity the page
+// has loaded.
+
+class FunctionTable {
+
+    private static final String TABLE = "UnityJSFunctions";
+
+
+    // Guarded by this. Sorted, so they are installed in a stable order.
+    private final TreeMap<Integer, String> sources = new TreeMap<Integer, String>();
+
+
+    public synchronized void register(int functionID, String source)
+    {
+        sources.put(functionID, source);
+    }
+
+
+    // Returns false if functionID wasn't registered.
+    public synchronized boolean unregister(int functionID)
+    {
+        return sources.remove(functionID) != null;
+    }
+
+
+    // Returns one script that installs every registered function, or null
+    // if there aren't any.
+    public synchronized String getInstallScript()
+    {
+        if (sources.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder script = new StringBuilder(1024);
+        for (Map.Entry<Integer, String> entry : sources.entrySet()) {
+            appendInstall(script, entry.getKey(), entry.getValue());
+        }
+
+        return script.toString();
+    }
+
+
+    public static String installScript(int functionID, String source)
+    {
+        StringBuilder script = new StringBuilder(source.length() + 64);
+        appendInstall(script, functionID, source);
+
+        return script.toString();
+    }
+
+
+    public static String uninstallScript(int functionID)
+    {
+        return "if (window." + TABLE + ") { delete " + TABLE + "[" + functionID + "]; }";
+    }
+
+
+    public static String callScript(int functionID, String args)
+    {
+        int argsLength = (args == null) ? 0 : args.length();
+        StringBuilder script = new StringBuilder(argsLength + 32);
+        script.append(TABLE).append('[').append(functionID).append("](");
+        if (argsLength > 0) {
+            script.append(args);
+        }
+        script.append(");");
+
+        return script.toString();
+    }
+
+
+    // The source is wrapped in parentheses on lines of its own, so it can
+    // be any function expression, and end with a line comment.
+    private static void appendInstall(StringBuilder script, int functionID, String source)
+    {
+        script.append("window.").append(TABLE).append(" = window.").append(TABLE).append(" || {};\n");
+        script.append(TABLE).append('[').append(functionID).append("] = (\n");
+        script.append(source);
+        script.append("\n);\n");
+    }
+
+
+}
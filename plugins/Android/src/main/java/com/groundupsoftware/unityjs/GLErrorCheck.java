@@ -0,0 +1,122 @@
+////////////////////////////////////////////////////////////////////////
+// GLErrorCheck.java
+// Process-wide policy for how often the render path calls glGetError.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+
+// Each glGetError can stall the pipeline, so the render path checks in
+// two ways:
+//
+//   check:         After individual GL calls, to pin down which one
+//                  failed. Runs every frame in GL_ERROR_CHECK_FULL, and
+//                  every Nth frame in GL_ERROR_CHECK_SAMPLED.
+//   checkBoundary: At the end of each phase (setup, update, draw).
+//                  Runs every frame in GL_ERROR_CHECK_FULL and
+//                  GL_ERROR_CHECK_SAMPLED. GL error flags are sticky
+//                  until read, so this still catches an error from any
+//                  call in the phase, and the "broken" bookkeeping still
+//                  trips, just without naming the call.
+//
+// GL_ERROR_CHECK_OFF skips both.
+//
+// Only the render thread calls beginFrame and the checks.
+
+class GLErrorCheck {
+
+    public static final int GL_ERROR_CHECK_OFF = 0;
+    public static final int GL_ERROR_CHECK_SAMPLED = 1;
+    public static final int GL_ERROR_CHECK_FULL = 2;
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 60;
+
+    private static volatile int policy = GL_ERROR_CHECK_SAMPLED;
+    private static volatile int sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+
+    // Only touched by the render thread.
+    private static int frame;
+    private static boolean checkingCalls = true;
+
+
+    public static void setPolicy(int policy_, int sampleInterval_)
+    {
+        sampleInterval = (sampleInterval_ > 0) ? sampleInterval_ : DEFAULT_SAMPLE_INTERVAL;
+        policy = policy_;
+    }
+
+
+    public static int getPolicy()
+    {
+        return policy;
+    }
+
+
+    // Called once per render tick, before any plugin renders.
+    public static void beginFrame()
+    {
+        switch (policy) {
+
+            case GL_ERROR_CHECK_FULL:
+                checkingCalls = true;
+                break;
+
+            case GL_ERROR_CHECK_SAMPLED:
+                if (++frame >= sampleInterval) {
+                    frame = 0;
+                }
+                checkingCalls = (frame == 0);
+                break;
+
+            default:
+                checkingCalls = false;
+                break;
+
+        }
+    }
+
+
+    // Checks after an individual GL call, if this frame is checking calls.
+    public static boolean check(String tag, String op)
+    {
+        if (!checkingCalls) {
+            return false;
+        }
+
+        return checkNow(tag, op);
+    }
+
+
+    // Checks at the end of a phase, unless checking is off.
+    public static boolean checkBoundary(String tag, String op)
+    {
+        if (policy == GL_ERROR_CHECK_OFF) {
+            return false;
+        }
+
+        return checkNow(tag, op);
+    }
+
+
+    private static boolean checkNow(String tag, String op)
+    {
+        boolean gotError = false;
+        int error;
+        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+            if (!gotError) {
+                Log.e(tag, "checkGlError: !!!!!!!!!!!!!!!! ERROR: " + op);
+            }
+            gotError = true;
+            Log.e(tag, "checkGlError: error: " + error);
+        }
+
+        return gotError;
+    }
+
+
+}
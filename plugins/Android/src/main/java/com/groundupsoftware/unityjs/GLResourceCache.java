@@ -0,0 +1,328 @@
+////////////////////////////////////////////////////////////////////////
+// GLResourceCache.java
+// Reference counted GL programs and vertex buffers shared by all ExternalSurfaces.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.nio.ByteOrder;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import android.opengl.GLES20;
+import android.util.Log;
+
+
+// Every ExternalSurface blits with the same shaders and the same quad, so
+// they share one program per pair of shader sources and one vertex buffer
+// per key, created by the first surface that needs them and deleted when
+// the last one releases them. That compiles the shaders once instead of
+// once per panel.
+//
+// The cache also tracks the program, array buffer and vertex attributes
+// it binds, so consecutive surfaces in the same render tick skip the
+// redundant glUseProgram, glBindBuffer and glEnableVertexAttribArray
+// calls. Unity can change any of them between ticks, so beginFrame forgets
+// what is bound, and endFrame unbinds whatever the cache left bound.
+//
+// Only the render thread uses the cache, so it isn't synchronized.
+
+class GLResourceCache {
+
+    private static String TAG = "GLResourceCache";
+
+    // Attributes with a location at or above this aren't tracked.
+    private static final int MAX_TRACKED_ATTRIBS = 32;
+
+
+    static final class Program {
+        String key;
+        int handle;
+        int refCount;
+    }
+
+
+    static final class Buffer {
+        String key;
+        int handle;
+        int refCount;
+    }
+
+
+    private static final HashMap<String, Program> programs = new HashMap<String, Program>();
+    private static final HashMap<String, Buffer> buffers = new HashMap<String, Buffer>();
+    private static final int[] handles = new int[1];
+
+    // What the cache has bound this render tick. -1 means unknown.
+    private static int currentProgram = -1;
+    private static int currentArrayBuffer = -1;
+    private static int enabledAttribs; // Bit mask of attribute locations.
+
+
+    // Returns the shared program for these sources, creating it if this is
+    // the first reference, or null if it failed to compile or link.
+    public static Program acquireProgram(String vertexSource, String fragmentSource)
+    {
+        String key = vertexSource + "\u0000" + fragmentSource;
+        Program program = programs.get(key);
+        if (program == null) {
+            int handle = createProgram(vertexSource, fragmentSource);
+            if (handle == 0) {
+                return null;
+            }
+            program = new Program();
+            program.key = key;
+            program.handle = handle;
+            programs.put(key, program);
+            //Log.d(TAG, "acquireProgram: created program handle: " + handle);
+        }
+
+        program.refCount++;
+
+        return program;
+    }
+
+
+    public static void releaseProgram(Program program)
+    {
+        if (--program.refCount > 0) {
+            return;
+        }
+
+        //Log.d(TAG, "releaseProgram: deleting program handle: " + program.handle);
+        programs.remove(program.key);
+        if (currentProgram == program.handle) {
+            currentProgram = -1;
+        }
+        GLES20.glDeleteProgram(program.handle);
+        program.handle = 0;
+        GLErrorCheck.check(TAG, "glDeleteProgram");
+    }
+
+
+    // Returns the shared static vertex buffer for this key, creating it
+    // from data if this is the first reference, or null if that failed.
+    public static Buffer acquireVertexBuffer(String key, float[] data)
+    {
+        Buffer buffer = buffers.get(key);
+        if (buffer == null) {
+            int handle = createVertexBuffer(data);
+            if (handle == 0) {
+                return null;
+            }
+            buffer = new Buffer();
+            buffer.key = key;
+            buffer.handle = handle;
+            buffers.put(key, buffer);
+            //Log.d(TAG, "acquireVertexBuffer: created buffer key: " + key + " handle: " + handle);
+        }
+
+        buffer.refCount++;
+
+        return buffer;
+    }
+
+
+    public static void releaseVertexBuffer(Buffer buffer)
+    {
+        if (--buffer.refCount > 0) {
+            return;
+        }
+
+        //Log.d(TAG, "releaseVertexBuffer: deleting buffer key: " + buffer.key + " handle: " + buffer.handle);
+        buffers.remove(buffer.key);
+        if (currentArrayBuffer == buffer.handle) {
+            currentArrayBuffer = -1;
+        }
+        handles[0] = buffer.handle;
+        GLES20.glDeleteBuffers(1, handles, 0);
+        buffer.handle = 0;
+        GLErrorCheck.check(TAG, "glDeleteBuffers");
+    }
+
+
+    // Called once per render tick, before any surface draws.
+    public static void beginFrame()
+    {
+        currentProgram = -1;
+        currentArrayBuffer = -1;
+        enabledAttribs = 0;
+    }
+
+
+    // Called once per render tick, after every surface has drawn, to leave
+    // the state the way each surface used to leave it.
+    public static void endFrame()
+    {
+        if (enabledAttribs != 0) {
+            for (int index = 0; index < MAX_TRACKED_ATTRIBS; index++) {
+                if ((enabledAttribs & (1 << index)) != 0) {
+                    GLES20.glDisableVertexAttribArray(index);
+                }
+            }
+            enabledAttribs = 0;
+        }
+
+        if (currentArrayBuffer > 0) {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        }
+        currentArrayBuffer = -1;
+
+        if (currentProgram > 0) {
+            GLES20.glUseProgram(0);
+        }
+        currentProgram = -1;
+    }
+
+
+    // Returns true if this changed the current program.
+    public static boolean useProgram(int program)
+    {
+        if (program == currentProgram) {
+            return false;
+        }
+
+        GLES20.glUseProgram(program);
+        currentProgram = program;
+
+        return true;
+    }
+
+
+    // Returns true if this changed the array buffer binding.
+    public static boolean bindArrayBuffer(int buffer)
+    {
+        if (buffer == currentArrayBuffer) {
+            return false;
+        }
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        currentArrayBuffer = buffer;
+
+        return true;
+    }
+
+
+    public static void enableVertexAttribArray(int index)
+    {
+        if (index >= MAX_TRACKED_ATTRIBS) {
+            GLES20.glEnableVertexAttribArray(index);
+            return;
+        }
+
+        int bit = 1 << index;
+        if ((enabledAttribs & bit) != 0) {
+            return;
+        }
+
+        GLES20.glEnableVertexAttribArray(index);
+        enabledAttribs |= bit;
+    }
+
+
+    private static int createVertexBuffer(float[] data)
+    {
+        GLES20.glGenBuffers(1, handles, 0);
+        int handle = handles[0];
+        if (GLErrorCheck.check(TAG, "glGenBuffers") ||
+            (handle == 0)) {
+            Log.e(TAG, "createVertexBuffer: Could not generate buffer.");
+            return 0;
+        }
+
+        int bufferSize = data.length * 4;
+        FloatBuffer vertices = ByteBuffer.allocateDirect(bufferSize)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertices.put(data).position(0);
+
+        bindArrayBuffer(handle);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, bufferSize, vertices, GLES20.GL_STATIC_DRAW);
+        if (GLErrorCheck.check(TAG, "glBufferData")) {
+            Log.e(TAG, "createVertexBuffer: Could not fill buffer.");
+            handles[0] = handle;
+            GLES20.glDeleteBuffers(1, handles, 0);
+            currentArrayBuffer = -1;
+            return 0;
+        }
+
+        return handle;
+    }
+
+
+    private static int createProgram(String vertexSource, String fragmentSource)
+    {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        if (vertexShader == 0) {
+            Log.e(TAG, "createProgram: Could not load vertex shader.");
+            return 0;
+        }
+        //Log.d(TAG, "createProgram: Loaded vertex shader.");
+
+        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        if (pixelShader == 0) {
+            Log.e(TAG, "createProgram: Could not load pixel shader.");
+            GLES20.glDeleteShader(vertexShader);
+            return 0;
+        }
+        //Log.d(TAG, "createProgram: Loaded pixel shader.");
+
+        int program = GLES20.glCreateProgram();
+        if (program == 0) {
+            Log.e(TAG, "createProgram: Could not create shader program.");
+            GLES20.glDeleteShader(vertexShader);
+            GLES20.glDeleteShader(pixelShader);
+            return 0;
+        }
+        //Log.d(TAG, "createProgram: Created program.");
+
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, pixelShader);
+        GLES20.glLinkProgram(program);
+
+        // The program keeps the shaders alive as long as it needs them.
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(pixelShader);
+
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, handles, 0);
+        if (GLErrorCheck.checkBoundary(TAG, "glLinkProgram") ||
+            (handles[0] != GLES20.GL_TRUE)) {
+            Log.e(TAG, "Could not link program: ");
+            Log.e(TAG, GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            return 0;
+        }
+        //Log.d(TAG, "createProgram: Linked program.");
+
+        return program;
+    }
+
+
+    private static int loadShader(int shaderType, String source)
+    {
+        int shader = GLES20.glCreateShader(shaderType);
+        if (GLErrorCheck.check(TAG, "glCreateShader") ||
+            (shader == 0)) {
+            Log.e(TAG, "loadShader: glError: Could not create shaderType: " + shaderType);
+            return 0;
+        }
+        //Log.d(TAG, "loadShader: created shader.");
+
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, handles, 0);
+        if (GLErrorCheck.check(TAG, "glCompileShader") ||
+            (handles[0] == 0)) {
+            Log.e(TAG, "loadShader: Could not compile shader. shaderType: " + shaderType);
+            Log.e(TAG, GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            return 0;
+        }
+        //Log.d(TAG, "loadShader: Compiled shader.");
+
+        return shader;
+    }
+
+
+}
@@ -0,0 +1,136 @@
+////////////////////////////////////////////////////////////////////////
+// KeyboardObserver.java
+// One global layout listener that tells every plugin when the soft keyboard shows or hides.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.ArrayList;
+import android.app.Activity;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+
+// Android has no keyboard visibility event, so the keyboard is assumed
+// to be showing when it has shrunk the window's visible frame by more
+// than a third of the display height. That is checked on every layout
+// pass of the activity, which happens often, so there is just one
+// listener for all the plugins, which reuses its Rect and Point, and
+// only sends SetKeyboardVisible to the plugins when the answer changes.
+// A plugin added later is sent the current answer right away.
+//
+// The listener is added with the first plugin, and removed with the
+// last one.
+//
+// Only used on the UI thread.
+
+class KeyboardObserver implements ViewTreeObserver.OnGlobalLayoutListener {
+
+    private static KeyboardObserver instance;
+
+
+    private final Activity activity;
+    private final View rootView;
+    private final ArrayList<String> pluginIDs = new ArrayList<String>();
+    private final Rect visibleFrame = new Rect();
+    private final Point displaySize = new Point();
+    private boolean known;
+    private boolean visible;
+
+
+    private KeyboardObserver(Activity activity_)
+    {
+        activity = activity_;
+        rootView = activity.getWindow().getDecorView().getRootView();
+    }
+
+
+    public static void add(Activity activity, String pluginID)
+    {
+        if ((instance != null) &&
+            (instance.activity != activity)) {
+            // The activity was replaced, so move its plugins to the new one.
+            KeyboardObserver old = instance;
+            old.detach();
+            instance = new KeyboardObserver(activity);
+            instance.pluginIDs.addAll(old.pluginIDs);
+            instance.attach();
+        } else if (instance == null) {
+            instance = new KeyboardObserver(activity);
+            instance.attach();
+        }
+
+        if (instance.pluginIDs.contains(pluginID)) {
+            return;
+        }
+
+        instance.pluginIDs.add(pluginID);
+
+        if (instance.known) {
+            CUnityJSPlugin.UnitySendMessage(pluginID, "SetKeyboardVisible", instance.visible ? "true" : "false");
+        }
+    }
+
+
+    public static void remove(String pluginID)
+    {
+        if (instance == null) {
+            return;
+        }
+
+        instance.pluginIDs.remove(pluginID);
+
+        if (instance.pluginIDs.isEmpty()) {
+            instance.detach();
+        }
+    }
+
+
+    private void attach()
+    {
+        rootView.getViewTreeObserver().addOnGlobalLayoutListener(this);
+    }
+
+
+    private void detach()
+    {
+        ViewTreeObserver observer = rootView.getViewTreeObserver();
+        if (observer.isAlive()) {
+            observer.removeOnGlobalLayoutListener(this);
+        }
+
+        if (instance == this) {
+            instance = null;
+        }
+    }
+
+
+    @Override
+    public void onGlobalLayout()
+    {
+        // The part of the window that is still visible.
+        rootView.getWindowVisibleDisplayFrame(visibleFrame);
+        activity.getWindowManager().getDefaultDisplay().getSize(displaySize);
+        int heightDiff = rootView.getHeight() - (visibleFrame.bottom - visibleFrame.top);
+        boolean nowVisible = heightDiff > (displaySize.y / 3);
+
+        if (known && (nowVisible == visible)) {
+            return;
+        }
+
+        known = true;
+        visible = nowVisible;
+
+        String message = visible ? "true" : "false";
+        int n = pluginIDs.size();
+        for (int i = 0; i < n; i++) {
+            CUnityJSPlugin.UnitySendMessage(pluginIDs.get(i), "SetKeyboardVisible", message);
+        }
+    }
+
+
+}
@@ -0,0 +1,112 @@
+////////////////////////////////////////////////////////////////////////
+// LatencyHistogram.java
+// Fixed size log-linear histogram of latencies, for percentiles.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// Latencies are recorded in nanoseconds into buckets that are linear
+// within each power of two: SUB_BUCKETS buckets per power of two, so any
+// percentile is within 1/SUB_BUCKETS (about 6%) of the true value. Values
+// under SUB_BUCKETS nanoseconds get a bucket each, and values past
+// 2^MAX_EXPONENT nanoseconds (about 18 minutes) all land in the last one.
+//
+// The histogram never allocates after construction, and any number of
+// threads can record into it at once. Percentiles read a snapshot that
+// is consistent per bucket but not across buckets.
+
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+
+    public void record(long nanos)
+    {
+        counts.incrementAndGet(bucketIndex(nanos));
+    }
+
+
+    public long getCount()
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+
+        return total;
+    }
+
+
+    // Returns the upper bound, in nanoseconds, of the bucket that holds
+    // the given fraction (0 to 1) of the recorded values, or 0 if none.
+    public long getPercentile(double fraction)
+    {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+
+        return bucketUpperBound(BUCKETS - 1);
+    }
+
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+
+    static int bucketIndex(long nanos)
+    {
+        if (nanos < SUB_BUCKETS) {
+            return (nanos < 0) ? 0 : (int)nanos;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int)(nanos >> shift) & (SUB_BUCKETS - 1);
+
+        return ((shift + 1) * SUB_BUCKETS) + subBucket;
+    }
+
+
+    static long bucketUpperBound(int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = (index / SUB_BUCKETS) - 1;
+        long subBucket = index % SUB_BUCKETS;
+
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+
+}
@@ -0,0 +1,318 @@
+////////////////////////////////////////////////////////////////////////
+// MessageQueue.java
+// Per-plugin queue of JS to Unity messages, flushed as one framed payload.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+
+// Messages are framed as a sequence of length prefixed fields:
+//   <method.length()>:<method><message.length()>:<message>...
+// Lengths count UTF-16 chars, so UnityJSPlugin.UnpackMessageBatch
+// can slice the C# string directly.
+//
+// The queue is a lock-free multi-producer single-consumer linked list
+// (Vyukov's intrusive MPSC queue). Any number of threads (the WebView's
+// JavaBridge thread, the UI thread) can push without blocking, and one
+// consumer at a time (the UI thread, the render thread, or Unity's main
+// thread polling) drains it.
+
+class MessageQueue {
+
+    public static final String BATCH_METHOD = "Batch";
+
+    // Results of push.
+    public static final int PUSH_QUEUED = 0;  // Queued behind other messages.
+    public static final int PUSH_STARTED = 1; // First message of a new batch.
+    public static final int PUSH_FULL = 2;    // Crossed the size or time threshold, flush now.
+
+    public static final int DEFAULT_MAX_PAYLOAD_LENGTH = 64 * 1024;
+    public static final int DEFAULT_MAX_DELAY_MS = 16;
+
+    // Framing overhead per message: two length prefixes and colons.
+    private static final int FRAME_OVERHEAD = 8;
+
+    // States of drainState.
+    private static final int DRAIN_IDLE = 0;
+    private static final int DRAIN_RUNNING = 1;
+    private static final int DRAIN_CONTENDED = 2; // Running, and another drain gave up.
+
+
+    // Receives drained messages in order, see drain(Consumer).
+    interface Consumer {
+        void message(String method, String message);
+    }
+
+
+    // Told how long each message waited in the queue, as it's drained,
+    // under the name it was pushed with.
+    interface LatencyRecorder {
+        void record(String name, long nanos);
+    }
+
+
+    static final class Node {
+        volatile Node next;
+        String method;
+        String message;
+        String name;
+        long queuedTime;
+    }
+
+
+    private static final AtomicReferenceFieldUpdater<Node, Node> nextUpdater =
+        AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    // Producers swap themselves into last, the consumer reads from first.
+    private final AtomicReference<Node> last;
+    private Node first;
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger pendingLength = new AtomicInteger();
+    private final AtomicInteger drainState = new AtomicInteger(DRAIN_IDLE);
+    private volatile long firstQueuedTime;
+    private volatile boolean leftMessages;
+    private volatile int maxPayloadLength = DEFAULT_MAX_PAYLOAD_LENGTH;
+    private volatile long maxDelayNanos = DEFAULT_MAX_DELAY_MS * 1000000L;
+    private volatile LatencyRecorder latencyRecorder;
+
+    // Only touched by the running drain.
+    private final StringBuilder payload = new StringBuilder(1024);
+    private final Consumer framer = new Consumer() {
+        public void message(String method, String message) {
+            payload.append(method.length()).append(':').append(method);
+            payload.append(message.length()).append(':').append(message);
+        }
+    };
+
+
+    public MessageQueue()
+    {
+        first = new Node();
+        last = new AtomicReference<Node>(first);
+    }
+
+
+    public void configure(int maxPayloadLength_, int maxDelayMS_)
+    {
+        maxPayloadLength = (maxPayloadLength_ > 0) ? maxPayloadLength_ : DEFAULT_MAX_PAYLOAD_LENGTH;
+        maxDelayNanos = ((maxDelayMS_ >= 0) ? maxDelayMS_ : DEFAULT_MAX_DELAY_MS) * 1000000L;
+    }
+
+
+    public void setLatencyRecorder(LatencyRecorder latencyRecorder_)
+    {
+        latencyRecorder = latencyRecorder_;
+    }
+
+
+    public long getMaxDelayMS()
+    {
+        return maxDelayNanos / 1000000L;
+    }
+
+
+    // Called from any thread. Never blocks.
+    public int push(String method, String message, long nowNanos)
+    {
+        return push(method, message, method, nowNanos);
+    }
+
+
+    // The same, with the name the message's latency is recorded under.
+    public int push(String method, String message, String name, long nowNanos)
+    {
+        if (message == null) {
+            message = "";
+        }
+
+        Node node = new Node();
+        node.method = method;
+        node.message = message;
+        node.name = name;
+        node.queuedTime = nowNanos;
+
+        boolean started = (count.getAndIncrement() == 0);
+        if (started) {
+            firstQueuedTime = nowNanos;
+        }
+        int length = pendingLength.addAndGet(method.length() + message.length() + FRAME_OVERHEAD);
+
+        Node prev = last.getAndSet(node);
+        nextUpdater.lazySet(prev, node);
+
+        if ((length >= maxPayloadLength) ||
+            ((nowNanos - firstQueuedTime) >= maxDelayNanos)) {
+            return PUSH_FULL;
+        }
+
+        return started ? PUSH_STARTED : PUSH_QUEUED;
+    }
+
+
+    // Whether the last drain left messages behind that were pushed while
+    // it ran. No push returned PUSH_STARTED for them, so the consumer has
+    // to schedule their flush itself. Only a drain that ran changes it,
+    // so after one that returned 0 it can still be true from another.
+    public boolean leftMessages()
+    {
+        return leftMessages;
+    }
+
+
+    public boolean isEmpty()
+    {
+        return count.get() == 0;
+    }
+
+
+    public int size()
+    {
+        return count.get();
+    }
+
+
+    // Returns the framed payload of everything queued so far and removes it
+    // from the queue, or null if there was nothing queued, or another drain
+    // is running, the same as drain(Consumer).
+    public String drain()
+    {
+        if (count.get() == 0) {
+            return null;
+        }
+
+        if (!startDrain()) {
+            return null;
+        }
+
+        try {
+
+            // The payload is shared, so take it before letting another drain run.
+            if (drainHeld(framer) == 0) {
+                return null;
+            }
+
+            String result = payload.toString();
+            payload.setLength(0);
+
+            return result;
+
+        } finally {
+            endDrain();
+        }
+    }
+
+
+    // Hands everything queued so far to consumer in order, removes it from
+    // the queue, and returns the number of messages drained.
+    // Only one consumer drains at a time: if another thread is already
+    // draining (the UI thread's flush, the render tick's and Unity's
+    // PollMessages can overlap), this returns 0 instead of waiting, and
+    // the one draining sets leftMessages for anything it leaves behind.
+    public int drain(Consumer consumer)
+    {
+        if (count.get() == 0) {
+            return 0;
+        }
+
+        if (!startDrain()) {
+            return 0;
+        }
+
+        try {
+            return drainHeld(consumer);
+        } finally {
+            endDrain();
+        }
+    }
+
+
+    // Returns false if another drain is running. Then that one sets
+    // leftMessages when it ends, for anything pushed before this gave up,
+    // since the push that scheduled this flush may have come after it had
+    // already taken everything.
+    private boolean startDrain()
+    {
+        while (true) {
+            int state = drainState.get();
+            if (state == DRAIN_IDLE) {
+                if (drainState.compareAndSet(DRAIN_IDLE, DRAIN_RUNNING)) {
+                    return true;
+                }
+            } else if ((state == DRAIN_CONTENDED) ||
+                       drainState.compareAndSet(DRAIN_RUNNING, DRAIN_CONTENDED)) {
+                return false;
+            }
+        }
+    }
+
+
+    private void endDrain()
+    {
+        if ((drainState.getAndSet(DRAIN_IDLE) == DRAIN_CONTENDED) &&
+            (count.get() > 0)) {
+            leftMessages = true;
+        }
+    }
+
+
+    // The body of both drains, run by the one that started. Only it
+    // touches leftMessages, so a drain that gave up can't clear what this
+    // one found.
+    private int drainHeld(Consumer consumer)
+    {
+        leftMessages = false;
+
+        int drained = 0;
+        int drainedLength = 0;
+        Node node;
+        LatencyRecorder recorder = latencyRecorder;
+        long now = (recorder == null) ? 0 : System.nanoTime();
+
+        while ((node = first.next) != null) {
+
+            String method = node.method;
+            String message = node.message;
+            String name = node.name;
+
+            // The node becomes the new stub, so drop its references.
+            node.method = null;
+            node.message = null;
+            node.name = null;
+            first = node;
+
+            drained++;
+            drainedLength += method.length() + message.length() + FRAME_OVERHEAD;
+
+            if (recorder != null) {
+                recorder.record(name, now - node.queuedTime);
+            }
+
+            consumer.message(method, message);
+        }
+
+        int remaining = count.get();
+        if (drained > 0) {
+            pendingLength.addAndGet(-drainedLength);
+            remaining = count.addAndGet(-drained);
+        }
+
+        // A push counts its message before linking it, so one that
+        // raced with this loop is still queued, even if this drained
+        // nothing. It didn't start a batch, so this starts one for it.
+        if (remaining > 0) {
+            firstQueuedTime = System.nanoTime();
+            leftMessages = true;
+        }
+
+        return drained;
+    }
+
+
+}
@@ -0,0 +1,193 @@
+////////////////////////////////////////////////////////////////////////
+// MessageRing.java
+// Direct ByteBuffer ring of messages shared with UnityJS.cpp.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+// Java writes records into a direct ByteBuffer, and the native side reads
+// them in place and hands pointers straight to the Unity send message
+// callback, without any JNI string conversions.
+//
+// Each record is:
+//   int32 bodyLength (native byte order, body padded to 4 bytes)
+//   target  UTF-8, NUL terminated
+//   method  UTF-8, NUL terminated
+//   message UTF-8, NUL terminated
+// A bodyLength of WRAP (or fewer than 4 bytes left before the end of the
+// buffer) tells the reader to continue at offset 0.
+//
+// U+0000 is encoded as the two byte sequence C0 80 like modified UTF-8,
+// so embedded NULs can't terminate a string early. Everything else is
+// standard UTF-8, with surrogate pairs encoded as 4 byte sequences.
+
+class MessageRing {
+
+    public static final int DEFAULT_CAPACITY = 256 * 1024;
+
+    private static final int RECORD_HEADER = 4;
+    private static final int WRAP = -1;
+
+
+    // Consumes the records in [head, tail) and returns the new head.
+    interface Reader {
+        int read(ByteBuffer buffer, int head, int tail);
+    }
+
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final Reader reader;
+    private int head;
+    private int tail;
+
+
+    public MessageRing(int capacity_, Reader reader_)
+    {
+        capacity = (capacity_ + 3) & ~3;
+        buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        reader = reader_;
+    }
+
+
+    public ByteBuffer getBuffer()
+    {
+        return buffer;
+    }
+
+
+    public boolean isEmpty()
+    {
+        return head == tail;
+    }
+
+
+    // Writes one record, flushing to the reader first if there is not enough
+    // contiguous room. Returns false if the record can never fit, in which
+    // case the caller should flush and send it some other way.
+    public boolean write(String target, String method, String message)
+    {
+        int maxBodyLength =
+            maxEncodedLength(target) + 1 +
+            maxEncodedLength(method) + 1 +
+            maxEncodedLength(message) + 1;
+        int maxRecordLength = RECORD_HEADER + ((maxBodyLength + 3) & ~3);
+
+        if (maxRecordLength >= capacity) {
+            return false;
+        }
+
+        if (!reserve(maxRecordLength)) {
+            flush();
+            if (!reserve(maxRecordLength)) {
+                return false;
+            }
+        }
+
+        int position = tail + RECORD_HEADER;
+        position = encode(target, position);
+        position = encode(method, position);
+        position = encode(message, position);
+
+        int bodyLength = ((position - (tail + RECORD_HEADER)) + 3) & ~3;
+        buffer.putInt(tail, bodyLength);
+        tail += RECORD_HEADER + bodyLength;
+
+        return true;
+    }
+
+
+    // Hands everything written so far to the reader.
+    public void flush()
+    {
+        if (head == tail) {
+            return;
+        }
+
+        head = reader.read(buffer, head, tail);
+
+        if (head == tail) {
+            head = 0;
+            tail = 0;
+        }
+    }
+
+
+    // Makes sure there are length contiguous bytes free at tail, wrapping
+    // around to the start if that is where the room is. The ring is never
+    // filled completely, so head == tail always means empty.
+    private boolean reserve(int length)
+    {
+        if (tail >= head) {
+
+            if ((capacity - tail) > length) {
+                return true;
+            }
+
+            if (head > length) {
+                if ((capacity - tail) >= RECORD_HEADER) {
+                    buffer.putInt(tail, WRAP);
+                }
+                tail = 0;
+                return true;
+            }
+
+            return false;
+        }
+
+        return (head - tail) > length;
+    }
+
+
+    private static int maxEncodedLength(String s)
+    {
+        return 3 * s.length();
+    }
+
+
+    private int encode(String s, int position)
+    {
+        ByteBuffer b = buffer;
+        int n = s.length();
+
+        for (int i = 0; i < n; i++) {
+
+            char c = s.charAt(i);
+
+            if ((c != 0) && (c < 0x80)) {
+                b.put(position++, (byte)c);
+            } else if (c < 0x800) {
+                b.put(position++, (byte)(0xc0 | (c >> 6)));
+                b.put(position++, (byte)(0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) &&
+                       ((i + 1) < n) &&
+                       Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                b.put(position++, (byte)(0xf0 | (codePoint >> 18)));
+                b.put(position++, (byte)(0x80 | ((codePoint >> 12) & 0x3f)));
+                b.put(position++, (byte)(0x80 | ((codePoint >> 6) & 0x3f)));
+                b.put(position++, (byte)(0x80 | (codePoint & 0x3f)));
+            } else {
+                if (Character.isSurrogate(c)) {
+                    c = '\ufffd'; // Unpaired surrogate.
+                }
+                b.put(position++, (byte)(0xe0 | (c >> 12)));
+                b.put(position++, (byte)(0x80 | ((c >> 6) & 0x3f)));
+                b.put(position++, (byte)(0x80 | (c & 0x3f)));
+            }
+
+        }
+
+        b.put(position++, (byte)0);
+
+        return position;
+    }
+
+
+}
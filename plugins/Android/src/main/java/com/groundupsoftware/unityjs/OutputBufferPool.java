@@ -0,0 +1,162 @@
+////////////////////////////////////////////////////////////////////////
+// OutputBufferPool.java
+// Process-wide pool of output texture and framebuffer pairs, bucketed by power of two size.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import android.opengl.GLES20;
+import android.util.Log;
+
+
+// Resizing a panel would otherwise reallocate its output textures with
+// glTexImage2D every time the size changes, which happens on every frame
+// while the user drags it. Instead, each buffer is allocated at the next
+// power of two size (at least MIN_BUCKET_SIZE) of what was asked for, the
+// WebView is blitted into its lower left corner, and the consumer scales
+// its UVs by the requested size over the allocated size. Resizing within
+// a bucket doesn't touch the GPU at all, and buffers released by one
+// plugin are reused by the next one that needs that bucket.
+//
+// Only the render thread uses the pool, so it isn't synchronized.
+
+class OutputBufferPool {
+
+    private static String TAG = "OutputBufferPool";
+
+    public static final int MIN_BUCKET_SIZE = 64;
+
+    // Released buffers beyond this many per bucket are deleted.
+    public static final int MAX_FREE_PER_BUCKET = 2;
+
+
+    static final class Entry {
+        int textureHandle;
+        int framebufferHandle;
+        int width;
+        int height;
+    }
+
+
+    private static final HashMap<Long, ArrayList<Entry>> free = new HashMap<Long, ArrayList<Entry>>();
+    private static final int[] handles = new int[1];
+
+
+    public static int bucketSize(int size)
+    {
+        int bucket = MIN_BUCKET_SIZE;
+        while (bucket < size) {
+            bucket <<= 1;
+        }
+
+        return bucket;
+    }
+
+
+    public static boolean fits(Entry entry, int width, int height)
+    {
+        return
+            (entry.width == bucketSize(width)) &&
+            (entry.height == bucketSize(height));
+    }
+
+
+    // Returns a buffer from the bucket for width by height, allocating one
+    // if the bucket is empty, or null if allocation failed.
+    public static Entry acquire(int width, int height)
+    {
+        int bucketWidth = bucketSize(width);
+        int bucketHeight = bucketSize(height);
+
+        ArrayList<Entry> entries = free.get(key(bucketWidth, bucketHeight));
+        if ((entries != null) && !entries.isEmpty()) {
+            //Log.d(TAG, "acquire: reusing bucketWidth: " + bucketWidth + " bucketHeight: " + bucketHeight);
+            return entries.remove(entries.size() - 1);
+        }
+
+        return create(bucketWidth, bucketHeight);
+    }
+
+
+    public static void release(Entry entry)
+    {
+        Long key = key(entry.width, entry.height);
+        ArrayList<Entry> entries = free.get(key);
+        if (entries == null) {
+            entries = new ArrayList<Entry>();
+            free.put(key, entries);
+        }
+
+        if (entries.size() < MAX_FREE_PER_BUCKET) {
+            entries.add(entry);
+        } else {
+            delete(entry);
+        }
+    }
+
+
+    private static Long key(int width, int height)
+    {
+        return Long.valueOf(((long)width << 32) | (long)height);
+    }
+
+
+    private static Entry create(int width, int height)
+    {
+        //Log.d(TAG, "create: width: " + width + " height: " + height);
+
+        Entry entry = new Entry();
+        entry.width = width;
+        entry.height = height;
+
+        GLES20.glGenTextures(1, handles, 0);
+        entry.textureHandle = handles[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, entry.textureHandle);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        GLES20.glGenFramebuffers(1, handles, 0);
+        entry.framebufferHandle = handles[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, entry.framebufferHandle);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, entry.textureHandle, 0);
+        int framebufferStatus = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        if (GLErrorCheck.checkBoundary(TAG, "create") ||
+            (framebufferStatus != GLES20.GL_FRAMEBUFFER_COMPLETE)) {
+            Log.e(TAG, "create: failed to create width: " + width + " height: " + height + " framebufferStatus: " + framebufferStatus);
+            delete(entry);
+            return null;
+        }
+
+        return entry;
+    }
+
+
+    private static void delete(Entry entry)
+    {
+        //Log.d(TAG, "delete: width: " + entry.width + " height: " + entry.height);
+
+        if (entry.framebufferHandle != 0) {
+            handles[0] = entry.framebufferHandle;
+            GLES20.glDeleteFramebuffers(1, handles, 0);
+            entry.framebufferHandle = 0;
+        }
+
+        if (entry.textureHandle != 0) {
+            handles[0] = entry.textureHandle;
+            GLES20.glDeleteTextures(1, handles, 0);
+            entry.textureHandle = 0;
+        }
+    }
+
+
+}
@@ -0,0 +1,110 @@
+////////////////////////////////////////////////////////////////////////
+// PluginRegistry.java
+// The live plugins by ID, with a lock free snapshot for the render thread.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+// Plugins are created and destroyed on Unity's thread, while the render
+// thread iterates over them every frame. The map is only changed under
+// the lock, and every change replaces a copy on write snapshot array,
+// which the render thread reads without locking, so creating and
+// destroying plugins never waits for rendering, and rendering never
+// waits for them.
+//
+// A plugin gets its ID from nextID before add publishes it, so the
+// render thread never sees a plugin without one.
+//
+// A render tick that started before a plugin was removed can still be
+// using its resources, so they are retired to a queue instead, and the
+// render thread polls them at the start of its next tick to release them.
+//
+// P is the plugin type, and R the type of the retired resources.
+
+class PluginRegistry<P, R> {
+
+    private final Object lock = new Object();
+
+    // Guarded by lock.
+    private final HashMap<String, P> plugins = new HashMap<String, P>();
+    private int currentID = 0;
+
+    private final P[] empty;
+    private volatile P[] snapshot;
+    private final ConcurrentLinkedQueue<R> retired = new ConcurrentLinkedQueue<R>();
+
+
+    // empty is a zero length array of P, for copying snapshots into.
+    public PluginRegistry(P[] empty_)
+    {
+        empty = empty_;
+        snapshot = empty_;
+    }
+
+
+    // Returns a new plugin ID, which is never "0".
+    public String nextID()
+    {
+        synchronized (lock) {
+            return "" + ++currentID;
+        }
+    }
+
+
+    // id is from nextID. The plugin's own fields, like its ID, are set
+    // before this, so writing the snapshot publishes them with it.
+    public void add(String id, P plugin)
+    {
+        synchronized (lock) {
+            plugins.put(id, plugin);
+            snapshot = plugins.values().toArray(empty);
+        }
+    }
+
+
+    // Returns false if there was no plugin with that ID.
+    public boolean remove(String id)
+    {
+        if (id == null) {
+            return false;
+        }
+
+        synchronized (lock) {
+            if (plugins.remove(id) == null) {
+                return false;
+            }
+            snapshot = plugins.values().toArray(empty);
+            return true;
+        }
+    }
+
+
+    // The plugins as of the last add or remove. Never modify it.
+    public P[] getSnapshot()
+    {
+        return snapshot;
+    }
+
+
+    // Queues resource for the render thread to release, from any thread.
+    public void retire(R resource)
+    {
+        retired.add(resource);
+    }
+
+
+    // Returns the next retired resource, or null. Only called by the
+    // render thread, at the start of a tick.
+    public R pollRetired()
+    {
+        return retired.poll();
+    }
+
+
+}
@@ -0,0 +1,231 @@
+////////////////////////////////////////////////////////////////////////
+// PluginStats.java
+// Always on performance counters for one plugin, reported as compact JSON.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// The counters are cheap enough to leave on in production: a
+// System.nanoTime pair around each timed phase, and a volatile or atomic
+// add per event. Each Timer and frame counter only has one writer (the
+// render thread or the UI thread), so those are plain volatiles. The
+// message counters can be bumped from several threads, so those are
+// atomic. toJSON can be called from any thread, and reads a snapshot that
+// is consistent per counter but not across counters.
+//
+// Message sizes are counted in UTF-16 chars, the length of the Java
+// strings, not in encoded bytes.
+//
+// Latencies of the bridge are kept in a LatencyHistogram per hop and
+// name, created the first time a name is seen. Messages from JS are
+// named by the page, or by their Unity method if it didn't name them,
+// and the rest by the plugin method:
+//
+//   fromJS:    From the page's Date.now() when it called Unity.call to
+//              CUnityJSPluginInterface.call on the Java bridge thread, if
+//              the page passed one. Only millisecond resolution, since
+//              the page's clock is the wall clock.
+//   toUnity:   From CUnityJSPluginInterface.call to handing the message
+//              to UnitySendMessage (or to PollMessages).
+//   toWebView: From the Unity thread's call to the UI thread running it.
+//   roundTrip: From EvaluateJSReturnResult to its result coming back.
+//
+// Pages can make up any number of names, so each hop only keeps
+// MAX_LATENCY_NAMES of them, and records the rest under OTHER_NAME.
+
+class PluginStats {
+
+    static final int MAX_LATENCY_NAMES = 32;
+    static final String OTHER_NAME = "other";
+
+
+    // Count, total and maximum duration of one phase.
+    static final class Timer {
+
+        private volatile long count;
+        private volatile long totalNanos;
+        private volatile long maxNanos;
+
+
+        // Only called by the phase's one thread.
+        public void add(long nanos)
+        {
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+
+        public long getCount()
+        {
+            return count;
+        }
+
+
+        void appendJSON(StringBuilder json, String name)
+        {
+            long n = count;
+            long total = totalNanos;
+            json.append('"').append(name).append("\":{\"n\":").append(n)
+                .append(",\"totalUS\":").append(total / 1000)
+                .append(",\"avgUS\":").append((n > 0) ? (total / n / 1000) : 0)
+                .append(",\"maxUS\":").append(maxNanos / 1000)
+                .append('}');
+        }
+
+    }
+
+
+    // Render thread.
+    volatile long framesRendered;   // Blits into the output texture.
+    volatile long framesSkipped;    // Frames latched with no new timestamp, so not blitted.
+    final Timer renderIntoTexture = new Timer();
+    final Timer update = new Timer();
+    final Timer drawFrame = new Timer();
+
+    // UI thread.
+    final Timer draw = new Timer(); // Drawing the WebView into the surface.
+
+    // Any thread.
+    final AtomicLong messagesToUnity = new AtomicLong();
+    final AtomicLong charsToUnity = new AtomicLong();
+    final AtomicLong messagesToWebView = new AtomicLong();
+    final AtomicLong charsToWebView = new AtomicLong();
+    final ConcurrentHashMap<String, LatencyHistogram> fromJSLatency = new ConcurrentHashMap<String, LatencyHistogram>();
+    final ConcurrentHashMap<String, LatencyHistogram> toUnityLatency = new ConcurrentHashMap<String, LatencyHistogram>();
+    final ConcurrentHashMap<String, LatencyHistogram> toWebViewLatency = new ConcurrentHashMap<String, LatencyHistogram>();
+    final ConcurrentHashMap<String, LatencyHistogram> roundTripLatency = new ConcurrentHashMap<String, LatencyHistogram>();
+
+
+    public void countToUnity(String method, String message)
+    {
+        messagesToUnity.incrementAndGet();
+        charsToUnity.addAndGet(method.length() + ((message == null) ? 0 : message.length()));
+    }
+
+
+    public void countToWebView(String js)
+    {
+        messagesToWebView.incrementAndGet();
+        charsToWebView.addAndGet((js == null) ? 0 : js.length());
+    }
+
+
+    public void recordLatency(ConcurrentHashMap<String, LatencyHistogram> histograms, String name, long nanos)
+    {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            // Racing threads can each add one more name than the limit.
+            if (histograms.size() >= MAX_LATENCY_NAMES) {
+                name = OTHER_NAME;
+                histogram = histograms.get(name);
+            }
+            if (histogram == null) {
+                LatencyHistogram created = new LatencyHistogram();
+                histogram = histograms.putIfAbsent(name, created);
+                if (histogram == null) {
+                    histogram = created;
+                }
+            }
+        }
+
+        histogram.record(nanos);
+    }
+
+
+    public void resetLatency()
+    {
+        for (LatencyHistogram histogram : fromJSLatency.values()) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : toUnityLatency.values()) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : toWebViewLatency.values()) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : roundTripLatency.values()) {
+            histogram.reset();
+        }
+    }
+
+
+    public String latencyToJSON(String pluginID)
+    {
+        StringBuilder json = new StringBuilder(512);
+
+        json.append("{\"pluginID\":\"").append(pluginID).append('"');
+        appendLatencyJSON(json, "fromJS", fromJSLatency);
+        appendLatencyJSON(json, "toUnity", toUnityLatency);
+        appendLatencyJSON(json, "toWebView", toWebViewLatency);
+        appendLatencyJSON(json, "roundTrip", roundTripLatency);
+        json.append('}');
+
+        return json.toString();
+    }
+
+
+    private static void appendLatencyJSON(StringBuilder json, String name, ConcurrentHashMap<String, LatencyHistogram> histograms)
+    {
+        json.append(",\"").append(name).append("\":{");
+
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            ConsoleLog.appendJSONString(json, entry.getKey());
+            json.append(":{\"n\":").append(histogram.getCount())
+                .append(",\"p50US\":").append(histogram.getPercentile(0.5) / 1000)
+                .append(",\"p99US\":").append(histogram.getPercentile(0.99) / 1000)
+                .append(",\"p999US\":").append(histogram.getPercentile(0.999) / 1000)
+                .append('}');
+        }
+
+        json.append('}');
+    }
+
+
+    // queued is how many messages are waiting to go to Unity, and drawPending
+    // whether a draw posted to the UI thread hasn't run yet. scale is the
+    // dynamic resolution scale.
+    public String toJSON(String pluginID, int queued, boolean drawPending, float scale)
+    {
+        StringBuilder json = new StringBuilder(512);
+
+        json.append("{\"pluginID\":\"").append(pluginID).append('"')
+            .append(",\"framesRendered\":").append(framesRendered)
+            .append(",\"framesSkipped\":").append(framesSkipped)
+            .append(',');
+        renderIntoTexture.appendJSON(json, "renderIntoTexture");
+        json.append(',');
+        update.appendJSON(json, "update");
+        json.append(',');
+        drawFrame.appendJSON(json, "drawFrame");
+        json.append(',');
+        draw.appendJSON(json, "draw");
+        json.append(",\"toUnity\":{\"n\":").append(messagesToUnity.get())
+            .append(",\"chars\":").append(charsToUnity.get())
+            .append("},\"toWebView\":{\"n\":").append(messagesToWebView.get())
+            .append(",\"chars\":").append(charsToWebView.get())
+            .append("},\"queued\":").append(queued)
+            .append(",\"drawPending\":").append(drawPending)
+            .append(",\"scale\":").append(scale)
+            .append('}');
+
+        return json.toString();
+    }
+
+
+}
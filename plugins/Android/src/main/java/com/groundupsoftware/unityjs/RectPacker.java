@@ -0,0 +1,131 @@
+////////////////////////////////////////////////////////////////////////
+// RectPacker.java
+// Packs rectangles into a power of two atlas with a simple shelf packer.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+// Sorts the rectangles by height, tallest first, and lays them out left to
+// right on shelves as tall as the first rectangle on each, starting a new
+// shelf above when a row is full. The atlas starts at the smallest power of
+// two square that could hold the total area, and grows, alternately wider
+// and taller, until everything fits or it would exceed maxSize.
+//
+// Coordinates have the origin at the lower left, like GL's, and each
+// rectangle is padded by PADDING pixels so linear filtering doesn't bleed
+// between neighbors.
+
+class RectPacker {
+
+    public static final int PADDING = 1;
+    public static final int MIN_SIZE = 64;
+
+
+    // Results of the last successful pack.
+    public int width;
+    public int height;
+
+    private int[] order = new int[0];
+
+
+    // Packs count rectangles of widths by heights, storing each one's lower
+    // left corner in xs and ys. Returns false if they don't fit in maxSize.
+    public boolean pack(int count, int[] widths, int[] heights, int[] xs, int[] ys, int maxSize)
+    {
+        if (order.length < count) {
+            order = new int[count];
+        }
+
+        long area = 0;
+        int widest = 0;
+        int tallest = 0;
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+            int w = widths[i] + PADDING;
+            int h = heights[i] + PADDING;
+            area += (long)w * h;
+            widest = Math.max(widest, w);
+            tallest = Math.max(tallest, h);
+        }
+
+        sortByHeight(count, heights);
+
+        int w = MIN_SIZE;
+        int h = MIN_SIZE;
+        while (((long)w * h < area) || (w < widest) || (h < tallest)) {
+            if (w <= h) {
+                w <<= 1;
+            } else {
+                h <<= 1;
+            }
+        }
+
+        while ((w <= maxSize) && (h <= maxSize)) {
+            if (tryPack(count, widths, heights, xs, ys, w, h)) {
+                width = w;
+                height = h;
+                return true;
+            }
+            if (w <= h) {
+                w <<= 1;
+            } else {
+                h <<= 1;
+            }
+        }
+
+        return false;
+    }
+
+
+    private boolean tryPack(int count, int[] widths, int[] heights, int[] xs, int[] ys, int w, int h)
+    {
+        int x = 0;
+        int y = 0;
+        int shelfHeight = 0;
+
+        for (int n = 0; n < count; n++) {
+            int i = order[n];
+            int rw = widths[i] + PADDING;
+            int rh = heights[i] + PADDING;
+
+            if (x + rw > w) {
+                // Start a new shelf.
+                x = 0;
+                y += shelfHeight;
+                shelfHeight = 0;
+            }
+
+            if ((rw > w) ||
+                (y + rh > h)) {
+                return false;
+            }
+
+            xs[i] = x;
+            ys[i] = y;
+            x += rw;
+            shelfHeight = Math.max(shelfHeight, rh);
+        }
+
+        return true;
+    }
+
+
+    // Insertion sort, since there are only ever a handful of rectangles,
+    // and it doesn't allocate.
+    private void sortByHeight(int count, int[] heights)
+    {
+        for (int n = 1; n < count; n++) {
+            int i = order[n];
+            int m = n - 1;
+            while ((m >= 0) && (heights[order[m]] < heights[i])) {
+                order[m + 1] = order[m];
+                m--;
+            }
+            order[m + 1] = i;
+        }
+    }
+
+
+}
@@ -0,0 +1,95 @@
+////////////////////////////////////////////////////////////////////////
+// RenderScheduler.java
+// Decides on which render ticks a plugin draws its WebView into its texture.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+// Unity ticks every plugin once per frame from RenderUpdateUnityJSPlugins,
+// and each plugin asks its scheduler whether to draw on that tick:
+//
+//   RENDER_MODE_ON_DEMAND:  Only when the WebView invalidated something,
+//                           or Unity requested a render.
+//   RENDER_MODE_CONTINUOUS: Every tick, capped at targetFPS (0 means
+//                           uncapped).
+//   RENDER_MODE_PAUSED:     Never. Requests are remembered, and honored
+//                           when the mode changes.
+//
+// Only the render thread calls shouldRender, but the mode and requests
+// can be set from any thread.
+
+class RenderScheduler {
+
+    public static final int RENDER_MODE_ON_DEMAND = 0;
+    public static final int RENDER_MODE_CONTINUOUS = 1;
+    public static final int RENDER_MODE_PAUSED = 2;
+
+
+    private volatile int mode = RENDER_MODE_ON_DEMAND;
+    private volatile long frameIntervalNanos;
+    private volatile boolean requested;
+
+    // Only touched by the render thread.
+    private long nextFrameTime;
+
+
+    public void setMode(int mode_, int targetFPS)
+    {
+        frameIntervalNanos = (targetFPS > 0) ? (1000000000L / targetFPS) : 0;
+        mode = mode_;
+        requested = true;
+    }
+
+
+    public int getMode()
+    {
+        return mode;
+    }
+
+
+    // Renders on the next tick that the mode allows.
+    public void request()
+    {
+        requested = true;
+    }
+
+
+    public boolean shouldRender(long nowNanos, boolean dirty)
+    {
+        switch (mode) {
+
+            case RENDER_MODE_ON_DEMAND:
+                if (!dirty && !requested) {
+                    return false;
+                }
+                break;
+
+            case RENDER_MODE_CONTINUOUS: {
+                long interval = frameIntervalNanos;
+                if (interval > 0) {
+                    if ((nowNanos - nextFrameTime) < 0) {
+                        return false;
+                    }
+                    // Keep a steady cadence, but don't try to catch up after a stall.
+                    nextFrameTime += interval;
+                    if ((nowNanos - nextFrameTime) >= 0) {
+                        nextFrameTime = nowNanos + interval;
+                    }
+                }
+                break;
+            }
+
+            default:
+                return false;
+
+        }
+
+        requested = false;
+
+        return true;
+    }
+
+
+}
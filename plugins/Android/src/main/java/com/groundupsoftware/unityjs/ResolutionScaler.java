@@ -0,0 +1,114 @@
+////////////////////////////////////////////////////////////////////////
+// ResolutionScaler.java
+// Adapts the resolution a WebView rasterizes at to a per plugin time budget.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+// Software rasterization costs about the same per pixel, so drawing the
+// WebView into a smaller surface and letting the blit scale it up saves
+// time in proportion to the area. This picks the scale from how long the
+// draws take:
+//
+//   - Each sample is smoothed into a moving average, so one slow frame
+//     doesn't change the scale.
+//   - When the average goes over budget, the scale drops by STEP.
+//   - It only goes back up by STEP when the average, scaled up by the
+//     extra area that costs, would still be under UP_FRACTION of the
+//     budget, so it doesn't flip back and forth across the budget.
+//   - After any change, it waits for COOLDOWN_SAMPLES new samples, since
+//     the draws right after a change redraw everything.
+//
+// The scale moves in steps of STEP, between minScale and 1, so the
+// surface only changes size a few times.
+//
+// Only one thread calls addSample, but the budget can be set, and the
+// scale read, from any thread.
+
+class ResolutionScaler {
+
+    public static final float STEP = 0.125f;
+    public static final float DEFAULT_MIN_SCALE = 0.5f;
+    public static final float UP_FRACTION = 0.8f;
+    public static final int COOLDOWN_SAMPLES = 8;
+
+
+    private volatile long budgetNanos; // 0 means disabled, so always full resolution.
+    private volatile float minScale = DEFAULT_MIN_SCALE;
+    private volatile float scale = 1.0f;
+
+    // Only touched by the thread that calls addSample.
+    private long average;
+    private int cooldown;
+
+
+    public void setBudget(long budgetNanos_, float minScale_)
+    {
+        minScale = Math.max(STEP, Math.min(1.0f, minScale_));
+        budgetNanos = Math.max(0, budgetNanos_);
+        if (budgetNanos == 0) {
+            scale = 1.0f;
+        } else if (scale < minScale) {
+            // Raised the minimum, so don't stay below it until the next change.
+            scale = minScale;
+        }
+    }
+
+
+    public boolean isEnabled()
+    {
+        return budgetNanos > 0;
+    }
+
+
+    public float getScale()
+    {
+        return scale;
+    }
+
+
+    // Adds how long a draw took. Returns true if that changed the scale.
+    public boolean addSample(long nanos)
+    {
+        long budget = budgetNanos;
+        if (budget <= 0) {
+            average = 0;
+            cooldown = 0;
+            return false;
+        }
+
+        average = (average == 0) ? nanos : (average + ((nanos - average) / 4));
+
+        if (cooldown > 0) {
+            cooldown--;
+            return false;
+        }
+
+        float current = scale;
+        float next = current;
+
+        if (average > budget) {
+            next = Math.max(minScale, current - STEP);
+        } else if (current < 1.0f) {
+            float up = Math.min(1.0f, current + STEP);
+            float area = (up * up) / (current * current);
+            if ((average * area) < (budget * UP_FRACTION)) {
+                next = up;
+            }
+        }
+
+        if (next == current) {
+            return false;
+        }
+
+        scale = next;
+        average = 0;
+        cooldown = COOLDOWN_SAMPLES;
+
+        return true;
+    }
+
+
+}
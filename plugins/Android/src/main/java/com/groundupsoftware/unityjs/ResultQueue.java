@@ -0,0 +1,159 @@
+////////////////////////////////////////////////////////////////////////
+// ResultQueue.java
+// Tracks in-flight EvaluateJSRequests, and batches their results for Unity.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+
+// Each request carries an ID chosen by Unity, which comes back with its
+// result, so any number of requests can be in flight at once. Results
+// that arrive in the same frame are sent to Unity together as one
+// ReturnResults message, framed like MessageQueue's batches:
+//   <id.length()>:<status><id><result.length()>:<result>...
+// where status is one of:
+//
+//   STATUS_RESULT:    The script's result, as JSON.
+//   STATUS_TIMEOUT:   No result by the request's deadline. The result is empty.
+//   STATUS_CANCELLED: Cancelled by Unity first. The result is empty.
+//
+// Every request gets exactly one of them. A script can't be stopped
+// once it's running, so a result that comes back after its request timed
+// out or was cancelled is dropped.
+//
+// Any thread can start, complete or cancel requests, and one thread at a
+// time drains.
+
+class ResultQueue {
+
+    public static final String RESULTS_METHOD = "ReturnResults";
+
+    public static final char STATUS_RESULT = 'r';
+    public static final char STATUS_TIMEOUT = 't';
+    public static final char STATUS_CANCELLED = 'c';
+
+
+    // Guarded by this.
+    private final HashMap<Integer, Long> deadlines = new HashMap<Integer, Long>(); // 0 means no deadline.
+    private final StringBuilder batch = new StringBuilder(1024);
+    private int batchCount;
+    private boolean hasDeadline;
+    private long nextDeadline;
+
+
+    public synchronized void start(int requestID, long deadlineNanos)
+    {
+        deadlines.put(requestID, deadlineNanos);
+
+        if ((deadlineNanos != 0) &&
+            (!hasDeadline || ((deadlineNanos - nextDeadline) < 0))) {
+            hasDeadline = true;
+            nextDeadline = deadlineNanos;
+        }
+    }
+
+
+    // Adds the result of a request to the batch, unless it already timed
+    // out or was cancelled. Returns true if it started a new batch, so the
+    // caller should make sure a drain is coming.
+    public synchronized boolean complete(int requestID, String result)
+    {
+        if (deadlines.remove(requestID) == null) {
+            return false;
+        }
+
+        return add(STATUS_RESULT, requestID, result);
+    }
+
+
+    // Returns true if it started a new batch, like complete.
+    public synchronized boolean cancel(int requestID)
+    {
+        if (deadlines.remove(requestID) == null) {
+            return false;
+        }
+
+        return add(STATUS_CANCELLED, requestID, "");
+    }
+
+
+    public synchronized int getPendingCount()
+    {
+        return deadlines.size();
+    }
+
+
+    // Returns true if there are results to send, or a deadline has passed.
+    public synchronized boolean needsDrain(long nowNanos)
+    {
+        return
+            (batchCount > 0) ||
+            (hasDeadline && ((nowNanos - nextDeadline) >= 0));
+    }
+
+
+    // Times out any requests past their deadlines, then returns the batch
+    // of results and removes it, or returns null if there aren't any.
+    public synchronized String drain(long nowNanos)
+    {
+        if (hasDeadline &&
+            ((nowNanos - nextDeadline) >= 0)) {
+            expire(nowNanos);
+        }
+
+        if (batchCount == 0) {
+            return null;
+        }
+
+        String result = batch.toString();
+        batch.setLength(0);
+        batchCount = 0;
+
+        return result;
+    }
+
+
+    private void expire(long nowNanos)
+    {
+        hasDeadline = false;
+
+        Iterator<Map.Entry<Integer, Long>> entries = deadlines.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, Long> entry = entries.next();
+            long deadline = entry.getValue();
+            if (deadline == 0) {
+                continue;
+            }
+            if ((nowNanos - deadline) >= 0) {
+                entries.remove();
+                add(STATUS_TIMEOUT, entry.getKey(), "");
+            } else if (!hasDeadline || ((deadline - nextDeadline) < 0)) {
+                hasDeadline = true;
+                nextDeadline = deadline;
+            }
+        }
+    }
+
+
+    private boolean add(char status, int requestID, String result)
+    {
+        if (result == null) {
+            result = "";
+        }
+
+        String id = status + Integer.toString(requestID);
+        batch.append(id.length()).append(':').append(id);
+        batch.append(result.length()).append(':').append(result);
+        batchCount++;
+
+        return batchCount == 1;
+    }
+
+
+}
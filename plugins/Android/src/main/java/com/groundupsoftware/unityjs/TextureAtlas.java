@@ -0,0 +1,280 @@
+////////////////////////////////////////////////////////////////////////
+// TextureAtlas.java
+// One shared output texture that many small ExternalSurfaces blit into in one pass.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.util.ArrayList;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+
+// A HUD built out of lots of little web widgets pays for a framebuffer,
+// a blit, a sync and a texture per widget, which costs much more than
+// the pixels involved. Surfaces in the atlas instead get a rectangle in
+// one shared texture, and update blits all of the ones with new frames
+// with one framebuffer bind and one sync. Unity samples the atlas texture
+// through each plugin's UV rectangle.
+//
+// Whenever a member joins, leaves or changes size, RectPacker lays them
+// all out again, and every member is blitted again in its new place from
+// the frame it has latched.
+//
+// The atlas is always single buffered. It is synced with a fence when any
+// member's sync mode is SYNC_FENCE and GLES 3 is available, and just
+// glFlush otherwise.
+//
+// Only the render thread uses the atlas, so it isn't synchronized.
+
+class TextureAtlas {
+
+    private static String TAG = "TextureAtlas";
+
+    private static final ArrayList<ExternalSurface> members = new ArrayList<ExternalSurface>();
+    private static final RectPacker packer = new RectPacker();
+    private static int[] widths = new int[0];
+    private static int[] heights = new int[0];
+    private static int[] xs = new int[0];
+    private static int[] ys = new int[0];
+
+    private static OutputBufferPool.Entry buffer;
+    private static boolean layoutDirty;
+    private static int maxSize;
+    private static long fence;
+
+
+    public static void add(ExternalSurface surface)
+    {
+        if (!members.contains(surface)) {
+            members.add(surface);
+            layoutDirty = true;
+        }
+    }
+
+
+    public static void remove(ExternalSurface surface)
+    {
+        if (members.remove(surface)) {
+            surface.atlasPlaced = false;
+            layoutDirty = true;
+        }
+
+        if (members.isEmpty()) {
+            release();
+        }
+    }
+
+
+    // Called when a member's size changes.
+    public static void invalidate()
+    {
+        layoutDirty = true;
+    }
+
+
+    public static int getTextureHandle()
+    {
+        return (buffer == null) ? 0 : buffer.textureHandle;
+    }
+
+
+    public static int getWidth()
+    {
+        return (buffer == null) ? 0 : buffer.width;
+    }
+
+
+    public static int getHeight()
+    {
+        return (buffer == null) ? 0 : buffer.height;
+    }
+
+
+    // Lays the members out again if anything changed, and reallocates the
+    // texture if they need a different size.
+    public static void layout()
+    {
+        if (!layoutDirty) {
+            return;
+        }
+        layoutDirty = false;
+
+        int count = members.size();
+        if (count == 0) {
+            release();
+            return;
+        }
+
+        if (maxSize == 0) {
+            int[] params = new int[1];
+            GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, params, 0);
+            maxSize = (params[0] > 0) ? params[0] : 2048;
+        }
+
+        if (widths.length < count) {
+            widths = new int[count];
+            heights = new int[count];
+            xs = new int[count];
+            ys = new int[count];
+        }
+
+        for (int i = 0; i < count; i++) {
+            ExternalSurface member = members.get(i);
+            widths[i] = member.getFramebufferWidth();
+            heights[i] = member.getFramebufferHeight();
+        }
+
+        if (!packer.pack(count, widths, heights, xs, ys, maxSize)) {
+            Log.e(TAG, "layout: " + count + " surfaces don't fit in maxSize: " + maxSize);
+            for (int i = 0; i < count; i++) {
+                members.get(i).atlasPlaced = false;
+            }
+            return;
+        }
+
+        //Log.d(TAG, "layout: count: " + count + " width: " + packer.width + " height: " + packer.height);
+
+        if ((buffer != null) &&
+            !OutputBufferPool.fits(buffer, packer.width, packer.height)) {
+            deleteFence();
+            OutputBufferPool.release(buffer);
+            buffer = null;
+        }
+
+        if (buffer == null) {
+            buffer = OutputBufferPool.acquire(packer.width, packer.height);
+            if (buffer == null) {
+                for (int i = 0; i < count; i++) {
+                    members.get(i).atlasPlaced = false;
+                }
+                return;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            ExternalSurface member = members.get(i);
+            member.atlasX = xs[i];
+            member.atlasY = ys[i];
+            member.atlasPlaced = true;
+            member.atlasBlitAll = true;
+        }
+    }
+
+
+    // Called once per render tick, before the plugins update. Blits every
+    // member with a new frame, or that moved, into the atlas.
+    public static void update()
+    {
+        if (members.isEmpty()) {
+            return;
+        }
+
+        layout();
+
+        if (buffer == null) {
+            return;
+        }
+
+        boolean bound = false;
+        boolean fenced = false;
+
+        for (int i = 0, n = members.size(); i < n; i++) {
+            ExternalSurface member = members.get(i);
+            if (member.getSyncMode() == ExternalSurface.SYNC_FENCE) {
+                fenced = true;
+            }
+            if (!member.atlasPlaced) {
+                continue;
+            }
+
+            boolean fresh = member.acquireFrame();
+            if (!fresh && !member.atlasBlitAll) {
+                continue;
+            }
+            if (!member.hasFrame()) {
+                continue;
+            }
+
+            if (!bound) {
+                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, buffer.framebufferHandle);
+                if (!ExternalSurface.beginBlits()) {
+                    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+                    return;
+                }
+                bound = true;
+            }
+
+            boolean clip = member.clipToDamage(!member.atlasBlitAll);
+            member.atlasBlitAll = false;
+            if (member.blitInto(member.atlasX, member.atlasY, clip)) {
+                member.atlasUpdated = true;
+            }
+        }
+
+        if (!bound) {
+            return;
+        }
+
+        deleteFence();
+        if (fenced &&
+            ExternalSurface.isFenceSupported()) {
+            fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            if (GLErrorCheck.check(TAG, "glFenceSync")) {
+                fence = 0;
+            }
+        }
+        GLES20.glFlush();
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        ExternalSurface.endBlits();
+
+        GLErrorCheck.checkBoundary(TAG, "update");
+    }
+
+
+    // Makes the GPU wait for the last update before sampling the atlas.
+    public static void waitFence()
+    {
+        if (fence == 0) {
+            return;
+        }
+
+        GLES30.glWaitSync(fence, 0, GLES30.GL_TIMEOUT_IGNORED);
+        GLErrorCheck.check(TAG, "glWaitSync");
+        deleteFence();
+    }
+
+
+    public static long getFence()
+    {
+        return fence;
+    }
+
+
+    private static void deleteFence()
+    {
+        if (fence == 0) {
+            return;
+        }
+
+        GLES30.glDeleteSync(fence);
+        fence = 0;
+    }
+
+
+    private static void release()
+    {
+        deleteFence();
+
+        if (buffer != null) {
+            OutputBufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+
+}
@@ -0,0 +1,40 @@
+////////////////////////////////////////////////////////////////////////
+// UnityJSNative.java
+// The native methods in libUnityJS.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import java.nio.ByteBuffer;
+
+
+// The library is loaded the first time one of these is called, and its
+// JNI_OnLoad binds them with RegisterNatives, so their names are not
+// mangled, but their signatures must match the nativeMethods table in
+// UnityJS.cpp. CUnityJSPlugin only calls them through here, so the rest
+// of the plugin can be loaded without the library, as the benchmark
+// module does with a fake of this class.
+
+class UnityJSNative {
+
+    static {
+        System.loadLibrary("UnityJS");
+    }
+
+
+    // CUnityJSPlugin_SetUnitySendMessageCallback
+    public native static void SetUnitySendMessageCallback(long sendMessageCallback);
+
+    // CUnityJSPlugin_UnitySendMessage
+    public native static long UnitySendMessage(String target, String method, String message);
+
+    // CUnityJSPlugin_GetRenderEventFunc
+    public native static long GetRenderEventFunc();
+
+    // CUnityJSPlugin_UnitySendMessageRing
+    public native static int UnitySendMessageRing(ByteBuffer buffer, int head, int tail);
+
+
+}
@@ -0,0 +1,218 @@
+////////////////////////////////////////////////////////////////////////
+// WebMessageChannel.java
+// Asynchronous WebMessagePort channel from the page to Unity.
+// Copyright (C) 2017 by Don Hopkins, Ground Up Software.
+
+
+package com.groundupsoftware.unityjs;
+
+
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+import android.webkit.ValueCallback;
+import android.webkit.WebMessage;
+import android.webkit.WebMessagePort;
+import android.webkit.WebView;
+
+
+// Every call through the "Unity" JavascriptInterface blocks the page's
+// JS thread until the Java bridge thread has taken it. With the channel
+// open, window.Unity is replaced by a shim with the same call and
+// returnResult methods, which post the message to a WebMessagePort and
+// return right away. The Java end hands each message to a Receiver,
+// which is the same CUnityJSPluginInterface, so Unity sees the same
+// CallFromJS and ReturnResultFromJS messages either way.
+//
+// Each page load gets a new JS context, so open is called again from
+// onPageFinished: it injects the shim, then posts it a new port. The
+// shim only takes a port posted by the app, whose event.source is null,
+// not one the page or a frame posted to itself, and then stops
+// listening, so nothing can swap its port later. Each open adds one
+// listener for its own port, if one isn't already waiting. Scripts
+// that run before that still go through the JavascriptInterface, which
+// stays installed. close puts the JavascriptInterface back in
+// window.Unity before closing the port, so no messages are lost.
+//
+// Messages are the method's one letter code, the page's Date.now() when
+// it called (or 0), a colon, the length of the message's name, a colon,
+// the name, and then the message, like "c1500000000000:4:moveHello". The
+// time and name are the optional arguments to Unity.call, which go to
+// PluginStats the same way through either path.
+//
+// Needs API 23 (WebView.createWebMessageChannel). Only used on the UI
+// thread.
+
+class WebMessageChannel {
+
+    private static String TAG = "WebMessageChannel";
+
+    private static final String PORT_MESSAGE = "UnityJSPort";
+
+    private static final String SHIM_JS =
+        "(function() {" +
+        "  if (window.UnityJSPortWaiting) { return; }" +
+        "  window.UnityJSPortWaiting = true;" +
+        "  if (!window.UnityJSNative) { window.UnityJSNative = window.Unity; }" +
+        "  window.addEventListener('message', function listener(event) {" +
+        "    if ((event.source !== null) || (event.data !== '" + PORT_MESSAGE + "') ||" +
+        "        !event.ports || !event.ports.length) { return; }" +
+        "    event.stopImmediatePropagation();" +
+        "    window.removeEventListener('message', listener, true);" +
+        "    window.UnityJSPortWaiting = false;" +
+        "    var port = event.ports[0];" +
+        "    window.Unity = {" +
+        "      call: function(message, sentTime, name) {" +
+        "        name = name ? String(name) : '';" +
+        "        port.postMessage('c' + Math.floor(sentTime || 0) + ':' + name.length + ':' + name + message);" +
+        "      }," +
+        "      returnResult: function(message) { port.postMessage('r0:0:' + message); }" +
+        "    };" +
+        "  }, true);" +
+        "})();";
+
+    private static final String RESTORE_JS =
+        "if (window.UnityJSNative) { window.Unity = window.UnityJSNative; }";
+
+
+    // Gets the messages the page posts, on the UI thread.
+    interface Receiver {
+        void call(String method, String message, long sentTime, String name);
+    }
+
+
+    private final Receiver receiver;
+    private WebMessagePort port;
+
+
+    public WebMessageChannel(Receiver receiver_)
+    {
+        receiver = receiver_;
+    }
+
+
+    // Takes apart a message posted by the shim.
+    private void receive(String data)
+    {
+        String method = (data.charAt(0) == 'r') ? "ReturnResultFromJS" : "CallFromJS";
+        int timeEnd = data.indexOf(':', 1);
+        int lengthEnd = (timeEnd < 0) ? -1 : data.indexOf(':', timeEnd + 1);
+        if (lengthEnd < 0) {
+            Log.e(TAG, "receive: malformed message: " + data);
+            return;
+        }
+
+        long sentTime;
+        int nameLength;
+        try {
+            sentTime = Long.parseLong(data.substring(1, timeEnd));
+            nameLength = Integer.parseInt(data.substring(timeEnd + 1, lengthEnd));
+        } catch (NumberFormatException ex) {
+            Log.e(TAG, "receive: malformed message: " + data);
+            return;
+        }
+
+        int nameEnd = lengthEnd + 1 + nameLength;
+        if ((nameLength < 0) || (nameEnd > data.length())) {
+            Log.e(TAG, "receive: malformed message: " + data);
+            return;
+        }
+
+        receiver.call(
+            method,
+            data.substring(nameEnd),
+            sentTime,
+            data.substring(lengthEnd + 1, nameEnd));
+    }
+
+
+    public static boolean isSupported()
+    {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+
+    public boolean isOpen()
+    {
+        return port != null;
+    }
+
+
+    // Opens a new channel to the page loaded in webView, closing any
+    // old one.
+    public void open(final WebView webView)
+    {
+        if (!isSupported()) {
+            return;
+        }
+
+        closePort();
+
+        final WebMessagePort[] ports;
+        try {
+            ports = webView.createWebMessageChannel();
+        } catch (Exception ex) {
+            Log.e(TAG, "open: createWebMessageChannel failed. ex: " + ex);
+            return;
+        }
+
+        port = ports[0];
+        port.setWebMessageCallback(new WebMessagePort.WebMessageCallback() {
+            @Override
+            public void onMessage(WebMessagePort from, WebMessage message) {
+                String data = message.getData();
+                if ((data == null) || data.isEmpty()) {
+                    return;
+                }
+                receive(data);
+            }
+        });
+
+        // Hand over the page's end once the shim is listening for it.
+        // Any origin, since pages are often loaded from file: URLs.
+        webView.evaluateJavascript(SHIM_JS, new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String result) {
+                if (port != ports[0]) {
+                    // Closed or reopened in the meantime.
+                    ports[1].close();
+                    return;
+                }
+                webView.postWebMessage(new WebMessage(PORT_MESSAGE, new WebMessagePort[] { ports[1] }), Uri.parse("*"));
+            }
+        });
+    }
+
+
+    // Puts the JavascriptInterface back, then closes the channel.
+    public void close(WebView webView)
+    {
+        if (port == null) {
+            return;
+        }
+
+        final WebMessagePort closing = port;
+        port = null;
+
+        webView.evaluateJavascript(RESTORE_JS, new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String result) {
+                closing.close();
+            }
+        });
+    }
+
+
+    // Closes the channel without touching the page, when it's going away.
+    public void closePort()
+    {
+        if (port == null) {
+            return;
+        }
+
+        port.close();
+        port = null;
+    }
+
+
+}